@@ -13,125 +13,117 @@ class AI extends Player {
      */
     AI(Game game, Color color) {
         super(game, color);
-        _board = (MutableBoard) getGame()._board;
+        _context = new SearchContext();
     }
 
-    /** The A.I. makes a move.*/
+    /** The A.I. makes a move.  The search is made on a private copy of
+     *  the game's position, so the game's board may be read by others
+     *  meanwhile.  If the game has a book (see Game.book) holding a move
+     *  chosen for this position by a search at least as deep as mine, the
+     *  A.I. plays that.  Once most of the board is owned, it first looks
+     *  for a forced win with its endgame solver, and plays the first move
+     *  of any it finds.  If it has a time limit (see setBeam), it instead
+     *  chooses its move by a BeamSearch within that time, and does not
+     *  use its endgame solver, whose cost grows with the size of the
+     *  board. */
     @Override
     void makeMove() {
         Game game = getGame();
-        int randomCuttoff = (int) Math.random() * 10;
-        AImove move = minmax(getColor(), _board,
-                     Defaults.DEPTH, Integer.MAX_VALUE);
-        game.makeMove(move.getMove());
-        game.message("%s moves %d %d.\n",
-                     getColor(), _board.row(move.getMove()),
-                     _board.col(move.getMove()));
-    }
-
-    /**
-     * Return the minimum of CUTOFF and the minmax value of board B (which must
-     * be mutable) for player P to a search depth of D (where D == 0 denotes
-     * evaluating just the next move). If MOVES is not null and CUTOFF is not
-     * exceeded, set MOVES to a list of all highest-scoring moves for P; clear
-     * it if non-null and CUTOFF is exceeded. the contents of B are invariant
-     * over this call.
-     * The value that is returned is a move object.
-     */
-    private AImove minmax(Color p, MutableBoard b, int d, int cutoff) {
-        if (b.won() || d == 0) {
-            return new AImove(-1, staticEval(p, b));
-        }
-        int size = getGame().getBoard().size();
-        AImove bestSoFar = new AImove(-1, -Integer.MAX_VALUE);
-        for (int i = 0; i < size * size; i++) {
-            if (b.isLegal(p, i)) {
-                b.addSpot(p, i);
-                AImove response = minmax(p.opposite(), b, d - 1,
-                                       -bestSoFar.getValue());
-                b.undo();
-                if (-response.getValue() >= bestSoFar.getValue()) {
-                    AImove M = new AImove(i, -response.getValue());
-                    bestSoFar = M;
-                    if (M.getValue() >= cutoff) {
-                        break;
-                    }
-                }
-            }
-        }
-        return bestSoFar;
-    }
-
-    /**
-     * Returns heuristic value of board B for player P. Higher is better for P.
-     * Note:  Use -Integer.MAX_VALUE for -infinity instead of Integer.MAX_VALUE.
-     */
-    private int staticEval(Color p, Board b) {
-        int color = 0;
-        int opp = 0;
-        if (b.won()) {
-            if (b.squares[0].getColor() == p) {
-                return Integer.MAX_VALUE;
-            } else {
-                return -Integer.MAX_VALUE;
-            }
+        _context.load(game.snapshot());
+        int move = -1;
+        _nodes = _quiescentNodes = 0;
+        PositionStore book = game.book();
+        if (book != null) {
+            move = book.bookMove(_context.getBoard(), Defaults.DEPTH);
         }
-        for (Board.Square square : b.squares) {
-            if (square.getColor() == p) {
-                color += 1;
+        if (move < 0 && _solving && _beamMillis == 0
+            && ProofSearch.endgame(_context.getBoard())) {
+            int result = _context.solve(getColor(), Defaults.SOLVER_MOVES,
+                                        Defaults.SOLVER_NODES);
+            _nodes = _context.solver().nodes();
+            if (result == ProofSearch.PROVEN
+                && _context.solver().lineLength() > 0) {
+                move = _context.solver().line()[0];
             }
         }
-        for (Board.Square square : b.squares) {
-            if (square.getColor() == p.opposite()) {
-                opp += 1;
-            }
+        if (move < 0 && _beamMillis > 0) {
+            move = _context.beamMove(getColor(), _beamMillis);
+            _nodes += _context.beam().nodes();
+        } else if (move < 0) {
+            move = _context.bestMove(getColor(), Defaults.DEPTH);
+            _nodes += _context.nodes();
+            _quiescentNodes = _context.quiescentNodes();
         }
-        return color - opp;
+        game.makeMove(move);
+        Board board = getBoard();
+        game.message("%s moves %d %d.\n",
+                     getColor(), board.row(move), board.col(move));
     }
 
-    @Override
-    public MutableBoard getBoard() {
-        return _board;
+    /** Turn the quiescence search at the search horizon on iff ON. */
+    void setQuiescence(boolean on) {
+        _context.search().setQuiescence(on);
     }
 
-    /**The board used by THIS AI.*/
-    private MutableBoard _board;
+    /** Turn verified null-move pruning on iff ON. */
+    void setNullMove(boolean on) {
+        _context.search().setNullMove(on);
+    }
 
-    /** A single move made by the A.I.  Every MOVE has a
-     *  heuristic VALUE.*/
-    class AImove {
+    /** Turn late-move reductions on iff ON. */
+    void setReductions(boolean on) {
+        _context.search().setReductions(on);
+    }
 
-        /** Creates a new A.I. move with MOVE and the
-         *  heuristic value VAL.*/
-        AImove(int move, int val) {
-            _move = move;
-            _value = val;
-        }
+    /** Evaluate positions using WEIGHTS, rather than the standard
+     *  weights. */
+    void setWeights(Weights weights) {
+        _context.search().setWeights(weights);
+    }
 
-        /** Sets the heuristic value, VAL, of THIS move.*/
-        void setVal(int val) {
-            _value = val;
-        }
+    /** Evaluate positions with local patterns (see PatternEval) iff
+     *  ON. */
+    void setPatterns(boolean on) {
+        _context.setPatterns(on);
+    }
 
-        /** Returns the heuristic value of THIS move.*/
-        int getValue() {
-            return _value;
-        }
+    /** Look for forced wins in the endgame with a ProofSearch iff ON. */
+    void setSolving(boolean on) {
+        _solving = on;
+    }
 
-        /** Sets THIS current MOVE.*/
-        void setMove(int move) {
-            _move = move;
-        }
+    /** Choose moves by a BeamSearch taking about MILLIS milliseconds
+     *  if MILLIS is positive, and otherwise by a full-width search. */
+    void setBeam(long millis) {
+        _beamMillis = Math.max(0, millis);
+    }
 
-        /**Returns THIS current move.*/
-        int getMove() {
-            return _move;
-        }
+    /** Returns the number of full-width search nodes, and positions
+     *  visited by my endgame solver, visited for my last move. */
+    long nodes() {
+        return _nodes;
+    }
 
-        /**THIS move.*/
-        private int _move;
+    /** Returns the number of quiescence search nodes visited for my last
+     *  move. */
+    long quiescentNodes() {
+        return _quiescentNodes;
+    }
 
-        /**THIS heuristic value of THIS move.*/
-        private int _value;
+    /** Returns the context in which I search. */
+    SearchContext context() {
+        return _context;
     }
+
+    /** The private board and search I use to choose moves. */
+    private final SearchContext _context;
+    /** True iff I use my endgame solver. */
+    private boolean _solving = true;
+    /** Time limit of my beam search in milliseconds, or 0 if I search
+     *  full width. */
+    private long _beamMillis;
+    /** Numbers of full-width and quiescence nodes visited for my last
+     *  move. */
+    private long _nodes, _quiescentNodes;
+
 }
@@ -0,0 +1,127 @@
+package jump61;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Offline analysis of a batch of positions.  Each position is searched
+ *  independently on a pool of threads, each of which keeps one
+ *  SearchContext and loads every position it is given into it,
+ *  clearing its transposition table first so that no report depends
+ *  on which positions its thread happened to search before.  The best
+ *  few moves of each position are reported with their values and
+ *  principal variations, in the order the positions were read.
+ *  Positions are read as they are needed, so that only a few per
+ *  thread are held in memory at once.
+ *  @author Alan Ponte
+ */
+class Analysis {
+
+    /** An analysis that searches to depth DEPTH, reports the best K
+     *  moves of each position, and uses THREADS threads. */
+    Analysis(int depth, int k, int threads) {
+        _depth = depth;
+        _k = k;
+        _threads = threads;
+    }
+
+    /** Analyze all positions (see PositionFormat) in INPUT, writing the
+     *  results on OUTPUT. */
+    void run(BufferedReader input, PrintWriter output) throws IOException {
+        PositionFormat.Reader positions = new PositionFormat.Reader(input);
+        long start = System.nanoTime();
+        int count;
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        try {
+            ArrayDeque<Future<String>> pending = new ArrayDeque<>();
+            count = 0;
+            for (MutableBoard b = positions.next(); b != null;
+                 b = positions.next()) {
+                if (pending.size() >= QUEUED_PER_THREAD * _threads) {
+                    output.print(pending.removeFirst().get());
+                }
+                count += 1;
+                final int index = count;
+                final MutableBoard board = b;
+                pending.addLast(pool.submit(() -> analyze(index, board)));
+            }
+            while (!pending.isEmpty()) {
+                output.print(pending.removeFirst().get());
+            }
+        } catch (InterruptedException | ExecutionException excp) {
+            throw new GameException("analysis failed: " + excp.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        output.printf("# %d positions in %.2f s (%.1f/s), depth %d, "
+                      + "%d threads%n", count, secs, count / secs,
+                      _depth, _threads);
+        output.flush();
+    }
+
+    /** Returns the report on position #INDEX, which is on BOARD. */
+    String analyze(int index, MutableBoard board) {
+        StringBuilder out = new StringBuilder();
+        Color p = board.whoseMove();
+        out.append(String.format("position %d: %s to move%n", index, p));
+        if (board.won()) {
+            out.append(String.format("  won by %s%n", board.color(0)));
+            return out.toString();
+        }
+        SearchContext context = _contexts.get();
+        context.load(board);
+        context.search().clearTable();
+        board = context.getBoard();
+        int count = context.bestMoves(p, _depth, _k);
+        int[] moves = context.moves(), values = context.values();
+        for (int i = 0; i < count; i += 1) {
+            out.append(String.format("  %d. %d %d  %s  pv", i + 1,
+                                     board.row(moves[i]), board.col(moves[i]),
+                                     value(values[i])));
+            board.addSpot(p, moves[i]);
+            int len = context.principalVariation(p.opposite(), _depth);
+            int[] pv = context.pv();
+            board.undo();
+            out.append(String.format(" %d %d", board.row(moves[i]),
+                                     board.col(moves[i])));
+            for (int j = 0; j < len && j + 1 < _depth; j += 1) {
+                out.append(String.format(", %d %d", board.row(pv[j]),
+                                         board.col(pv[j])));
+            }
+            out.append(String.format("%n"));
+        }
+        return out.toString();
+    }
+
+    /** Returns VALUE as text, with wins and losses spelled out. */
+    private static String value(int value) {
+        if (value == Search.WIN) {
+            return "win";
+        } else if (value == -Search.WIN) {
+            return "loss";
+        } else {
+            return String.format("%+d", value);
+        }
+    }
+
+    /** Maximum number of positions per thread read ahead of the
+     *  report being written. */
+    private static final int QUEUED_PER_THREAD = 4;
+
+    /** The search context of each of my threads. */
+    private final ThreadLocal<SearchContext> _contexts =
+        ThreadLocal.withInitial(SearchContext::new);
+    /** Search depth. */
+    private final int _depth;
+    /** Number of moves reported per position. */
+    private final int _k;
+    /** Number of threads used. */
+    private final int _threads;
+
+}
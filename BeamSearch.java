@@ -0,0 +1,433 @@
+package jump61;
+
+import java.util.Arrays;
+
+import static jump61.Search.WIN;
+
+/** A search for boards too large for a full-width Search, whose cost
+ *  at each node grows with the number of squares.  Each candidate move
+ *  is first given a cheap score that looks only at its square and that
+ *  square's neighbors (see score), and only the best-scoring few (the
+ *  beam) are searched at each node, by alpha-beta.  At the root, every
+ *  legal move of each player is scored once, and the best
+ *  Defaults.BEAM_POOL of each player's moves form that player's pool;
+ *  the candidates at a node below the root are the moves of the pool of
+ *  the player to move that are still legal, together with the squares
+ *  changed by the moves leading to the node and their neighbors, since
+ *  only the scores of those can have changed.
+ *
+ *  The search is by iterative deepening and widening within a time
+ *  limit: it first searches the best Defaults.BEAM_WIDTH moves one ply
+ *  deep, and then alternately searches one ply deeper and twice as
+ *  wide (up to the whole pool), trying the best move so far first.
+ *  It stops when the time is up, abandoning the iteration in progress
+ *  and playing the best move of the last one finished, when a forced
+ *  result is found, or at depth Defaults.BEAM_DEPTH with the whole pool
+ *  searched.  The time taken is thus about the limit, whatever the
+ *  size of the board, except that the first iteration, whose cost is
+ *  that of scoring the board once and making and evaluating
+ *  Defaults.BEAM_WIDTH moves, is always finished.  Moves are made on
+ *  the board as trial moves (see MutableBoard.tryMove), and the board is
+ *  the same after each search as before.
+ *  @author Alan Ponte
+ */
+class BeamSearch {
+
+    /** A search over positions on BOARD. */
+    BeamSearch(MutableBoard board) {
+        _board = board;
+    }
+
+    /** Returns the best move for P, who is to move on my board, that I
+     *  find within about MILLIS milliseconds.  My board must not be
+     *  won. */
+    int bestMove(Color p, long millis) {
+        long start = System.nanoTime();
+        _deadline = start + millis * 1000000L;
+        _nodes = 0;
+        _iterations = _depth = _width = 0;
+        _timeUp = false;
+        _touchedSize = 0;
+        prepare();
+        _player = p;
+        pool(p.opposite(), _pools[1]);
+        int pool = pool(p, _pools[0]);
+        int best = _pools[0][0];
+        _value = 0;
+        int depth = 1, width = Math.min(Defaults.BEAM_WIDTH, pool);
+        long last = 0;
+        while (pool > 1) {
+            long begun = System.nanoTime();
+            if (_iterations > 0 && _deadline - begun < last) {
+                break;
+            }
+            int move = root(p, depth, width, best);
+            if (_timeUp) {
+                break;
+            }
+            best = move;
+            _iterations += 1;
+            _depth = depth;
+            _width = width;
+            last = System.nanoTime() - begun;
+            if (Math.abs(_value) == WIN
+                || depth == Defaults.BEAM_DEPTH && width == pool) {
+                break;
+            }
+            if (width == pool
+                || _iterations % 2 == 1 && depth < Defaults.BEAM_DEPTH) {
+                depth += 1;
+            } else {
+                width = Math.min(2 * width, pool);
+            }
+        }
+        _nanos = System.nanoTime() - start;
+        return best;
+    }
+
+    /** Returns the board I search. */
+    MutableBoard getBoard() {
+        return _board;
+    }
+
+    /** Evaluate positions using WEIGHTS. */
+    void setWeights(Weights weights) {
+        _weights = weights;
+    }
+
+    /** Evaluate positions using PATTERNS, which must evaluate my board,
+     *  or using my weights if PATTERNS is null. */
+    void setPatterns(PatternEval patterns) {
+        assert patterns == null || patterns.getBoard() == _board;
+        _patterns = patterns;
+    }
+
+    /** Returns the value, for the player to move, of the move returned
+     *  by the last search, as found by its last finished iteration. */
+    int value() {
+        return _value;
+    }
+
+    /** Returns the number of iterations finished by the last search. */
+    int iterations() {
+        return _iterations;
+    }
+
+    /** Returns the depth of the last iteration finished by the last
+     *  search. */
+    int depth() {
+        return _depth;
+    }
+
+    /** Returns the number of moves searched at each node by the last
+     *  iteration finished by the last search. */
+    int width() {
+        return _width;
+    }
+
+    /** Returns the number of nodes visited by the last search, including
+     *  those of an abandoned iteration. */
+    long nodes() {
+        return _nodes;
+    }
+
+    /** Returns the time in nanoseconds taken by the last search. */
+    long nanos() {
+        return _nanos;
+    }
+
+    /** Make room in my buffers for searches of my board, and note the
+     *  shape of its squares. */
+    private void prepare() {
+        MutableBoard b = _board;
+        int squares = b.size() * b.size();
+        _arena.reserve(Defaults.BEAM_DEPTH, squares);
+        if (_stamps.length < squares) {
+            _stamps = new int[squares];
+            _stamp = 0;
+        }
+        if (b.topology() != _topology) {
+            _topology = b.topology();
+            _offsets = _topology.offsets();
+            _targets = _topology.targets();
+        }
+    }
+
+    /** Score every legal move of P on my board, put the best of them,
+     *  best first, in POOL, and return how many there are. */
+    private int pool(Color p, int[] pool) {
+        MutableBoard b = _board;
+        int[] moves = _arena.moves(0), scores = _arena.scores(0);
+        int count = 0;
+        for (int i = b.nextLegal(p, 0); i >= 0; i = b.nextLegal(p, i + 1)) {
+            moves[count] = i;
+            scores[count] = score(p, i);
+            count += 1;
+        }
+        count = select(moves, scores, count, Defaults.BEAM_POOL);
+        System.arraycopy(moves, 0, pool, 0, count);
+        _poolSizes[pool == _pools[0] ? 0 : 1] = count;
+        return count;
+    }
+
+    /** Search the best WIDTH moves of P's pool, trying FIRST first,
+     *  to depth DEPTH, WIDTH moves wide, setting _value to the value of
+     *  the best.  Returns the best move, or -1 if the time ran out. */
+    private int root(Color p, int depth, int width, int first) {
+        int[] moves = _arena.moves(0), pool = _pools[0];
+        moves[0] = first;
+        int count = 1;
+        for (int k = 0; count < width; k += 1) {
+            if (pool[k] != first) {
+                moves[count++] = pool[k];
+            }
+        }
+        int best = first, alpha = -WIN;
+        for (int c = 0; c < count; c += 1) {
+            int v = -play(p, moves[c], depth - 1, width, -WIN, -alpha, 0);
+            if (_timeUp) {
+                return -1;
+            }
+            if (v > alpha || c == 0) {
+                alpha = v;
+                best = moves[c];
+            }
+        }
+        _value = alpha;
+        return best;
+    }
+
+    /** Make move MOVE for P at ply PLY, and return the value for P's
+     *  opponent of the resulting position, searched to depth DEPTH,
+     *  WIDTH moves wide, with bounds ALPHA and BETA. */
+    private int play(Color p, int move, int depth, int width, int alpha,
+                     int beta, int ply) {
+        MutableBoard b = _board;
+        b.tryMove(p, move, _arena);
+        int mark = _touchedSize;
+        for (int k = 0; k < _arena.recordSize(); k += 2) {
+            touch(_arena.recordEntry(k));
+        }
+        int v = search(p.opposite(), depth, width, alpha, beta, ply + 1);
+        _touchedSize = mark;
+        b.untry(_arena);
+        return v;
+    }
+
+    /** Returns the heuristic value of my board, which is not won, for
+     *  P, who is to move, under my pattern evaluator, if I have one, and
+     *  otherwise under my weights. */
+    private int staticEval(Color p) {
+        if (_patterns != null) {
+            return _patterns.evaluate(p);
+        }
+        return _weights.evaluate(_board, p);
+    }
+
+    /** Returns the value for P, who is to move, of the position on my
+     *  board at ply PLY, searched to depth DEPTH, WIDTH moves wide, with
+     *  bounds ALPHA and BETA, or 0 if the time ran out (setting
+     *  _timeUp). */
+    private int search(Color p, int depth, int width, int alpha, int beta,
+                       int ply) {
+        MutableBoard b = _board;
+        _nodes += 1;
+        if (_iterations > 0 && System.nanoTime() - _deadline > 0) {
+            _timeUp = true;
+            return 0;
+        }
+        if (b.won()) {
+            return b.color(0) == p ? WIN : -WIN;
+        }
+        if (depth == 0) {
+            return staticEval(p);
+        }
+        int count = candidates(p, ply, width);
+        if (count == 0) {
+            return staticEval(p);
+        }
+        int[] moves = _arena.moves(ply);
+        int best = -WIN;
+        for (int c = 0; c < count; c += 1) {
+            int v = -play(p, moves[c], depth - 1, width, -beta, -alpha, ply);
+            if (_timeUp) {
+                return 0;
+            }
+            if (v > best) {
+                best = v;
+                if (v > alpha) {
+                    alpha = v;
+                    if (alpha >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /** Put the best WIDTH of P's candidate moves at ply PLY, best first,
+     *  in the move buffer for PLY, and return how many there are.  The
+     *  candidates are the legal moves of P's pool and of the squares
+     *  changed since the root and their neighbors. */
+    private int candidates(Color p, int ply, int width) {
+        int[] moves = _arena.moves(ply), scores = _arena.scores(ply);
+        _stamp += 1;
+        if (_stamp == 0) {
+            Arrays.fill(_stamps, 0);
+            _stamp = 1;
+        }
+        int side = p == _player ? 0 : 1;
+        int[] pool = _pools[side];
+        int count = 0;
+        for (int k = 0; k < _poolSizes[side]; k += 1) {
+            count = consider(p, pool[k], moves, scores, count);
+        }
+        for (int k = 0; k < _touchedSize; k += 1) {
+            int n = _touched[k];
+            count = consider(p, n, moves, scores, count);
+            for (int j = _offsets[n]; j < _offsets[n + 1]; j += 1) {
+                count = consider(p, _targets[j], moves, scores, count);
+            }
+        }
+        return select(moves, scores, count, width);
+    }
+
+    /** If square N is a legal move for P not yet considered at this
+     *  node, add it and its score as entry COUNT of MOVES and SCORES.
+     *  Returns the resulting number of entries. */
+    private int consider(Color p, int n, int[] moves, int[] scores,
+                         int count) {
+        if (_stamps[n] == _stamp) {
+            return count;
+        }
+        _stamps[n] = _stamp;
+        if (!_board.isLegal(p, n)) {
+            return count;
+        }
+        moves[count] = n;
+        scores[count] = score(p, n);
+        return count + 1;
+    }
+
+    /** Returns a quick estimate of the worth to P of a move on square N,
+     *  from N and its neighbors alone.  A move that makes N jump scores
+     *  highly, and more so for each of the opponent's squares, and
+     *  spots, that the jump captures.  Another move scores lower the
+     *  more of the opponent's neighbors are ready to jump onto N, and a
+     *  little higher if it makes N ready to jump.  Squares with fewer
+     *  neighbors, which are ready to jump sooner, score a little
+     *  higher. */
+    private int score(Color p, int n) {
+        MutableBoard b = _board;
+        Color opp = p.opposite();
+        int capacity = _offsets[n + 1] - _offsets[n];
+        int spots = b.spots(n);
+        int result = -capacity;
+        if (spots == capacity) {
+            result += EXPLODE;
+            for (int j = _offsets[n]; j < _offsets[n + 1]; j += 1) {
+                int adj = _targets[j];
+                if (b.color(adj) == opp) {
+                    result += CAPTURE + b.spots(adj);
+                }
+            }
+            return result;
+        }
+        if (spots + 1 == capacity) {
+            result += RIPEN;
+        }
+        for (int j = _offsets[n]; j < _offsets[n + 1]; j += 1) {
+            int adj = _targets[j];
+            if (b.color(adj) == opp
+                && b.spots(adj) == _offsets[adj + 1] - _offsets[adj]) {
+                result -= DANGER;
+            }
+        }
+        return result;
+    }
+
+    /** Note that square N was changed by a move on the current line. */
+    private void touch(int n) {
+        if (_touchedSize == _touched.length) {
+            _touched = Arrays.copyOf(_touched, 2 * _touched.length);
+        }
+        _touched[_touchedSize++] = n;
+    }
+
+    /** Move the K (at least 1) highest-scoring of the first COUNT of
+     *  MOVES, whose scores are the corresponding entries of SCORES, to
+     *  the front, best first, and return how many were moved. */
+    private static int select(int[] moves, int[] scores, int count, int k) {
+        int kept = 0;
+        for (int c = 0; c < count; c += 1) {
+            int move = moves[c], score = scores[c];
+            if (kept == k && score <= scores[kept - 1]) {
+                continue;
+            }
+            int i = kept < k ? kept++ : kept - 1;
+            while (i > 0 && scores[i - 1] < score) {
+                moves[i] = moves[i - 1];
+                scores[i] = scores[i - 1];
+                i -= 1;
+            }
+            moves[i] = move;
+            scores[i] = score;
+        }
+        return kept;
+    }
+
+    /** Score bonuses for a move that makes its square jump, for each of
+     *  the opponent's squares it captures, and for a move that makes its
+     *  square ready to jump, and penalty for each of the opponent's
+     *  neighbors ready to jump onto it. */
+    private static final int EXPLODE = 64, CAPTURE = 16, RIPEN = 8,
+        DANGER = 32;
+
+    /** The board searched. */
+    private final MutableBoard _board;
+    /** Undo records of my trial moves, and my per-ply move buffers. */
+    private final SearchArena _arena = new SearchArena(1, 1);
+    /** The weights of my static evaluation. */
+    private Weights _weights = Weights.standard();
+    /** The pattern evaluator used instead of my weights, or null. */
+    private PatternEval _patterns;
+    /** The topology of the board at the last search, and its neighbor
+     *  lists (see Topology.offsets). */
+    private Topology _topology;
+    /** Start of each square's neighbors in _targets. */
+    private int[] _offsets;
+    /** The neighbors of all squares. */
+    private int[] _targets;
+    /** The player to move at the root of the current search. */
+    private Color _player;
+    /** The pools of that player and of the opponent: the best-scoring
+     *  moves of each at the root, best first. */
+    private final int[][] _pools = new int[2][Defaults.BEAM_POOL];
+    /** Numbers of moves in _pools. */
+    private final int[] _poolSizes = new int[2];
+    /** The squares changed by the moves on the current line. */
+    private int[] _touched = new int[64];
+    /** Number of squares in _touched. */
+    private int _touchedSize;
+    /** _stamps[n] is _stamp iff square n has been considered as a
+     *  candidate at the current node. */
+    private int[] _stamps = new int[0];
+    /** The stamp of the current node. */
+    private int _stamp;
+    /** The time, as of System.nanoTime, at which the search must stop. */
+    private long _deadline;
+    /** True iff the current iteration ran out of time. */
+    private boolean _timeUp;
+    /** Value of the best move of the last iteration finished. */
+    private int _value;
+    /** Iterations finished by the last search. */
+    private int _iterations;
+    /** Depth and width of the last iteration finished. */
+    private int _depth, _width;
+    /** Nodes visited by the last search. */
+    private long _nodes;
+    /** Time taken by the last search. */
+    private long _nanos;
+
+}
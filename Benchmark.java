@@ -0,0 +1,779 @@
+package jump61;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import static jump61.Color.*;
+
+/** Timing runs for the performance-sensitive parts of Jump61.  These are
+ *  not part of the game; run them with
+ *      java jump61.Benchmark <NAME> <ARGS>...
+ *  @author Alan Ponte
+ */
+class Benchmark {
+
+    /** Run the benchmark named ARGS[0] with arguments ARGS[1..]. */
+    public static void main(String[] args)
+        throws InterruptedException, IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: java jump61.Benchmark cascade [N]");
+            System.err.println("       java jump61.Benchmark quiescence"
+                               + " [N [GAMES]]");
+            System.err.println("       java jump61.Benchmark search"
+                               + " [N [DEPTH [POSITIONS]]]");
+            System.err.println("       java jump61.Benchmark weights"
+                               + " FILE [N [GAMES]]");
+            System.err.println("       java jump61.Benchmark patterns"
+                               + " [N [GAMES]]");
+            System.err.println("       java jump61.Benchmark count"
+                               + " [N [REPS]]");
+            System.err.println("       java jump61.Benchmark load [N]");
+            System.err.println("       java jump61.Benchmark arena"
+                               + " [N [DEPTH [POSITIONS]]]");
+            System.err.println("       java jump61.Benchmark solve"
+                               + " [N [MOVES [POSITIONS [GAMES]]]]");
+            System.err.println("       java jump61.Benchmark selective"
+                               + " [N [DEPTH [POSITIONS [GAMES]]]]");
+            System.err.println("       java jump61.Benchmark beam"
+                               + " [N [MILLIS [POSITIONS [GAMES]]]]");
+            System.err.println("       java jump61.Benchmark render"
+                               + " [MOVES]");
+            System.err.println("       java jump61.Benchmark spectators"
+                               + " [N [SUBSCRIBERS [MOVES]]]");
+            System.exit(1);
+        }
+        switch (args[0]) {
+        case "cascade":
+            cascade(args.length > 1 ? Integer.parseInt(args[1]) : 1000);
+            break;
+        case "quiescence":
+            quiescence(args.length > 1 ? Integer.parseInt(args[1]) : 5,
+                       args.length > 2 ? Integer.parseInt(args[2]) : 20);
+            break;
+        case "search":
+            search(args.length > 1 ? Integer.parseInt(args[1]) : 6,
+                   args.length > 2 ? Integer.parseInt(args[2]) : 5,
+                   args.length > 3 ? Integer.parseInt(args[3]) : 10);
+            break;
+        case "spectators":
+            spectators(args.length > 1 ? Integer.parseInt(args[1]) : 50,
+                       args.length > 2 ? Integer.parseInt(args[2]) : 1000,
+                       args.length > 3 ? Integer.parseInt(args[3]) : 2000);
+            break;
+        case "weights":
+            weights(args[1],
+                    args.length > 2 ? Integer.parseInt(args[2]) : 5,
+                    args.length > 3 ? Integer.parseInt(args[3]) : 20);
+            break;
+        case "patterns":
+            patterns(args.length > 1 ? Integer.parseInt(args[1]) : 6,
+                     args.length > 2 ? Integer.parseInt(args[2]) : 20);
+            break;
+        case "count":
+            count(args.length > 1 ? Integer.parseInt(args[1]) : 1000,
+                  args.length > 2 ? Integer.parseInt(args[2]) : 200);
+            break;
+        case "load":
+            load(args.length > 1 ? Integer.parseInt(args[1]) : 500);
+            break;
+        case "arena":
+            arena(args.length > 1 ? Integer.parseInt(args[1]) : 6,
+                  args.length > 2 ? Integer.parseInt(args[2]) : 4,
+                  args.length > 3 ? Integer.parseInt(args[3]) : 200);
+            break;
+        case "solve":
+            solve(args.length > 1 ? Integer.parseInt(args[1]) : 6,
+                  args.length > 2 ? Integer.parseInt(args[2]) : 3,
+                  args.length > 3 ? Integer.parseInt(args[3]) : 50,
+                  args.length > 4 ? Integer.parseInt(args[4]) : 10);
+            break;
+        case "selective":
+            selective(args.length > 1 ? Integer.parseInt(args[1]) : 6,
+                      args.length > 2 ? Integer.parseInt(args[2]) : 5,
+                      args.length > 3 ? Integer.parseInt(args[3]) : 50,
+                      args.length > 4 ? Integer.parseInt(args[4]) : 10);
+            break;
+        case "beam":
+            beam(args.length > 1 ? Integer.parseInt(args[1]) : 200,
+                 args.length > 2 ? Integer.parseInt(args[2]) : 100,
+                 args.length > 3 ? Integer.parseInt(args[3]) : 5,
+                 args.length > 4 ? Integer.parseInt(args[4]) : 10);
+            break;
+        case "render":
+            render(args.length > 1 ? Integer.parseInt(args[1]) : 2000);
+            break;
+        default:
+            System.err.printf("Unknown benchmark: %s%n", args[0]);
+            System.exit(1);
+        }
+    }
+
+    /** Time REPS countings of the squares of each color, evaluations,
+     *  and checks for a win on a random N x N board, and on a won one,
+     *  looking at every square and using the board's bitsets. */
+    static void count(int N, int reps) {
+        MutableBoard b = new MutableBoard(N);
+        Random rand = new Random(61);
+        for (int n = 0; n < N * N; n += 1) {
+            int k = rand.nextInt(3);
+            if (k > 0) {
+                b.put(n, 1 + rand.nextInt(b.neighbors(n)),
+                      k == 1 ? RED : BLUE);
+            }
+        }
+        MutableBoard won = new MutableBoard(N);
+        for (int n = 0; n < N * N; n += 1) {
+            won.put(n, 1, RED);
+        }
+        Weights standard = new Weights();
+        System.out.printf("count on %dx%d, %d reps (us per operation):%n",
+                          N, N, reps);
+        System.out.printf("  %-12s %10s %10s %8s%n", "", "scan",
+                          "bitsets", "speedup");
+        String[] names = { "numOfColor", "evaluate", "won (won)" };
+        for (int op = 0; op < names.length; op += 1) {
+            double[] micros = new double[2];
+            long sink = 0;
+            for (int mode = 0; mode < 2; mode += 1) {
+                b.setBitCounting(mode == 1);
+                won.setBitCounting(mode == 1);
+                for (int warm = 0; warm < 3; warm += 1) {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < reps; i += 1) {
+                        switch (op) {
+                        case 0:
+                            sink += b.numOfColor(RED) + b.numOfColor(BLUE);
+                            break;
+                        case 1:
+                            sink += standard.evaluate(b, RED);
+                            break;
+                        default:
+                            sink += won.won() ? 1 : 0;
+                            break;
+                        }
+                    }
+                    micros[mode] = (System.nanoTime() - start) / 1e3 / reps;
+                }
+            }
+            System.out.printf("  %-12s %10.2f %10.2f %7.1fx [%d]%n",
+                              names[op], micros[0], micros[1],
+                              micros[0] / micros[1], sink & 1);
+        }
+    }
+
+    /** Time setting up a random N x N position square by square, as a
+     *  series of set commands does, and loading it in one step and
+     *  stabilizing it, as the load command does. */
+    static void load(int N) {
+        Random rand = new Random(61);
+        int[] cells = new int[N * N];
+        for (int n = 0; n < N * N; n += 1) {
+            int k = rand.nextInt(3);
+            cells[n] = k == 0 ? Board.cell(0, WHITE)
+                : Board.cell(1 + rand.nextInt(3), k == 1 ? RED : BLUE);
+        }
+        MutableBoard bySet = new MutableBoard(N);
+        MutableBoard byLoad = new MutableBoard(N);
+        String text = PositionFormat.compact(byLoad);
+        for (int warm = 0; warm < 2; warm += 1) {
+            long start = System.nanoTime();
+            bySet.clear(N);
+            for (int n = 0; n < N * N; n += 1) {
+                bySet.set(n, Board.cellSpots(cells[n]),
+                          Board.cellColor(cells[n]));
+            }
+            bySet.stabilize();
+            double setMs = (System.nanoTime() - start) / 1e6;
+
+            start = System.nanoTime();
+            byLoad.load(N, cells, 0);
+            int overfull = byLoad.stabilize();
+            double loadMs = (System.nanoTime() - start) / 1e6;
+
+            text = PositionFormat.compact(byLoad);
+            start = System.nanoTime();
+            MutableBoard parsed = PositionFormat.parseCompact(text);
+            double parseMs = (System.nanoTime() - start) / 1e6;
+            if (warm == 1) {
+                System.out.printf("load on %dx%d (%d over-full):%n", N, N,
+                                  overfull);
+                System.out.printf("  %d sets:      %10.1f ms%n", N * N,
+                                  setMs);
+                System.out.printf("  load:         %10.1f ms (%.1fx)%n",
+                                  loadMs, setMs / loadMs);
+                System.out.printf("  parse compact: %9.1f ms%n", parseMs);
+                System.out.printf("  boards identical: %b%n",
+                                  bySet.toString().equals(byLoad.toString())
+                                  && parsed.toString()
+                                  .equals(byLoad.toString()));
+            }
+        }
+    }
+
+    /** Time a cascade of about N*N/2 jumps on an N x N board, resolved
+     *  depth first and in waves, and check that both give the same
+     *  board. */
+    static void cascade(int N) {
+        MutableBoard seq = cascadeBoard(N);
+        MutableBoard wave = cascadeBoard(N);
+        seq.setWaveSize(Integer.MAX_VALUE);
+        wave.setWaveSize(0);
+
+        long start = System.nanoTime();
+        seq.addSpot(RED, N * N - 1);
+        long seqTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        wave.addSpot(RED, N * N - 1);
+        long waveTime = System.nanoTime() - start;
+
+        boolean same = true;
+        for (int n = 0; n < N * N && same; n += 1) {
+            same = seq.spots(n) == wave.spots(n)
+                && seq.color(n) == wave.color(n);
+        }
+        System.out.printf("cascade %dx%d, %d threads%n", N, N,
+                          Runtime.getRuntime().availableProcessors());
+        System.out.printf("  depth first: %8.1f ms%n", seqTime / 1e6);
+        System.out.printf("  waves:       %8.1f ms (%.2fx), %d jumps in %d"
+                          + " waves%n", waveTime / 1e6,
+                          (double) seqTime / waveTime,
+                          wave.resolver().jumps(), wave.resolver().waves());
+        System.out.printf("  boards identical: %b%n", same);
+    }
+
+    /** Play GAMES games on an N x N board between an A.I. that uses
+     *  quiescence search and one that does not, alternating colors and
+     *  starting from random positions, and report the results and the
+     *  cost of each. */
+    static void quiescence(int N, int games) {
+        Game game = quietGame(N);
+        AI[] withQ = { new AI(game, RED), new AI(game, BLUE) };
+        AI[] without = { new AI(game, RED), new AI(game, BLUE) };
+        without[0].setQuiescence(false);
+        without[1].setQuiescence(false);
+        System.out.printf("quiescence on %dx%d:%n", N, N);
+        match(game, games, withQ, without, "with", "without");
+    }
+
+    /** Play GAMES games on an N x N board between an A.I. using the
+     *  weights in FILE and one using the default weights, as for
+     *  quiescence. */
+    static void weights(String file, int N, int games) throws IOException {
+        Weights tuned = Weights.load(Paths.get(file));
+        Game game = quietGame(N);
+        AI[] withTuned = { new AI(game, RED), new AI(game, BLUE) };
+        AI[] without = { new AI(game, RED), new AI(game, BLUE) };
+        for (int i = 0; i < 2; i += 1) {
+            withTuned[i].setWeights(tuned);
+            without[i].setWeights(new Weights());
+        }
+        System.out.printf("weights %s on %dx%d:%n", tuned, N, N);
+        match(game, games, withTuned, without, "tuned", "default");
+    }
+
+    /** Play GAMES games on an N x N board between an A.I. that
+     *  evaluates positions with a PatternEval and one that uses the
+     *  default weights, as for quiescence, after timing the two
+     *  evaluations over the positions of one random game. */
+    static void patterns(int N, int games) {
+        MutableBoard board = new MutableBoard(N);
+        PatternEval patterns = new PatternEval(board);
+        Weights standard = new Weights();
+        Random rand = new Random(61);
+        long patternTime = 0, weightTime = 0, evals = 0;
+        int sink = 0;
+        while (!board.won()) {
+            Color p = board.whoseMove();
+            int move;
+            do {
+                move = rand.nextInt(N * N);
+            } while (!board.isLegal(p, move));
+            board.addSpot(p, move);
+            long start = System.nanoTime();
+            sink += patterns.evaluate(p.opposite());
+            patternTime += System.nanoTime() - start;
+            start = System.nanoTime();
+            sink += standard.evaluate(board, p.opposite());
+            weightTime += System.nanoTime() - start;
+            evals += 1;
+        }
+        patterns.detach();
+        System.out.printf("patterns on %dx%d: %d positions, %.0f ns/eval"
+                          + " (squares: %.0f ns/eval) [%d]%n", N, N, evals,
+                          (double) patternTime / evals,
+                          (double) weightTime / evals, sink & 1);
+
+        Game game = quietGame(N);
+        AI[] withPatterns = { new AI(game, RED), new AI(game, BLUE) };
+        AI[] without = { new AI(game, RED), new AI(game, BLUE) };
+        for (int i = 0; i < 2; i += 1) {
+            withPatterns[i].setPatterns(true);
+            without[i].setWeights(new Weights());
+        }
+        match(game, games, withPatterns, without, "patterns", "squares");
+    }
+
+    /** Look for forced wins within MOVES moves in POSITIONS random endgame
+     *  positions (see ProofSearch.endgame) on an N x N board, both with
+     *  the endgame solver and with a search to the same depth, and report
+     *  what each found and its cost; then play GAMES games between A.I.s
+     *  that use the solver and A.I.s that do not. */
+    static void solve(int N, int moves, int positions, int games) {
+        Game game = quietGame(N);
+        Random rand = new Random(45);
+        int[] results = new int[3];
+        int searchWins = 0;
+        long solveNodes = 0, solveTime = 0, searchNodes = 0, searchTime = 0;
+        SearchContext context = new SearchContext();
+        for (int k = 0; k < positions; k += 1) {
+            startRandomly(game, rand, 0);
+            Board b = game._board;
+            while (!ProofSearch.endgame(b) && !b.won()) {
+                int n;
+                do {
+                    n = rand.nextInt(N * N);
+                } while (!b.isLegal(b.whoseMove(), n));
+                game.makeMove(n);
+            }
+            if (b.won()) {
+                k -= 1;
+                continue;
+            }
+            Color p = b.whoseMove();
+            context.load(game.snapshot());
+            long start = System.nanoTime();
+            results[1 + context.solve(p, moves, Defaults.SOLVE_NODES)] += 1;
+            solveTime += System.nanoTime() - start;
+            solveNodes += context.solver().nodes();
+            start = System.nanoTime();
+            context.bestMove(p, 2 * moves - 1);
+            searchTime += System.nanoTime() - start;
+            searchNodes += context.nodes() + context.quiescentNodes();
+            if (context.search().value() == Search.WIN) {
+                searchWins += 1;
+            }
+        }
+        System.out.printf("endgames on %dx%d, wins within %d moves,"
+                          + " %d positions%n", N, N, moves, positions);
+        System.out.printf("  solver: %d won, %d not, %d unknown;"
+                          + " %9.0f nodes %8.2f ms%n",
+                          results[2], results[0], results[1],
+                          (double) solveNodes / positions,
+                          solveTime / 1e6 / positions);
+        System.out.printf("  search: %d won at depth %d;"
+                          + "         %9.0f nodes %8.2f ms%n",
+                          searchWins, 2 * moves - 1,
+                          (double) searchNodes / positions,
+                          searchTime / 1e6 / positions);
+
+        AI[] solving = { new AI(game, RED), new AI(game, BLUE) };
+        AI[] plain = { new AI(game, RED), new AI(game, BLUE) };
+        for (int i = 0; i < 2; i += 1) {
+            plain[i].setSolving(false);
+        }
+        match(game, games, solving, plain, "solver", "search");
+    }
+
+    /** Play GAMES games of GAME between A.I.s FIRST and SECOND (each a
+     *  red and a blue player), alternating colors and starting from
+     *  random positions, and report how many FIRST won and the cost of
+     *  each, calling them NAME1 and NAME2. */
+    private static void match(Game game, int games, AI[] first,
+                              AI[] second, String name1, String name2) {
+        Random rand = new Random(61);
+        int wins = 0;
+        long[] nodes = new long[2], qnodes = new long[2], time = new long[2];
+        int[] moves = new int[2];
+        for (int g = 0; g < games; g += 1) {
+            startRandomly(game, rand, 4);
+            int side = g % 2;
+            Player red = side == 0 ? first[0] : second[0];
+            Player blue = side == 0 ? second[1] : first[1];
+            while (!game._board.won()) {
+                AI ai = (AI) (game._board.whoseMove() == RED ? red : blue);
+                int who = (ai == first[0] || ai == first[1]) ? 0 : 1;
+                long start = System.nanoTime();
+                ai.makeMove();
+                time[who] += System.nanoTime() - start;
+                nodes[who] += ai.nodes();
+                qnodes[who] += ai.quiescentNodes();
+                moves[who] += 1;
+            }
+            if (game._board.color(0) == (side == 0 ? RED : BLUE)) {
+                wins += 1;
+            }
+        }
+        System.out.printf("  %s won %d of %d games%n", name1, wins, games);
+        String[] names = { name1, name2 };
+        for (int i = 0; i < 2; i += 1) {
+            System.out.printf("  %-7s: %8.0f nodes + %8.0f quiescent/move,"
+                              + " %6.2f ms/move%n", names[i],
+                              (double) nodes[i] / moves[i],
+                              (double) qnodes[i] / moves[i],
+                              time[i] / 1e6 / moves[i]);
+        }
+    }
+
+    /** Search POSITIONS random positions on an N x N board to each depth
+     *  up to DEPTH with a fresh Search, and report the average number of
+     *  nodes and time for each depth. */
+    static void search(int N, int depth, int positions) {
+        Game game = quietGame(N);
+        Random rand = new Random(61);
+        long[] nodes = new long[depth + 1], time = new long[depth + 1];
+        for (int k = 0; k < positions; k += 1) {
+            startRandomly(game, rand, 6);
+            for (int d = 1; d <= depth; d += 1) {
+                SearchContext context = new SearchContext(game.snapshot());
+                context.bestMove(game._board.whoseMove(), d);
+                time[d] += context.nanos();
+                nodes[d] += context.nodes();
+            }
+        }
+        System.out.printf("search on %dx%d, %d positions%n", N, N, positions);
+        for (int d = 1; d <= depth; d += 1) {
+            System.out.printf("  depth %d: %10.0f nodes %8.2f ms%n", d,
+                              (double) nodes[d] / positions,
+                              time[d] / 1e6 / positions);
+        }
+    }
+
+    /** Search POSITIONS random positions on an N x N board to depth DEPTH,
+     *  making moves as trial moves recorded in the search's arena and as
+     *  ordinary moves recorded in the board's history, and report the
+     *  average time, nodes, and bytes allocated per search.  The two ways
+     *  take turns searching all the positions, and the last of four turns
+     *  is reported. */
+    static void arena(int N, int depth, int positions) {
+        Game game = quietGame(N);
+        Random rand = new Random(44);
+        BoardSnapshot[] starts = new BoardSnapshot[positions];
+        for (int k = 0; k < positions; k += 1) {
+            startRandomly(game, rand, 2 * N);
+            starts[k] = game.snapshot();
+        }
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)
+            ManagementFactory.getThreadMXBean();
+        SearchContext[] contexts = { new SearchContext(), new SearchContext() };
+        contexts[1].search().setTrialMoves(false);
+        long[] bytes = new long[2], nanos = new long[2], nodes = new long[2];
+        for (int round = 0; round < 4; round += 1) {
+            for (int i = 0; i < 2; i += 1) {
+                SearchContext context = contexts[i];
+                bytes[i] = nanos[i] = nodes[i] = 0;
+                for (BoardSnapshot start : starts) {
+                    context.load(start);
+                    context.search().table().clear();
+                    long b0 = threads.getCurrentThreadAllocatedBytes();
+                    long t0 = System.nanoTime();
+                    context.bestMove(start.whoseMove(), depth);
+                    nanos[i] += System.nanoTime() - t0;
+                    bytes[i] += threads.getCurrentThreadAllocatedBytes() - b0;
+                    nodes[i] += context.nodes() + context.quiescentNodes();
+                }
+            }
+        }
+        System.out.printf("search on %dx%d to depth %d, %d positions%n",
+                          N, N, depth, positions);
+        for (int i = 0; i < 2; i += 1) {
+            System.out.printf("  %-13s %8.3f ms %9.0f nodes %11.0f bytes"
+                              + " (%.1f per node)%n",
+                              i == 0 ? "trial moves:" : "addSpot/undo:",
+                              nanos[i] / 1e6 / positions,
+                              (double) nodes[i] / positions,
+                              (double) bytes[i] / positions,
+                              (double) bytes[i] / nodes[i]);
+        }
+        System.out.printf("  arena growths: %d%n",
+                          contexts[0].search().arena().growths());
+    }
+
+    /** Search POSITIONS random positions on an N x N board to depth DEPTH
+     *  with a plain search, with null-move pruning, with late-move
+     *  reductions, and with both, and report the average nodes and time
+     *  per search, how often each chose the plain search's move, and how
+     *  often the selective parts of the search took effect.  Then play
+     *  GAMES games between A.I.s using both and plain A.I.s.  The
+     *  searches take turns over all the positions, and the last of three
+     *  turns is reported. */
+    static void selective(int N, int depth, int positions, int games) {
+        Game game = quietGame(N);
+        Random rand = new Random(49);
+        BoardSnapshot[] starts = new BoardSnapshot[positions];
+        for (int k = 0; k < positions; k += 1) {
+            startRandomly(game, rand, 2 * N);
+            starts[k] = game.snapshot();
+        }
+        String[] names = { "plain", "null move", "reductions", "both" };
+        SearchContext[] contexts = new SearchContext[names.length];
+        for (int i = 0; i < contexts.length; i += 1) {
+            contexts[i] = new SearchContext();
+            contexts[i].search().setNullMove((i & 1) != 0);
+            contexts[i].search().setReductions((i & 2) != 0);
+        }
+        int[] plainMoves = new int[positions];
+        long[] nanos = new long[names.length], nodes = new long[names.length];
+        long[][] stats = new long[names.length][5];
+        int[] agree = new int[names.length];
+        for (int round = 0; round < 3; round += 1) {
+            for (int i = 0; i < contexts.length; i += 1) {
+                SearchContext context = contexts[i];
+                Search search = context.search();
+                nanos[i] = nodes[i] = agree[i] = 0;
+                Arrays.fill(stats[i], 0);
+                for (int k = 0; k < positions; k += 1) {
+                    context.load(starts[k]);
+                    search.table().clear();
+                    long t0 = System.nanoTime();
+                    int move = context.bestMove(starts[k].whoseMove(), depth);
+                    nanos[i] += System.nanoTime() - t0;
+                    nodes[i] += context.nodes() + context.quiescentNodes();
+                    if (i == 0) {
+                        plainMoves[k] = move;
+                    }
+                    agree[i] += move == plainMoves[k] ? 1 : 0;
+                    stats[i][0] += search.nullMoves();
+                    stats[i][1] += search.nullCutoffs();
+                    stats[i][2] += search.nullRefuted();
+                    stats[i][3] += search.reductions();
+                    stats[i][4] += search.researches();
+                }
+            }
+        }
+        System.out.printf("selective search on %dx%d to depth %d,"
+                          + " %d positions%n", N, N, depth, positions);
+        for (int i = 0; i < names.length; i += 1) {
+            System.out.printf("  %-11s %9.0f nodes (%5.1f%%) %8.2f ms;"
+                              + " same move %3d%%;"
+                              + " null %d/%d cut (%d refuted),"
+                              + " reduced %d (%d again)%n",
+                              names[i] + ":", (double) nodes[i] / positions,
+                              100.0 * nodes[i] / nodes[0],
+                              nanos[i] / 1e6 / positions,
+                              100 * agree[i] / positions, stats[i][1],
+                              stats[i][0], stats[i][2], stats[i][3],
+                              stats[i][4]);
+        }
+
+        AI[] selective = { new AI(game, RED), new AI(game, BLUE) };
+        AI[] plain = { new AI(game, RED), new AI(game, BLUE) };
+        for (int i = 0; i < 2; i += 1) {
+            selective[i].setNullMove(true);
+            selective[i].setReductions(true);
+            plain[i].setNullMove(false);
+            plain[i].setReductions(false);
+        }
+        match(game, games, selective, plain, "select", "plain");
+    }
+
+    /** On boards of increasing size up to N x N, choose moves in
+     *  POSITIONS random positions, each with about a quarter of its
+     *  squares filled, by a BeamSearch given MILLIS milliseconds and by a
+     *  full-width search to depth 1, and report the average and longest
+     *  time per move of each, and how deep and wide the beam searched.
+     *  Then play GAMES games on the default board between A.I.s using
+     *  beam searches of MILLIS milliseconds and ones using full-width
+     *  searches, if GAMES is positive. */
+    static void beam(int N, long millis, int positions, int games) {
+        System.out.printf("beam search for %d ms vs. full width,"
+                          + " %d positions%n", millis, positions);
+        Random rand = new Random(50);
+        SearchContext context = new SearchContext();
+        for (int size = 10; size <= N; size = size < N / 2 ? 2 * size : N) {
+            Game game = quietGame(size);
+            long[] sum = new long[2], most = new long[2];
+            int depths = 0, widths = 0;
+            for (int k = 0; k < positions; k += 1) {
+                startRandomly(game, rand, size * size / 4);
+                Color p = game._board.whoseMove();
+                for (int i = 0; i < 2; i += 1) {
+                    context.load(game.snapshot());
+                    long t0 = System.nanoTime();
+                    if (i == 0) {
+                        context.beamMove(p, millis);
+                    } else {
+                        context.bestMove(p, 1);
+                    }
+                    long t = System.nanoTime() - t0;
+                    sum[i] += t;
+                    most[i] = Math.max(most[i], t);
+                }
+                depths += context.beam().depth();
+                widths += context.beam().width();
+            }
+            System.out.printf("  %4dx%-4d beam %8.2f ms/move (most %8.2f),"
+                              + " depth %.1f, width %.1f;"
+                              + " full %9.2f ms/move (most %9.2f)%n",
+                              size, size, sum[0] / 1e6 / positions,
+                              most[0] / 1e6, (double) depths / positions,
+                              (double) widths / positions,
+                              sum[1] / 1e6 / positions, most[1] / 1e6);
+            if (size == N) {
+                break;
+            }
+        }
+
+        if (games > 0) {
+            Game game = quietGame(Defaults.BOARD_SIZE);
+            AI[] beam = { new AI(game, RED), new AI(game, BLUE) };
+            AI[] plain = { new AI(game, RED), new AI(game, BLUE) };
+            for (int i = 0; i < 2; i += 1) {
+                beam[i].setBeam(millis);
+            }
+            match(game, games, beam, plain, "beam", "plain");
+        }
+    }
+
+    /** Make MOVES random moves on boards of increasing size, showing each
+     *  on a BoardPanel, and report the average time to update the panel
+     *  and paint the damaged area for each move. */
+    static void render(int moves) {
+        System.setProperty("java.awt.headless", "true");
+        System.out.println("render: time per move shown");
+        for (int N = 25; N <= 800; N *= 2) {
+            MutableBoard b = new MutableBoard(N);
+            BoardPanel panel = new BoardPanel(N);
+            panel.setSize(panel.getPreferredSize());
+            BufferedImage screen =
+                new BufferedImage(panel.getWidth(), panel.getHeight(),
+                                  BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = screen.createGraphics();
+            Random rand = new Random(61);
+            long time = 0, squares = 0;
+            for (int k = 0; k < moves; k += 1) {
+                if (b.won()) {
+                    b.clear(N);
+                    panel.update(BoardPanel.Changes.of(b, 0, b.numChanged()));
+                }
+                int n;
+                do {
+                    n = rand.nextInt(N * N);
+                } while (!b.isLegal(b.whoseMove(), n));
+                b.addSpot(b.whoseMove(), n);
+                long start = System.nanoTime();
+                Rectangle damage =
+                    panel.update(BoardPanel.Changes.of(b, 0, b.numChanged()));
+                if (damage != null) {
+                    g.setClip(damage);
+                    panel.paint(g);
+                }
+                time += System.nanoTime() - start;
+                squares += b.numChanged();
+            }
+            g.dispose();
+            System.out.printf("  %4dx%-4d %8.1f us/move, %5.1f squares/move%n",
+                              N, N, time / 1e3 / moves,
+                              (double) squares / moves);
+        }
+    }
+
+    /** Make MOVES random moves on an N x N board broadcast to SUBSCRIBERS
+     *  spectators, half of which read every frame on one thread while
+     *  the rest never read, and report the cost per move and the size of
+     *  the frames compared with that of a dump. */
+    static void spectators(int N, int subscribers, int moves)
+        throws InterruptedException {
+        MutableBoard b = new MutableBoard(N);
+        SpectatorChannel channel = new SpectatorChannel(b);
+        ArrayList<SpectatorChannel.Subscription> readers = new ArrayList<>();
+        for (int i = 0; i < subscribers; i += 1) {
+            SpectatorChannel.Subscription sub = channel.subscribe();
+            if (i % 2 == 0) {
+                readers.add(sub);
+            }
+        }
+        SpectatorView[] views = new SpectatorView[readers.size()];
+        for (int i = 0; i < views.length; i += 1) {
+            views[i] = new SpectatorView();
+        }
+        Thread reader = new Thread(() -> {
+            boolean open = true;
+            while (open) {
+                open = false;
+                for (int i = 0; i < views.length; i += 1) {
+                    SpectatorChannel.Subscription sub = readers.get(i);
+                    for (ByteBuffer f = sub.poll(); f != null; f = sub.poll()) {
+                        views[i].apply(f);
+                    }
+                    open |= !sub.isClosed();
+                }
+                Thread.onSpinWait();
+            }
+        });
+        reader.start();
+        Random rand = new Random(61);
+        long start = System.nanoTime();
+        for (int k = 0; k < moves; k += 1) {
+            if (b.won()) {
+                b.clear(N);
+            }
+            int n;
+            do {
+                n = rand.nextInt(N * N);
+            } while (!b.isLegal(b.whoseMove(), n));
+            b.addSpot(b.whoseMove(), n);
+        }
+        long time = System.nanoTime() - start;
+        int dumpBytes = b.toString().length();
+        channel.close();
+        reader.join();
+        System.out.printf("spectators on %dx%d: %d subscribers, %d moves%n",
+                          N, N, subscribers, moves);
+        System.out.printf("  %8.1f us/move, %6.1f bytes/frame (a dump is"
+                          + " %d bytes), %d overflows%n",
+                          time / 1e3 / moves,
+                          (double) channel.bytes() / channel.frames(),
+                          dumpBytes, channel.drops());
+        boolean same = true;
+        for (SpectatorView view : views) {
+            same &= view.snapshot().equals(b.snapshot());
+        }
+        System.out.printf("  reading views up to date: %b%n", same);
+    }
+
+    /** Returns a game on an N x N board that reads no commands and
+     *  discards its output. */
+    private static Game quietGame(int N) {
+        Game game = new Game(new StringReader(""), Writer.nullWriter(),
+                             Writer.nullWriter(), Writer.nullWriter());
+        game._board.clear(N);
+        return game;
+    }
+
+    /** Clear the board of GAME and make MOVES random legal moves on it,
+     *  using RAND. */
+    private static void startRandomly(Game game, Random rand, int moves) {
+        Board b = game._board;
+        b.clear(b.size());
+        for (int k = 0; k < moves; k += 1) {
+            int n;
+            do {
+                n = rand.nextInt(b.size() * b.size());
+            } while (!b.isLegal(b.whoseMove(), n));
+            game.makeMove(n);
+        }
+    }
+
+    /** Returns an N x N board whose lower half is all red squares at
+     *  critical mass, so that one more red spot in the bottom-right corner
+     *  makes every one of them jump. */
+    private static MutableBoard cascadeBoard(int N) {
+        MutableBoard b = new MutableBoard(N);
+        for (int n = N * N / 2; n < N * N; n += 1) {
+            b.set(n, b.neighbors(n), RED);
+        }
+        return b;
+    }
+
+}
@@ -17,6 +17,15 @@ abstract class Board {
         unsupported("clear");
     }
 
+    /** (Re)initialize me to a cleared board of shape TOPOLOGY.  Boards
+     *  that support only grids (the default) support only grids here. */
+    void clear(Topology topology) {
+        if (topology.kind() != Topology.Kind.GRID) {
+            unsupported("clear");
+        }
+        clear(topology.size());
+    }
+
     /** Copy the contents of BOARD into me. */
     void copy(Board board) {
         unsupported("copy");
@@ -87,8 +96,7 @@ abstract class Board {
     /** Returns true iff it would currently be legal for PLAYER to add a spot
      *  to square #N. */
     boolean isLegal(Color player, int n) {
-        return (squares[n].getColor() == player
-            | squares[n].getColor() == WHITE);
+        return player.playableSquare(color(n));
     }
 
     /** Returns true iff PLAYER is allowed to move at this point. */
@@ -137,6 +145,13 @@ abstract class Board {
         unsupported("set");
     }
 
+    /** Set square #N to NUM spots of color PLAYER without touching the
+     *  undo history or the move count.  Used by cascade resolvers, which
+     *  manage history themselves. */
+    void put(int n, int num, Color player) {
+        unsupported("put");
+    }
+
     /** Set the current number of moves to N.  Clear the undo history. */
     void setMoves(int n) {
         unsupported("setMoves");
@@ -149,6 +164,31 @@ abstract class Board {
         unsupported("undo");
     }
 
+    /** Redo the last move undone, if no other move has been made since.
+     *  Requires numMoves() < lastMove(). */
+    void redo() {
+        unsupported("redo");
+    }
+
+    /** Make the position the one after move K of the current history,
+     *  as if by undo() or redo() until numMoves() == K.  Requires
+     *  firstMove() <= K <= lastMove(). */
+    void seek(int k) {
+        unsupported("seek");
+    }
+
+    /** Returns the earliest value of numMoves() in the current history:
+     *  the number of moves when the history was last cleared. */
+    int firstMove() {
+        return numMoves();
+    }
+
+    /** Returns the latest value of numMoves() in the current history,
+     *  including moves that have been undone and may be redone. */
+    int lastMove() {
+        return numMoves();
+    }
+
     /** Returns my dumped representation.
      *  According to the spec, the first line should be ===,
      *  followed by 4 spaces on each line.  The last line should be === */
@@ -160,8 +200,12 @@ abstract class Board {
         for (int row = 1; row <= n; row++) {
             sb.append("    ");
             for (int col = 1; col <= n; col++) {
-                final Square square = squares[sqNum(row, col)];
-                sb.append(square.toString());
+                final int sq = sqNum(row, col);
+                if (color(sq) == WHITE) {
+                    sb.append("--");
+                } else {
+                    sb.append(spots(sq)).append(color(sq) == RED ? "r" : "b");
+                }
 
                 final boolean lastCol = (col == (n));
                 if (lastCol) {
@@ -175,54 +219,30 @@ abstract class Board {
         return sb.toString();
     }
 
+    /** Returns my topology: which squares neighbor which.  By default,
+     *  the standard grid. */
+    Topology topology() {
+        return Topology.grid(size());
+    }
+
     /** Returns the number of neighbors of the square at row R, column C. */
     int neighbors(int r, int c) {
-        if ((r == 1 || r == size()) && (c == 1 || c == size())) {
-            return 2;
-        } else if (r == 1 || r == size() || c == 1 || c == size()) {
-            return 3;
-        } else {
-            return 4;
-        }
+        return neighbors(sqNum(r, c));
     }
 
     /** Returns the number of neighbors of square #N. */
     int neighbors(int n) {
-        return neighbors(row(n), col(n));
+        return topology().capacity(n);
     }
 
-    /** If N==0, returns the index of the neighbor above square SQR.
-     *  If N==1, returns the neighbor below.
-     *  If N == 2, returns the neighbor to the left.
-     *  If N==3, returns the neighbor to the right.
-     *  If the neighbor doesn't exist, returns -1. */
+    /** Returns neighbor N of square SQR, numbering neighbors from 0 in
+     *  the order of my topology, or -1 if SQR has N or fewer neighbors.
+     *  On the standard grid, the neighbors are those above, below, to
+     *  the left, and to the right, in that order, omitting any that are
+     *  off the board. */
     int adjacent(int n, int sqr) {
         assert (sqr < (size() * size()));
-        if ((sqr % size() == 0 && n == 2)) {
-            return -1;
-        }
-        if (sqr % size() == size() - 1 && n == 3) {
-            return -1;
-        }
-        if (sqr < size() && n == 0) {
-            return -1;
-        }
-        if (((sqr >= ((size() - 1) * size())) && (sqr < (size() * size())))
-            && n == 1) {
-            return -1;
-        }
-        switch(n) {
-        case 0:
-            return sqr - size();
-        case 1:
-            return sqr + size();
-        case 2:
-            return sqr - 1;
-        case 3:
-            return sqr + 1;
-        default:
-            return -1;
-        }
+        return topology().neighbor(sqr, n);
     }
 
     /** Indicate fatal error: OP is unsupported operation. */
@@ -235,101 +255,43 @@ abstract class Board {
     private static final int NL_LENGTH =
         System.getProperty("line.separator").length();
 
-    /** A board saving the contents of the previous board.
-     *  Each previous board may itself have another
-     *  previous board*/
-    protected Board _prevBoard;
-
-    /** Returns THIS board's previous board. */
-    public Board getPrevBoard() {
-        return _prevBoard;
-    }
-
     /** Returns True iff someone has won.*/
     public boolean won() {
-        Color first = squares[0].getColor();
+        Color first = color(0);
         if (first == WHITE) {
             return false;
         }
-        for (Square square : squares) {
-            if (square.getColor() != first) {
+        int N = size();
+        for (int n = 1; n < N * N; n += 1) {
+            if (color(n) != first) {
                 return false;
             }
         }
         return true;
     }
 
-    /** Returns the array of squares on THIS board.*/
-    public Square[] getSquares() {
-        return squares;
+    /** Returns the packed cell holding NUM spots of color PLAYER, as
+     *  stored by boards that keep their squares in int arrays. */
+    static int cell(int num, Color player) {
+        return (num << 2) | player.ordinal();
     }
-    /** The array of Squares on THIS board.*/
-    protected Square[] squares;
-
-    /** A nested class representing an instance of a board square.
-     *  Each square has a COLOR, which is White by default
-     *  and a number of SPOTS, which is 1 by default. */
-    class Square {
-
-        @Override
-        /** Returns a string representation of THIS. */
-        public String toString() {
-            if (_color == WHITE) {
-                return "--";
-            }
-            final String col;
-            if (_color == RED) {
-                col = "r";
-            } else {
-                col = "b";
-            }
-            return String.format("%d%s", _spots, col);
-        }
-
-        /** Returns the color of the THIS. */
-        public Color getColor() {
-            return _color;
-        }
-
-        /** Sets the color of THIS to COL. */
-        public void setColor(Color col) {
-            _color = col;
-        }
 
-        /** Returns the number of spots on THIS. */
-        public int getSpots() {
-            return _spots;
-        }
-
-        /** Sets THIS's number of spots to NUM. */
-        public void setSpots(int num) {
-            _spots = num;
-        }
-
-        /** Adds one spot to THIS. */
-        public void addSpot() {
-            _spots += 1;
-        }
-
-        /** Removes one spot from THIS. */
-        public void remSpot() {
-            _spots -= 1;
-        }
-
-        /** Returns a new Square. */
-        public Square clone() {
-            Square result = new Square();
-            result.setSpots(this._spots);
-            result.setColor(this._color);
-            return result;
-        }
+    /** Returns the number of spots in packed cell CELL. */
+    static int cellSpots(int cell) {
+        return cell >>> 2;
+    }
 
-        /** The color of a square.  Initially, every square is WHITE.*/
-        private Color _color = Defaults.BLANK_COLOR;
+    /** Returns the ordinal of the color of packed cell CELL. */
+    static int cellColorOrdinal(int cell) {
+        return cell & 3;
+    }
 
-        /** The number of spots on a square.  Initially, every square
-         *  has o spots.*/
-        private int _spots = Defaults.INIT_SPOTS;
+    /** Returns the color of packed cell CELL. */
+    static Color cellColor(int cell) {
+        return COLORS[cell & 3];
     }
 
+    /** The colors, indexed by ordinal. */
+    private static final Color[] COLORS = Color.values();
+
 }
@@ -0,0 +1,181 @@
+package jump61;
+
+import java.util.Arrays;
+
+/** A description of one change to a MutableBoard, as sent to its
+ *  BoardListeners: what kind of change it was, and the squares it
+ *  changed, each with its packed cell (see Board.cell) before and after.
+ *  For a move or redo, there is an entry for each change to a square, in
+ *  the order the move and its cascade made them, so a square that jumps
+ *  may appear several times.  For an undo or seek, which restore an
+ *  earlier position rather than replay it, there is one entry for each
+ *  square that differs, in order of square number, except that the undo
+ *  of a trial move (see MutableBoard.tryMove) reverses each of the
+ *  move's entries, last first.  A clear or copy resets the board: its
+ *  entries are to be applied to an empty board of shape topology(); a
+ *  clear has none.  The size of a delta is thus proportional to the number of
+ *  squares changed, not to the size of the board.
+ *  @author Alan Ponte
+ */
+class BoardDelta {
+
+    /** The kinds of change. */
+    enum Kind {
+        MOVE, REDO, UNDO, SEEK, SET, COPY, CLEAR;
+    }
+
+    /** An empty delta. */
+    BoardDelta() {
+        this(16);
+    }
+
+    /** An empty delta with room for CAPACITY entries. */
+    private BoardDelta(int capacity) {
+        _entries = new int[3 * Math.max(capacity, 1)];
+    }
+
+    /** Returns the kind of change. */
+    Kind kind() {
+        return _kind;
+    }
+
+    /** Returns true iff the change resets the board to an empty one of
+     *  shape topology() before the entries are applied. */
+    boolean resets() {
+        return _kind == Kind.CLEAR || _kind == Kind.COPY;
+    }
+
+    /** Returns the size of the board after the change. */
+    int size() {
+        return _topology.size();
+    }
+
+    /** Returns the shape of the board after the change. */
+    Topology topology() {
+        return _topology;
+    }
+
+    /** Returns the number of moves made on the board after the
+     *  change. */
+    int numMoves() {
+        return _moves;
+    }
+
+    /** Returns the player of a MOVE or REDO. */
+    Color player() {
+        return _player;
+    }
+
+    /** Returns the square played by a MOVE or REDO, and -1 for other
+     *  kinds of change. */
+    int move() {
+        return _move;
+    }
+
+    /** Returns the number of entries. */
+    int count() {
+        return _count;
+    }
+
+    /** Returns the square changed by entry K. */
+    int square(int k) {
+        return _entries[3 * k];
+    }
+
+    /** Returns the packed cell of the square of entry K before the
+     *  change it records. */
+    int oldCell(int k) {
+        return _entries[3 * k + 1];
+    }
+
+    /** Returns the packed cell of the square of entry K after the change
+     *  it records. */
+    int newCell(int k) {
+        return _entries[3 * k + 2];
+    }
+
+    /** Make the same change to BOARD, which must be in the position this
+     *  change started from (or any position, if it resets the board). */
+    void applyTo(Board board) {
+        if (resets()) {
+            board.clear(_topology);
+        }
+        for (int k = 0; k < _count; k += 1) {
+            int cell = newCell(k);
+            board.put(square(k), Board.cellSpots(cell),
+                      Board.cellColor(cell));
+        }
+        if (board.numMoves() != _moves) {
+            board.setMoves(_moves);
+        }
+    }
+
+    /** Returns a copy of me that does not change when I do. */
+    BoardDelta copy() {
+        BoardDelta result = new BoardDelta(_count);
+        result.begin(_kind, _player, _move);
+        result.end(_topology, _moves);
+        System.arraycopy(_entries, 0, result._entries, 0, 3 * _count);
+        result._count = _count;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        out.append(_kind).append(' ').append(size()).append(' ')
+            .append(_moves);
+        if (_move >= 0) {
+            out.append(' ').append(_player).append('@').append(_move);
+        }
+        for (int k = 0; k < _count; k += 1) {
+            out.append(' ').append(square(k)).append(':')
+                .append(Board.cellSpots(newCell(k)))
+                .append(Board.cellColor(newCell(k)).toString().charAt(0));
+        }
+        return out.toString();
+    }
+
+    /** Start recording a change of kind KIND, which, if a MOVE or REDO,
+     *  was PLAYER's move to square MOVE. */
+    void begin(Kind kind, Color player, int move) {
+        _kind = kind;
+        _player = player;
+        _move = move;
+        _count = 0;
+    }
+
+    /** Record the change of square N from packed cell OLD to CELL. */
+    void add(int n, int old, int cell) {
+        if (3 * _count == _entries.length) {
+            _entries = Arrays.copyOf(_entries, 2 * _entries.length);
+        }
+        _entries[3 * _count] = n;
+        _entries[3 * _count + 1] = old;
+        _entries[3 * _count + 2] = cell;
+        _count += 1;
+    }
+
+    /** Finish recording a change that left a board of shape TOPOLOGY
+     *  after MOVES moves. */
+    void end(Topology topology, int moves) {
+        _topology = topology;
+        _moves = moves;
+    }
+
+    /** The kind of change. */
+    private Kind _kind;
+    /** The player of a move, or null. */
+    private Color _player;
+    /** The square of a move, or -1. */
+    private int _move = -1;
+    /** Shape of the board after the change. */
+    private Topology _topology;
+    /** Number of moves after the change. */
+    private int _moves;
+    /** The entries, each a square, its old cell, and its new cell. */
+    private int[] _entries;
+    /** Number of entries. */
+    private int _count;
+
+}
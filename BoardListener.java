@@ -0,0 +1,15 @@
+package jump61;
+
+/** An observer of the changes to a MutableBoard (see
+ *  MutableBoard.addListener).
+ *  @author Alan Ponte
+ */
+interface BoardListener {
+
+    /** Called after each change to the board: a move, undo, redo, seek,
+     *  set, copy, or clear.  DELTA describes the change; it is valid only
+     *  until this call returns (use DELTA.copy() to keep it), and must
+     *  not be used to change the board. */
+    void boardChanged(BoardDelta delta);
+
+}
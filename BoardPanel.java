@@ -0,0 +1,300 @@
+package jump61;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import javax.swing.JComponent;
+
+/** A Swing view of a Jump61 board.  The squares are drawn into an
+ *  off-screen image, and only the squares listed in each update are
+ *  redrawn there; painting then copies just the damaged part of the image
+ *  to the screen.  The cost of showing a move is therefore proportional
+ *  to the number of squares it changed, not to the size of the board.
+ *  On a hex board (see Topology), each row is drawn half a square to the
+ *  right of the one above, so that squares touch their six neighbors.
+ *  The panel keeps its own copy of the squares' contents, so the event
+ *  dispatch thread never needs to look at a board that another thread
+ *  may be changing.  All methods must be called on the event dispatch
+ *  thread, or, for a panel that is not displayed, by one thread at a
+ *  time.
+ *  @author Alan Ponte
+ */
+class BoardPanel extends JComponent {
+
+    /** Version of the serialized form (which is not otherwise used). */
+    private static final long serialVersionUID = 1L;
+
+    /** A batch of changed squares: the first count() of squares() have
+     *  the packed cells (see Board.cell) in the same positions of
+     *  cells(). */
+    static class Changes {
+
+        /** A batch of the contents of the SIZE changed squares SQUARES,
+         *  whose new cells are CELLS. */
+        Changes(int[] squares, int[] cells, int size) {
+            _squares = squares;
+            _cells = cells;
+            _size = size;
+        }
+
+        /** Returns the contents of the changed squares of BOARD, from the
+         *  FROMth to the TOth - 1 of those listed by BOARD.changedSquare,
+         *  as a batch.  These are the squares' final contents, so that
+         *  only a batch of all of them shows a position the board was
+         *  actually in. */
+        static Changes of(MutableBoard board, int from, int to) {
+            int[] squares = new int[to - from], cells = new int[to - from];
+            for (int k = from; k < to; k += 1) {
+                int s = board.changedSquare(k);
+                squares[k - from] = s;
+                cells[k - from] = Board.cell(board.spots(s), board.color(s));
+            }
+            return new Changes(squares, cells, to - from);
+        }
+
+        /** Returns the new contents of the squares changed by the
+         *  FROMth to the TOth - 1 entries of DELTA, as a batch. */
+        static Changes of(BoardDelta delta, int from, int to) {
+            int[] squares = new int[to - from], cells = new int[to - from];
+            for (int k = from; k < to; k += 1) {
+                squares[k - from] = delta.square(k);
+                cells[k - from] = delta.newCell(k);
+            }
+            return new Changes(squares, cells, to - from);
+        }
+
+        /** Returns the end of the wave of the entries of DELTA, which
+         *  records a move or redo, that starts with the FROMth.  The
+         *  first wave is the spot the move adds.  Each jump after that
+         *  moves spots from one square to its neighbors without changing
+         *  the total on the board, and so does each wave of jumps of a
+         *  breadth first cascade (see CascadeResolver), while the
+         *  entries within one change that total.  A wave therefore ends
+         *  at the first entry after which the board holds as many spots
+         *  as it did when it began: after one jump of a depth first
+         *  cascade, or one wave of a breadth first one.  Showing the
+         *  waves one after another shows each position the cascade
+         *  went through. */
+        static int waveEnd(BoardDelta delta, int from) {
+            int change = from == 0 ? -1 : 0;
+            for (int k = from; k < delta.count(); k += 1) {
+                change += Board.cellSpots(delta.newCell(k))
+                    - Board.cellSpots(delta.oldCell(k));
+                if (change == 0) {
+                    return k + 1;
+                }
+            }
+            return delta.count();
+        }
+
+        /** Returns the changed squares. */
+        int[] squares() {
+            return _squares;
+        }
+
+        /** Returns their new cells. */
+        int[] cells() {
+            return _cells;
+        }
+
+        /** Returns the number of changed squares. */
+        int count() {
+            return _size;
+        }
+
+        /** The changed squares. */
+        private final int[] _squares;
+        /** Their new cells. */
+        private final int[] _cells;
+        /** Number of changed squares. */
+        private final int _size;
+    }
+
+    /** A panel showing an empty N x N board. */
+    BoardPanel(int N) {
+        resize(N);
+    }
+
+    /** Show an empty N x N grid, redrawing everything. */
+    void resize(int N) {
+        resize(Topology.grid(N));
+    }
+
+    /** Show an empty board of shape TOPOLOGY, redrawing everything. */
+    void resize(Topology topology) {
+        int N = _N = topology.size();
+        _hex = topology.kind() == Topology.Kind.HEX;
+        int across = _hex ? 3 * N - 1 : 2 * N;
+        _side = Math.max(MIN_SQUARE,
+                         Math.min(MAX_SQUARE,
+                                  2 * Defaults.GUI_BOARD_PIXELS / across));
+        _cells = new int[N * N];
+        _image = new BufferedImage(across * _side / 2 + 1, N * _side + 1,
+                                   BufferedImage.TYPE_INT_RGB);
+        if (_graphics != null) {
+            _graphics.dispose();
+        }
+        _graphics = _image.createGraphics();
+        _graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+                                   RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        _graphics.setFont(new Font(Font.SANS_SERIF, Font.BOLD,
+                                   Math.max(8, _side / 2)));
+        _graphics.setColor(GRID);
+        _graphics.fillRect(0, 0, _image.getWidth(), _image.getHeight());
+        int blank = Board.cell(Defaults.INIT_SPOTS, Defaults.BLANK_COLOR);
+        for (int n = 0; n < N * N; n += 1) {
+            _cells[n] = blank;
+            drawSquare(n);
+        }
+        setPreferredSize(new Dimension(_image.getWidth(),
+                                       _image.getHeight()));
+        revalidate();
+        repaint();
+    }
+
+    /** Returns the number of squares on a side of the board shown. */
+    int boardSize() {
+        return _N;
+    }
+
+    /** Returns the packed cell (see Board.cell) shown for square N. */
+    int cell(int n) {
+        return _cells[n];
+    }
+
+    /** Returns the number of the square at pixel (X, Y), or -1 if there
+     *  is none. */
+    int squareAt(int x, int y) {
+        if (x < 0 || y < 0) {
+            return -1;
+        }
+        int r = y / _side;
+        x -= shift(r);
+        int c = x / _side;
+        if (x < 0 || r >= _N || c >= _N) {
+            return -1;
+        }
+        return r * _N + c;
+    }
+
+    /** Show the new contents of the squares in CHANGES, redrawing only
+     *  them, and schedule the part of the screen they cover for
+     *  repainting.  Returns the bounds of that part, or null if nothing
+     *  changed. */
+    Rectangle update(Changes changes) {
+        Rectangle damage = null;
+        int[] squares = changes.squares(), cells = changes.cells();
+        for (int k = 0; k < changes.count(); k += 1) {
+            int n = squares[k];
+            if (_cells[n] == cells[k]) {
+                continue;
+            }
+            _cells[n] = cells[k];
+            drawSquare(n);
+            Rectangle r = bounds(n);
+            if (damage == null) {
+                damage = r;
+            } else {
+                damage.add(r);
+            }
+        }
+        if (damage != null) {
+            repaint(damage);
+        }
+        return damage;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            g.drawImage(_image, 0, 0, null);
+        } else {
+            int x2 = Math.min(clip.x + clip.width, _image.getWidth()),
+                y2 = Math.min(clip.y + clip.height, _image.getHeight());
+            g.drawImage(_image, clip.x, clip.y, x2, y2,
+                        clip.x, clip.y, x2, y2, null);
+        }
+    }
+
+    /** Returns the area of the image covered by square N, including its
+     *  border. */
+    private Rectangle bounds(int n) {
+        return new Rectangle((n % _N) * _side + shift(n / _N),
+                             (n / _N) * _side, _side + 1, _side + 1);
+    }
+
+    /** Returns the number of pixels by which row R (numbered from 0) is
+     *  drawn to the right. */
+    private int shift(int r) {
+        return _hex ? r * _side / 2 : 0;
+    }
+
+    /** Draw square N in my image as its current cell shows it. */
+    private void drawSquare(int n) {
+        int cell = _cells[n];
+        int x = (n % _N) * _side + shift(n / _N) + 1,
+            y = (n / _N) * _side + 1;
+        int spots = Board.cellSpots(cell);
+        Color[] shades;
+        switch (Board.cellColor(cell)) {
+        case RED:
+            shades = REDS;
+            break;
+        case BLUE:
+            shades = BLUES;
+            break;
+        default:
+            shades = null;
+            break;
+        }
+        int shade = Math.max(0, Math.min(spots, SHADES) - 1);
+        _graphics.setColor(shades == null ? EMPTY : shades[shade]);
+        _graphics.fillRect(x, y, _side - 1, _side - 1);
+        if (shades != null && _side >= TEXT_SQUARE) {
+            String text = Integer.toString(spots);
+            FontMetrics metrics = _graphics.getFontMetrics();
+            _graphics.setColor(Color.WHITE);
+            _graphics.drawString(text,
+                                 x + (_side - metrics.stringWidth(text)) / 2,
+                                 y + (_side + metrics.getAscent()) / 2 - 2);
+        }
+    }
+
+    /** Pixels on a side of the largest and smallest squares drawn. */
+    private static final int MAX_SQUARE = 64, MIN_SQUARE = 2;
+    /** Smallest squares on which the numbers of spots are drawn. */
+    private static final int TEXT_SQUARE = 14;
+    /** Colors of the grid and of empty squares. */
+    private static final Color GRID = new Color(0x555555),
+        EMPTY = new Color(0xeeeeee);
+    /** Number of shades of red and blue. */
+    private static final int SHADES = 4;
+    /** Colors of red and blue squares with 1, 2, 3, and 4 or more
+     *  spots. */
+    private static final Color[]
+        REDS = { new Color(0xf4a3a3), new Color(0xe86060),
+                 new Color(0xcc2222), new Color(0x880000) },
+        BLUES = { new Color(0xa3b8f4), new Color(0x6080e8),
+                  new Color(0x2244cc), new Color(0x001188) };
+
+    /** Size of the board shown. */
+    private int _N;
+    /** True iff the board shown is a hex board. */
+    private boolean _hex;
+    /** Pixels on a side of each square. */
+    private int _side;
+    /** The cells shown for each square. */
+    private int[] _cells;
+    /** The board as drawn. */
+    private BufferedImage _image;
+    /** Graphics drawing on _image. */
+    private Graphics2D _graphics;
+
+}
@@ -0,0 +1,135 @@
+package jump61;
+
+import java.util.Arrays;
+
+/** An immutable copy of a MutableBoard at some point in time, as returned
+ *  by MutableBoard.snapshot().  Unlike a ConstantBoard, a snapshot does not
+ *  change when its board does.  It shares its rows with the board (and
+ *  with other snapshots) until the board changes them, so taking one is
+ *  cheap.  Two snapshots are equal iff they have the same size, number
+ *  of moves, and square contents, so they may be used as keys in hash
+ *  tables; their hash codes come from the position keys the board
+ *  maintains, and so take constant time.
+ *  @author Alan Ponte
+ */
+class BoardSnapshot extends Board {
+
+    /** A snapshot of a board of shape TOPOLOGY whose packed cells are
+     *  ROWS and whose per-row bitsets are BITS (see MutableBoard), after
+     *  MOVES moves, with symmetry keys KEYS.  ROWS and BITS must never
+     *  again be modified by anyone. */
+    BoardSnapshot(int[][] rows, long[][] bits, Topology topology, int moves,
+                  long[] keys) {
+        _rows = rows;
+        _bits = bits;
+        _keys = keys;
+        _topology = topology;
+        _N = topology.size();
+        _moves = moves;
+    }
+
+    /** Returns my rows of packed cells, which must not be modified. */
+    int[][] rows() {
+        return _rows;
+    }
+
+    /** Returns my per-row bitsets, which must not be modified. */
+    long[][] bits() {
+        return _bits;
+    }
+
+    /** Returns my keys under each symmetry, which must not be
+     *  modified. */
+    long[] keys() {
+        return _keys;
+    }
+
+    /** Returns a key for my contents that is the same for all eight
+     *  symmetric variants of them, if my topology is symmetric, and
+     *  otherwise my plain key. */
+    long canonicalKey() {
+        return _keys[_topology.symmetric() ? Symmetry.least(_keys) : 0];
+    }
+
+    @Override
+    Topology topology() {
+        return _topology;
+    }
+
+    @Override
+    int size() {
+        return _N;
+    }
+
+    @Override
+    int spots(int r, int c) {
+        return spots(sqNum(r, c));
+    }
+
+    @Override
+    int spots(int n) {
+        return cellSpots(_rows[n / _N][n % _N]);
+    }
+
+    @Override
+    Color color(int r, int c) {
+        return color(sqNum(r, c));
+    }
+
+    @Override
+    Color color(int n) {
+        return cellColor(_rows[n / _N][n % _N]);
+    }
+
+    @Override
+    int numMoves() {
+        return _moves;
+    }
+
+    @Override
+    int numOfColor(Color color) {
+        return MutableBoard.countColor(_bits, (_N + 63) >>> 6, _N, color);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof BoardSnapshot)) {
+            return false;
+        }
+        BoardSnapshot other = (BoardSnapshot) obj;
+        if (!_topology.equals(other._topology) || _moves != other._moves
+            || _keys[0] != other._keys[0]) {
+            return false;
+        }
+        for (int r = 0; r < _N; r += 1) {
+            if (_rows[r] != other._rows[r]
+                && !Arrays.equals(_rows[r], other._rows[r])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = _keys[0] * 31 + _moves;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /** The rows of packed cells of my squares. */
+    private final int[][] _rows;
+    /** The bitsets of my rows. */
+    private final long[][] _bits;
+    /** My shape. */
+    private final Topology _topology;
+    /** Size of board (squares along one edge). */
+    private final int _N;
+    /** Total combined number of moves by both sides. */
+    private final int _moves;
+    /** My keys under each of the symmetries. */
+    private final long[] _keys;
+
+}
@@ -0,0 +1,764 @@
+package jump61;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+
+import static jump61.Color.*;
+
+/** Unit testing of the Board classes.
+ * @author Alan Ponte
+ * */
+public class BoardTest extends TestCase {
+
+    /** Returns a board of size N on which cascades are resolved in waves
+     *  iff WAVES. */
+    private static MutableBoard board(int N, boolean waves) {
+        MutableBoard b = new MutableBoard(N);
+        b.setWaveSize(waves ? 0 : Integer.MAX_VALUE);
+        return b;
+    }
+
+    /** Assert that boards EXPECTED and ACTUAL have the same contents. */
+    private static void assertSameBoard(Board expected, Board actual) {
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    @Test
+    public void testWaveCascadeMatchesDepthFirst() {
+        Random rand = new Random(61);
+        for (int game = 0; game < 50; game += 1) {
+            int N = 2 + rand.nextInt(9);
+            MutableBoard seq = board(N, false);
+            MutableBoard wave = board(N, true);
+            while (!seq.won()) {
+                Color p = seq.whoseMove();
+                int n;
+                do {
+                    n = rand.nextInt(N * N);
+                } while (!seq.isLegal(p, n));
+                seq.addSpot(p, n);
+                wave.addSpot(p, n);
+                if (!seq.won()) {
+                    assertSameBoard(seq, wave);
+                }
+            }
+            assertTrue(wave.won());
+            assertEquals(seq.color(0), wave.color(0));
+        }
+    }
+
+    @Test
+    public void testLongWaveCascade() {
+        int N = 80;
+        MutableBoard seq = board(N, false);
+        MutableBoard wave = board(N, true);
+        for (int n = N * N / 2; n < N * N; n += 1) {
+            seq.set(n, seq.neighbors(n), BLUE);
+            wave.set(n, wave.neighbors(n), BLUE);
+        }
+        seq.addSpot(BLUE, N * N - 1);
+        wave.addSpot(BLUE, N * N - 1);
+        assertSameBoard(seq, wave);
+        assertFalse(wave.won());
+    }
+
+    @Test
+    public void testTopologies() {
+        int N = 5;
+        Topology grid = Topology.grid(N);
+        for (int n = 0; n < N * N; n += 1) {
+            int r = n / N, c = n % N, k = 0;
+            int[] expected = { r > 0 ? n - N : -1, r < N - 1 ? n + N : -1,
+                               c > 0 ? n - 1 : -1, c < N - 1 ? n + 1 : -1 };
+            for (int adj : expected) {
+                if (adj >= 0) {
+                    assertEquals(adj, grid.neighbor(n, k));
+                    k += 1;
+                }
+            }
+            assertEquals(k, grid.capacity(n));
+            assertEquals(-1, grid.neighbor(n, k));
+        }
+        assertSame(grid, Topology.parse("grid", N));
+        assertEquals(4, Topology.of(Topology.Kind.TORUS, N).capacity(0));
+        assertEquals(6, Topology.of(Topology.Kind.HEX, N).capacity(N + 1));
+        assertEquals(2, Topology.of(Topology.Kind.HEX, N).capacity(0));
+        assertEquals(3, Topology.of(Topology.Kind.HEX, N).capacity(N - 1));
+        for (Topology.Kind kind : Topology.Kind.values()) {
+            if (kind == Topology.Kind.GRAPH) {
+                continue;
+            }
+            Topology t = Topology.of(kind, N);
+            for (int n = 0; n < N * N; n += 1) {
+                for (int k = 0; k < t.capacity(n); k += 1) {
+                    int m = t.neighbor(n, k);
+                    boolean back = false;
+                    for (int j = 0; j < t.capacity(m); j += 1) {
+                        back |= t.neighbor(m, j) == n;
+                    }
+                    assertTrue(back);
+                }
+            }
+        }
+        try {
+            Topology.parse("torus", 2);
+            fail("2x2 torus accepted");
+        } catch (GameException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void testTopologyCascades() {
+        Random rand = new Random(41);
+        int[][] ring = new int[9][];
+        for (int n = 0; n < 9; n += 1) {
+            ring[n] = new int[] { (n + 8) % 9, (n + 1) % 9 };
+        }
+        Topology[] shapes = {
+            Topology.parse("torus", 6), Topology.parse("hex", 7),
+            Topology.graph(3, ring)
+        };
+        for (Topology shape : shapes) {
+            MutableBoard seq = board(3, false);
+            MutableBoard wave = board(3, true);
+            seq.clear(shape);
+            wave.clear(shape);
+            int N = shape.size();
+            for (int moves = 0; !seq.won() && moves < 5000; moves += 1) {
+                Color p = seq.whoseMove();
+                int n;
+                do {
+                    n = rand.nextInt(N * N);
+                } while (!seq.isLegal(p, n));
+                seq.addSpot(p, n);
+                wave.addSpot(p, n);
+                if (!seq.won()) {
+                    assertSameBoard(seq, wave);
+                    for (int s = 0; s < N * N; s += 1) {
+                        assertTrue(seq.spots(s) <= shape.capacity(s));
+                    }
+                }
+            }
+            assertTrue(seq.won());
+            assertTrue(wave.won());
+            assertSame(shape, seq.snapshot().topology());
+            MutableBoard copy = new MutableBoard(seq.snapshot());
+            assertSame(shape, copy.topology());
+            seq.clear(3);
+            if (shape.kind() != Topology.Kind.GRAPH) {
+                assertEquals(shape.kind(), seq.topology().kind());
+            }
+        }
+    }
+
+    @Test
+    public void testBitCounting() {
+        Random rand = new Random(42);
+        for (int N : new int[] { 1, 5, 63, 64, 65, 130 }) {
+            MutableBoard b = new MutableBoard(N);
+            for (int n = 0; n < N * N; n += 1) {
+                int k = rand.nextInt(3);
+                b.put(n, k == 0 ? 0 : 1, k == 0 ? WHITE : k == 1 ? RED : BLUE);
+            }
+            BoardSnapshot snap = b.snapshot();
+            for (Color c : Color.values()) {
+                b.setBitCounting(false);
+                int expected = b.numOfColor(c);
+                b.setBitCounting(true);
+                assertEquals(expected, b.numOfColor(c));
+                assertEquals(expected, snap.numOfColor(c));
+            }
+            for (int n = 0; n < N * N; n += 1) {
+                b.put(n, 1, BLUE);
+            }
+            assertTrue(b.won());
+            b.put(N * N - 1, 1, RED);
+            assertEquals(N == 1, b.won());
+            b.setBitCounting(false);
+            assertEquals(N == 1, b.won());
+        }
+    }
+
+    @Test
+    public void testLoadAndStabilize() {
+        Random rand = new Random(43);
+        int N = 7;
+        MutableBoard b = new MutableBoard(N);
+        for (int k = 0; k < 30; k += 1) {
+            Color p = b.whoseMove();
+            int n;
+            do {
+                n = rand.nextInt(N * N);
+            } while (!b.isLegal(p, n));
+            MutableBoard loaded = new MutableBoard(2);
+            int[] cells = new int[N * N];
+            for (int s = 0; s < N * N; s += 1) {
+                cells[s] = Board.cell(b.spots(s), b.color(s));
+            }
+            cells[n] = Board.cell(b.spots(n) + 1, p);
+            boolean jumps = b.spots(n) + 1 > b.neighbors(n);
+            loaded.load(N, cells, b.numMoves() + 1);
+            ArrayList<BoardDelta> deltas = new ArrayList<>();
+            loaded.addListener(d -> deltas.add(d.copy()));
+            b.addSpot(p, n);
+            int overfull = loaded.stabilize();
+            assertEquals(jumps, overfull > 0);
+            assertEquals(1, deltas.size());
+            if (b.won()) {
+                break;
+            }
+            assertSameBoard(b, loaded);
+        }
+
+        MutableBoard mixed = new MutableBoard(N);
+        int[] cells = new int[N * N];
+        for (int s = 0; s < N * N; s += 1) {
+            cells[s] = Board.cell(rand.nextInt(6), rand.nextBoolean() ? RED
+                                  : BLUE);
+        }
+        mixed.load(N, cells, 3);
+        assertEquals(3, mixed.numMoves());
+        mixed.stabilize();
+        for (int s = 0; s < N * N && !mixed.won(); s += 1) {
+            assertTrue(mixed.spots(s) <= mixed.neighbors(s));
+        }
+        assertEquals(0, mixed.stabilize());
+    }
+
+    @Test
+    public void testDirectBoard() {
+        MutableBoard heap = new MutableBoard(5);
+        DirectBoard direct = new DirectBoard(5);
+        Random rand = new Random(27);
+        while (!heap.won()) {
+            Color p = heap.whoseMove();
+            int n;
+            do {
+                n = rand.nextInt(25);
+            } while (!heap.isLegal(p, n));
+            heap.addSpot(p, n);
+            direct.addSpot(p, n);
+            if (!heap.won()) {
+                assertSameBoard(heap, direct);
+                assertEquals(heap.numOfColor(RED), direct.numOfColor(RED));
+            }
+        }
+        assertEquals(heap.numMoves(), direct.numMoves());
+        direct.close();
+        try {
+            direct.spots(0);
+            fail("closed board still usable");
+        } catch (IllegalStateException e) {
+            assertTrue(direct.isClosed());
+        }
+        try {
+            direct.clear(4);
+            fail("closed board cleared");
+        } catch (IllegalStateException e) {
+            assertTrue(direct.isClosed());
+        }
+    }
+
+    @Test
+    public void testMappedBoard() throws IOException {
+        File file = File.createTempFile("jump61", ".board");
+        file.deleteOnExit();
+        MutableBoard heap = new MutableBoard(4);
+        heap.addSpot(RED, 0);
+        heap.addSpot(BLUE, 5);
+        heap.addSpot(RED, 0);
+        DirectBoard mapped = DirectBoard.create(file.toPath(), 4);
+        mapped.copy(heap);
+        mapped.close();
+        DirectBoard reopened = DirectBoard.open(file.toPath());
+        assertSameBoard(heap, reopened);
+        assertEquals(3, reopened.numMoves());
+        reopened.close();
+
+        try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            raw.setLength(raw.length() - 4);
+        }
+        try {
+            DirectBoard.open(file.toPath());
+            fail("truncated board opened");
+        } catch (GameException e) {
+            assertTrue(e.getMessage().contains("truncated"));
+        }
+    }
+
+    @Test
+    public void testSnapshot() {
+        MutableBoard b = new MutableBoard(4);
+        b.addSpot(RED, 0);
+        BoardSnapshot before = b.snapshot();
+        String dump = before.toString();
+        b.addSpot(BLUE, 5);
+        b.addSpot(RED, 0);
+        assertEquals(dump, before.toString());
+        assertEquals(1, before.numMoves());
+        BoardSnapshot after = b.snapshot();
+        assertFalse(before.equals(after));
+        b.undo();
+        b.undo();
+        assertEquals(before, b.snapshot());
+        assertEquals(before.hashCode(), b.snapshot().hashCode());
+
+        MutableBoard other = new MutableBoard(4);
+        other.addSpot(RED, 0);
+        HashMap<Board, String> seen = new HashMap<>();
+        seen.put(before, "one move");
+        assertEquals("one move", seen.get(other.snapshot()));
+        assertNull(seen.get(after));
+    }
+
+    @Test
+    public void testSymmetricKeys() {
+        int N = 5;
+        int[] moves = { 0, 7, 1, 12, 0, 23 };
+        for (int g = 0; g < Symmetry.COUNT; g += 1) {
+            MutableBoard b = new MutableBoard(N);
+            MutableBoard t = new MutableBoard(N);
+            for (int m : moves) {
+                b.addSpot(b.whoseMove(), m);
+                t.addSpot(t.whoseMove(), Symmetry.map(g, m, N));
+            }
+            assertEquals(b.canonicalKey(), t.canonicalKey());
+            int inv = Symmetry.inverse(g);
+            for (int s = 0; s < N * N; s += 1) {
+                assertEquals(s, Symmetry.map(inv, Symmetry.map(g, s, N), N));
+                assertEquals(b.color(s), t.color(Symmetry.map(g, s, N)));
+            }
+            int cb = Symmetry.map(b.canonicalSymmetry(), 3, N);
+            int move = Symmetry.map(Symmetry.inverse(t.canonicalSymmetry()),
+                                    cb, N);
+            assertEquals(Symmetry.map(g, 3, N), move);
+        }
+    }
+
+    @Test
+    public void testHistory() {
+        MutableBoard b = new MutableBoard(30);
+        ArrayList<BoardSnapshot> seen = new ArrayList<>();
+        Random rand = new Random(33);
+        seen.add(b.snapshot());
+        while (!b.won() && b.numMoves() < 3000) {
+            int n;
+            do {
+                n = rand.nextInt(900);
+            } while (!b.isLegal(b.whoseMove(), n));
+            b.addSpot(b.whoseMove(), n);
+            seen.add(b.snapshot());
+        }
+        int last = b.numMoves();
+        assertEquals(last, b.lastMove());
+        for (int i = 0; i < 100; i += 1) {
+            int k = rand.nextInt(last + 1);
+            b.seek(k);
+            assertEquals(seen.get(k), b.snapshot());
+        }
+        b.seek(last);
+        for (int k = last - 1; k >= last - 150; k -= 1) {
+            b.undo();
+            assertEquals(seen.get(k), b.snapshot());
+        }
+        for (int k = last - 149; k <= last; k += 1) {
+            b.redo();
+            assertEquals(seen.get(k), b.snapshot());
+        }
+        b.seek(10);
+        b.addSpot(b.whoseMove(), 0);
+        assertEquals(11, b.lastMove());
+        b.undo();
+        assertEquals(seen.get(10), b.snapshot());
+        b.seek(0);
+        assertEquals(seen.get(0), b.snapshot());
+    }
+
+    @Test
+    public void testMoveBitsets() {
+        for (int N : new int[] { 5, 64, 70 }) {
+            MutableBoard b = new MutableBoard(N);
+            Random rand = new Random(N);
+            for (int k = 0; k < 6 * N && !b.won(); k += 1) {
+                Color p = b.whoseMove();
+                int n;
+                do {
+                    n = rand.nextInt(N * N);
+                } while (!b.isLegal(p, n));
+                b.addSpot(p, n);
+                if (k % 5 == 4) {
+                    b.undo();
+                }
+                checkBitsets(b);
+            }
+        }
+    }
+
+    /** Check that the legal-move and critical-square queries on B agree
+     *  with the squares' contents. */
+    private void checkBitsets(MutableBoard b) {
+        int N = b.size();
+        for (Color p : new Color[] { RED, BLUE }) {
+            int critical = 0;
+            int legal = b.nextLegal(p, 0), crit = b.nextCritical(p, 0);
+            for (int n = 0; n < N * N; n += 1) {
+                boolean isLegal = b.color(n) != p.opposite();
+                boolean isCritical = b.color(n) == p
+                    && b.spots(n) == b.neighbors(n);
+                assertEquals(isLegal, b.isLegal(p, n));
+                if (isLegal) {
+                    assertEquals(n, legal);
+                    legal = b.nextLegal(p, n + 1);
+                }
+                if (isCritical) {
+                    critical += 1;
+                    assertEquals(n, crit);
+                    crit = b.nextCritical(p, n + 1);
+                }
+            }
+            assertEquals(-1, legal);
+            assertEquals(-1, crit);
+            assertEquals(critical, b.numCritical(p));
+        }
+    }
+
+    @Test
+    public void testChangedSquares() {
+        for (int N : new int[] { 6, 70 }) {
+            MutableBoard b = new MutableBoard(N);
+            assertEquals(N * N, b.numChanged());
+            Random rand = new Random(N);
+            BoardSnapshot before = b.snapshot();
+            for (int k = 0; k < 8 * N && !b.won(); k += 1) {
+                Color p = b.whoseMove();
+                int n;
+                do {
+                    n = rand.nextInt(N * N);
+                } while (!b.isLegal(p, n));
+                b.addSpot(p, n);
+                assertEquals(n, b.changedSquare(0));
+                checkChanges(before, b);
+                before = b.snapshot();
+                if (k % 4 == 3) {
+                    b.undo();
+                    checkChanges(before, b);
+                    before = b.snapshot();
+                }
+            }
+            b.seek(b.firstMove());
+            checkChanges(before, b);
+            before = b.snapshot();
+            b.set(0, 3, RED);
+            checkChanges(before, b);
+        }
+    }
+
+    /** Check that the changed squares of B are those that differ between
+     *  BEFORE and B. */
+    private void checkChanges(Board before, MutableBoard b) {
+        HashSet<Integer> changed = new HashSet<>();
+        for (int k = 0; k < b.numChanged(); k += 1) {
+            assertTrue(changed.add(b.changedSquare(k)));
+        }
+        for (int n = 0; n < b.size() * b.size(); n += 1) {
+            boolean differs = before.spots(n) != b.spots(n)
+                || before.color(n) != b.color(n);
+            assertEquals(differs, changed.contains(n));
+        }
+    }
+
+    @Test
+    public void testAnimationWaves() {
+        for (int N : new int[] { 6, 70 }) {
+            MutableBoard b = new MutableBoard(N);
+            b.setWaveSize(64);
+            for (int n = 0; n < N * N; n += 1) {
+                b.set(n, b.neighbors(n), n == 0 ? RED : BLUE);
+            }
+            MutableBoard mirror = new MutableBoard(b);
+            ArrayList<BoardDelta> deltas = new ArrayList<>();
+            b.addListener(delta -> deltas.add(delta.copy()));
+            b.addSpot(RED, 0);
+            BoardDelta delta = deltas.get(0);
+            int spots = 0, waves = 0;
+            for (int n = 0; n < N * N; n += 1) {
+                spots += mirror.spots(n);
+            }
+            int total = spots;
+            for (int k = 0; k < delta.count(); waves += 1) {
+                int end = BoardPanel.Changes.waveEnd(delta, k);
+                assertTrue(end > k);
+                int sheds = 0;
+                for (; k < end; k += 1) {
+                    int n = delta.square(k), cell = delta.newCell(k);
+                    if (Board.cellSpots(cell) < mirror.spots(n)) {
+                        sheds += 1;
+                    }
+                    spots += Board.cellSpots(cell) - mirror.spots(n);
+                    mirror.put(n, Board.cellSpots(cell),
+                               Board.cellColor(cell));
+                }
+                assertEquals(total + 1, spots);
+                if (waves > 0 && N < 64) {
+                    assertEquals(1, sheds);
+                }
+            }
+            if (N >= 64) {
+                assertEquals(b.resolver().waves() + 1, waves);
+            }
+            assertTrue(b.won());
+            assertEquals(b.toString(), mirror.toString());
+        }
+    }
+
+    @Test
+    public void testListeners() {
+        for (int N : new int[] { 5, 70 }) {
+            MutableBoard b = new MutableBoard(N);
+            MutableBoard mirror = new MutableBoard(N);
+            ArrayList<BoardDelta> deltas = new ArrayList<>();
+            BoardListener listener = delta -> {
+                deltas.add(delta.copy());
+                for (int k = 0; k < delta.count() && !delta.resets();
+                     k += 1) {
+                    int n = delta.square(k);
+                    assertEquals(delta.oldCell(k),
+                                 Board.cell(mirror.spots(n),
+                                            mirror.color(n)));
+                    mirror.put(n, Board.cellSpots(delta.newCell(k)),
+                               Board.cellColor(delta.newCell(k)));
+                }
+                if (delta.resets()) {
+                    delta.applyTo(mirror);
+                } else if (mirror.numMoves() != delta.numMoves()) {
+                    mirror.setMoves(delta.numMoves());
+                }
+            };
+            b.addListener(listener);
+            Random rand = new Random(N);
+            for (int k = 0; k < 8 * N && !b.won(); k += 1) {
+                Color p = b.whoseMove();
+                int n;
+                do {
+                    n = rand.nextInt(N * N);
+                } while (!b.isLegal(p, n));
+                b.addSpot(p, n);
+                BoardDelta last = deltas.get(deltas.size() - 1);
+                assertEquals(BoardDelta.Kind.MOVE, last.kind());
+                assertEquals(n, last.move());
+                assertEquals(n, last.square(0));
+                assertEquals(b.snapshot(), mirror.snapshot());
+                if (k % 4 == 3) {
+                    b.undo();
+                    assertEquals(b.snapshot(), mirror.snapshot());
+                    b.redo();
+                    assertEquals(b.snapshot(), mirror.snapshot());
+                    b.undo();
+                    assertEquals(b.snapshot(), mirror.snapshot());
+                }
+            }
+            b.seek(b.firstMove() + 1);
+            assertEquals(BoardDelta.Kind.SEEK,
+                         deltas.get(deltas.size() - 1).kind());
+            assertEquals(b.snapshot(), mirror.snapshot());
+            b.set(N + 1, 2, BLUE);
+            assertEquals(1, deltas.get(deltas.size() - 1).count());
+            assertEquals(b.snapshot(), mirror.snapshot());
+            b.setMoves(b.numMoves() + 3);
+            BoardDelta moves = deltas.get(deltas.size() - 1);
+            assertEquals(BoardDelta.Kind.SET, moves.kind());
+            assertEquals(0, moves.count());
+            assertEquals(b.numMoves(), moves.numMoves());
+            assertEquals(b.numMoves(), mirror.numMoves());
+            assertEquals(b.snapshot(), mirror.snapshot());
+            b.copy(new MutableBoard(b));
+            assertEquals(b.snapshot(), mirror.snapshot());
+            b.clear(N - 1);
+            assertEquals(0, deltas.get(deltas.size() - 1).count());
+            assertEquals(b.snapshot(), mirror.snapshot());
+            b.addSpot(RED, 0);
+            assertEquals(b.snapshot(), mirror.snapshot());
+            int count = deltas.size();
+            b.removeListener(listener);
+            b.addSpot(BLUE, 1);
+            assertEquals(count, deltas.size());
+        }
+    }
+
+    @Test
+    public void testSpectators() throws InterruptedException {
+        MutableBoard b = new MutableBoard(12);
+        b.addSpot(RED, 0);
+        SpectatorChannel channel = new SpectatorChannel(b);
+        SpectatorChannel.Subscription fast = channel.subscribe(1000);
+        SpectatorChannel.Subscription slow = channel.subscribe(3);
+        SpectatorView watcher = new SpectatorView();
+        ArrayList<BoardSnapshot> positions = new ArrayList<>();
+        Thread reader = new Thread(() -> {
+            try {
+                for (ByteBuffer frame = fast.take(); frame != null;
+                     frame = fast.take()) {
+                    assertTrue(watcher.apply(frame));
+                    positions.add(watcher.snapshot());
+                }
+            } catch (InterruptedException excp) {
+                fail("interrupted");
+            }
+        });
+        reader.start();
+        ArrayList<BoardSnapshot> expected = new ArrayList<>();
+        expected.add(b.snapshot());
+        Random rand = new Random(38);
+        for (int k = 0; k < 300; k += 1) {
+            if (b.won()) {
+                b.clear(12);
+            } else if (k % 7 == 6) {
+                b.undo();
+            } else {
+                int n;
+                do {
+                    n = rand.nextInt(144);
+                } while (!b.isLegal(b.whoseMove(), n));
+                b.addSpot(b.whoseMove(), n);
+            }
+            expected.add(b.snapshot());
+            if (k == 150) {
+                SpectatorChannel.Subscription late = channel.subscribe();
+                SpectatorView view = new SpectatorView();
+                for (ByteBuffer frame = late.poll(); frame != null;
+                     frame = late.poll()) {
+                    assertTrue(view.apply(frame));
+                }
+                assertEquals(b.snapshot(), view.snapshot());
+                late.cancel();
+            }
+        }
+        channel.close();
+        reader.join();
+        assertEquals(expected, positions);
+        assertTrue(slow.resyncs() > 0);
+        assertTrue(slow.isClosed());
+        assertEquals(0, fast.resyncs());
+        assertTrue(channel.bytes() < 300 * 50);
+
+        int[][] bad = {
+            { 0, 0, 0 }, { -5, 0, 0 }, { SpectatorChannel.MAX_SIZE + 1, 0, 0 },
+            { 46341, 0, 0 }, { 4, 1000000, 2 }, { 2, 5, 10 },
+        };
+        for (int[] fields : bad) {
+            ByteBuffer frame = ByteBuffer.allocate(32 + fields[2]);
+            frame.put(SpectatorChannel.KEYFRAME).putInt(0).put((byte) 0)
+                .putInt(fields[0]).putInt(0);
+            int x = fields[1];
+            for (; (x & ~0x7f) != 0; x >>>= 7) {
+                frame.put((byte) ((x & 0x7f) | 0x80));
+            }
+            frame.put((byte) x);
+            for (int k = 0; k < fields[2]; k += 1) {
+                frame.put((byte) (k % 2 == 0 ? 2 : 4));
+            }
+            frame.flip();
+            try {
+                new SpectatorView().apply(frame);
+                fail("Applied a malformed keyframe");
+            } catch (GameException excp) {
+                /* Expected. */
+            }
+        }
+    }
+
+    @Test
+    public void testSpectatorShapes() {
+        MutableBoard b = new MutableBoard(3);
+        MutableBoard mirror = new MutableBoard(3);
+        b.addListener(delta -> delta.applyTo(mirror));
+        SpectatorChannel channel = new SpectatorChannel(b);
+        SpectatorChannel.Subscription sub = channel.subscribe(1000);
+        SpectatorView view = new SpectatorView();
+        for (Topology.Kind kind : new Topology.Kind[] {
+                Topology.Kind.TORUS, Topology.Kind.HEX }) {
+            b.clear(Topology.of(kind, 5));
+            b.addSpot(RED, 0);
+            b.addSpot(BLUE, 12);
+            b.addSpot(RED, 0);
+            for (ByteBuffer frame = sub.poll(); frame != null;
+                 frame = sub.poll()) {
+                view.apply(frame);
+            }
+            for (BoardSnapshot copy : new BoardSnapshot[] {
+                    mirror.snapshot(), view.snapshot() }) {
+                assertEquals(b.topology(), copy.topology());
+                assertEquals(b.neighbors(0), copy.neighbors(0));
+                assertEquals(b.snapshot(), copy);
+            }
+        }
+        channel.close();
+    }
+
+    @Test
+    public void testTrialMoves() {
+        MutableBoard b = new MutableBoard(4);
+        PatternEval patterns = new PatternEval(b);
+        SearchArena arena = new SearchArena(1, 16);
+        Random rand = new Random(44);
+        while (b.numMoves() < 12 && !b.won()) {
+            Color p = b.whoseMove();
+            String before = b.toString();
+            long key = b.canonicalKey();
+            int moves = b.numMoves();
+            int trials = 0;
+            for (; trials < 3 && !b.won(); trials += 1) {
+                int move;
+                do {
+                    move = rand.nextInt(16);
+                } while (!b.isLegal(p, move));
+                b.tryMove(p, move, arena);
+                p = p.opposite();
+                assertEquals(PatternEval.evaluate(b, p), patterns.evaluate(p));
+            }
+            assertEquals(trials, arena.trials());
+            for (; trials > 0; trials -= 1) {
+                b.untry(arena);
+            }
+            assertEquals(before, b.toString());
+            assertEquals(key, b.canonicalKey());
+            assertEquals(moves, b.numMoves());
+            assertEquals(PatternEval.evaluate(b, Color.RED),
+                         patterns.evaluate(Color.RED));
+            int move;
+            do {
+                move = rand.nextInt(16);
+            } while (!b.isLegal(b.whoseMove(), move));
+            b.addSpot(b.whoseMove(), move);
+        }
+        patterns.detach();
+    }
+
+    @Test
+    public void testArenaReserve() {
+        SearchArena arena = new SearchArena(1, 16);
+        arena.reserve(4, 16);
+        for (int ply = 0; ply <= 4; ply += 1) {
+            assertEquals(16, arena.moves(ply).length);
+            assertEquals(16, arena.scores(ply).length);
+        }
+        arena.reserve(6, 36);
+        for (int ply = 0; ply <= 6; ply += 1) {
+            assertEquals(36, arena.moves(ply).length);
+        }
+        arena.reserve(2, 9);
+        assertEquals(36, arena.moves(6).length);
+    }
+
+}
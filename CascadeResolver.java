@@ -0,0 +1,279 @@
+package jump61;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/** Resolves the jumping that follows a move breadth first, one wave at a
+ *  time.  Every over-full square in the current wave (its frontier) jumps
+ *  exactly once; the spots it sheds are then pulled into its neighbors,
+ *  and the neighbors that become over-full form the next wave.  Large
+ *  waves are split across a ForkJoinPool.
+ *
+ *  Within a wave, each receiving square is handled by exactly one task:
+ *  the one handling its lowest-numbered jumping neighbor, which adds the
+ *  spots of all its jumping neighbors at once.  The tasks only read the
+ *  board, recording the new contents of the squares they handle; the
+ *  calling thread then makes the changes in chunk order, so that the
+ *  board itself (whose row copies, bitsets, and keys are not
+ *  thread-safe) is only ever changed by one thread, and sees its changes
+ *  in the same order however many threads there are.  The next frontier
+ *  is likewise assembled in chunk order, so the result does not depend
+ *  on scheduling or on the number of threads.  Because jumps commute,
+ *  the final board is the same as that of MutableBoard's depth-first
+ *  jumping, except when the board is won part way through a cascade:
+ *  both then stop with every square the winner's, but possibly with
+ *  different spot counts.
+ *  @author Alan Ponte
+ */
+class CascadeResolver {
+
+    /** A resolver for cascades on BOARD. */
+    CascadeResolver(Board board) {
+        _board = board;
+    }
+
+    /** Do all jumping on my board for PLAYER, assuming that initially, S is
+     *  the only square that might be over-full. */
+    void resolve(Color player, int s) {
+        _start[0] = s;
+        resolve(player, _start, 1);
+    }
+
+    /** Do all jumping on my board for PLAYER, assuming that initially,
+     *  the only squares that might be over-full are the first COUNT of
+     *  SQUARES, which are distinct and, if over-full, PLAYER's.  They
+     *  all jump in the first wave. */
+    void resolve(Color player, int[] squares, int count) {
+        int N = _board.size();
+        Topology topology = _board.topology();
+        _capacity = topology.capacities();
+        _offsets = topology.offsets();
+        _targets = topology.targets();
+        if (_frontier.length < count) {
+            _frontier = new int[count];
+        }
+        _frontierSize = 0;
+        for (int i = 0; i < count; i += 1) {
+            if (overfull(squares[i])) {
+                _frontier[_frontierSize++] = squares[i];
+            }
+        }
+        if (_frontierSize == 0) {
+            return;
+        }
+        if (_exploding.length != N * N) {
+            _exploding = new boolean[N * N];
+        }
+        _player = player;
+        _others = N * N - _board.numOfColor(player);
+        _waves = 0;
+        _jumps = 0;
+        long start = System.nanoTime();
+        while (_frontierSize > 0 && _others > 0) {
+            wave();
+        }
+        _nanos = System.nanoTime() - start;
+    }
+
+    /** Returns the number of waves in the last cascade resolved. */
+    int waves() {
+        return _waves;
+    }
+
+    /** Returns the number of jumps in the last cascade resolved. */
+    long jumps() {
+        return _jumps;
+    }
+
+    /** Returns the time taken by the last cascade resolved, in
+     *  nanoseconds. */
+    long nanos() {
+        return _nanos;
+    }
+
+    /** Make every square of the current frontier jump once and replace
+     *  the frontier with the squares that became over-full. */
+    private void wave() {
+        int size = _frontierSize;
+        int chunks = (size + Defaults.WAVE_PARALLEL_GRAIN - 1)
+            / Defaults.WAVE_PARALLEL_GRAIN;
+        if (_next.length < chunks) {
+            _next = Arrays.copyOf(_next, chunks);
+            _nextSize = Arrays.copyOf(_nextSize, chunks);
+            _changed = Arrays.copyOf(_changed, chunks);
+            _updates = Arrays.copyOf(_updates, chunks);
+            _updateSize = Arrays.copyOf(_updateSize, chunks);
+        }
+        for (int i = 0; i < chunks; i++) {
+            if (_next[i] == null) {
+                _next[i] = new int[Defaults.WAVE_PARALLEL_GRAIN];
+                _updates[i] = new int[2 * Defaults.WAVE_PARALLEL_GRAIN];
+            }
+            _nextSize[i] = 0;
+            _updateSize[i] = 0;
+        }
+        shed(size);
+        if (chunks == 1) {
+            gather(0, 0, size);
+        } else {
+            POOL.submit(() -> IntStream.range(0, chunks).parallel()
+                        .forEach(c -> gather(c,
+                                             c * Defaults.WAVE_PARALLEL_GRAIN,
+                                             end(c, size)))).join();
+        }
+        for (int c = 0; c < chunks; c++) {
+            int[] updates = _updates[c];
+            for (int i = 0; i < _updateSize[c]; i += 2) {
+                _board.put(updates[i], updates[i + 1], _player);
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            _exploding[_frontier[i]] = false;
+        }
+        int total = 0;
+        for (int c = 0; c < chunks; c++) {
+            total += _nextSize[c];
+            _others -= _changed[c];
+        }
+        if (_spare.length < total) {
+            _spare = new int[Math.max(total, 2 * _spare.length)];
+        }
+        for (int c = 0, k = 0; c < chunks; k += _nextSize[c], c++) {
+            System.arraycopy(_next[c], 0, _spare, k, _nextSize[c]);
+        }
+        int[] tmp = _frontier;
+        _frontier = _spare;
+        _spare = tmp;
+        _frontierSize = total;
+        _waves += 1;
+        _jumps += size;
+    }
+
+    /** Returns the end of chunk C of a frontier of SIZE squares. */
+    private int end(int c, int size) {
+        return Math.min(size, (c + 1) * Defaults.WAVE_PARALLEL_GRAIN);
+    }
+
+    /** Remove the spots shed by the first SIZE frontier squares and mark
+     *  them as jumping. */
+    private void shed(int size) {
+        for (int i = 0; i < size; i++) {
+            int s = _frontier[i];
+            _exploding[s] = true;
+            _board.put(s, _board.spots(s) - _capacity[s], _board.color(s));
+        }
+    }
+
+    /** Find the new contents of each square that is owned by frontier
+     *  squares FROM .. TO-1, which receives the spots of all its jumping
+     *  neighbors, recording them as chunk C of the updates and the squares
+     *  that become over-full as chunk C of the next frontier.  Does not
+     *  change the board. */
+    private void gather(int c, int from, int to) {
+        int changed = 0;
+        for (int i = from; i < to; i++) {
+            int s = _frontier[i];
+            if (!receives(s) && overfull(s)) {
+                addNext(c, s);
+            }
+            for (int k = _offsets[s]; k < _offsets[s + 1]; k++) {
+                int t = _targets[k];
+                int incoming = 0;
+                boolean owned = true;
+                for (int j = _offsets[t]; j < _offsets[t + 1] && owned; j++) {
+                    int u = _targets[j];
+                    if (_exploding[u]) {
+                        incoming += 1;
+                        owned = u >= s;
+                    }
+                }
+                if (!owned) {
+                    continue;
+                }
+                if (_board.color(t) != _player) {
+                    changed += 1;
+                }
+                int spots = _board.spots(t) + incoming;
+                addUpdate(c, t, spots);
+                if (spots > _capacity[t]) {
+                    addNext(c, t);
+                }
+            }
+        }
+        _changed[c] = changed;
+    }
+
+    /** Returns true iff some neighbor of square T is jumping. */
+    private boolean receives(int t) {
+        for (int k = _offsets[t]; k < _offsets[t + 1]; k++) {
+            if (_exploding[_targets[k]]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Append square S to chunk C of the next frontier. */
+    private void addNext(int c, int s) {
+        if (_nextSize[c] == _next[c].length) {
+            _next[c] = Arrays.copyOf(_next[c], 2 * _next[c].length);
+        }
+        _next[c][_nextSize[c]++] = s;
+    }
+
+    /** Append the change of square T to SPOTS spots of the current
+     *  player's color to chunk C of the updates. */
+    private void addUpdate(int c, int t, int spots) {
+        if (_updateSize[c] == _updates[c].length) {
+            _updates[c] = Arrays.copyOf(_updates[c], 2 * _updates[c].length);
+        }
+        _updates[c][_updateSize[c]++] = t;
+        _updates[c][_updateSize[c]++] = spots;
+    }
+
+    /** Returns true iff square S is over-full. */
+    private boolean overfull(int s) {
+        return _board.spots(s) > _capacity[s];
+    }
+
+    /** Pool on which large waves are resolved. */
+    private static final ForkJoinPool POOL = ForkJoinPool.commonPool();
+
+    /** The board whose cascades I resolve. */
+    private final Board _board;
+    /** The capacities and neighbor lists of the squares of my board (see
+     *  Topology). */
+    private int[] _capacity, _offsets, _targets;
+    /** The player whose move started the current cascade. */
+    private Color _player;
+    /** Number of squares not yet of color _player. */
+    private int _others;
+    /** The start of a cascade from one square. */
+    private final int[] _start = new int[1];
+    /** The squares jumping in the current wave. */
+    private int[] _frontier = new int[1];
+    /** Number of squares in _frontier. */
+    private int _frontierSize;
+    /** Buffer for the next frontier, swapped with _frontier. */
+    private int[] _spare = new int[1];
+    /** Per-chunk parts of the next frontier. */
+    private int[][] _next = new int[1][];
+    /** Sizes of the parts in _next. */
+    private int[] _nextSize = new int[1];
+    /** Per-chunk changes to make after a wave's tasks are done, each a
+     *  square number followed by its new number of spots. */
+    private int[][] _updates = new int[1][];
+    /** Numbers of ints used in each of _updates. */
+    private int[] _updateSize = new int[1];
+    /** Per-chunk numbers of squares that changed to _player's color. */
+    private int[] _changed = new int[1];
+    /** _exploding[s] is true iff square s jumps in the current wave. */
+    private boolean[] _exploding = new boolean[0];
+    /** Number of waves in the last cascade resolved. */
+    private int _waves;
+    /** Number of jumps in the last cascade resolved. */
+    private long _jumps;
+    /** Time taken by the last cascade resolved, in nanoseconds. */
+    private long _nanos;
+}
@@ -17,6 +17,11 @@ class ConstantBoard extends Board {
         return _board.size();
     }
 
+    @Override
+    Topology topology() {
+        return _board.topology();
+    }
+
     @Override
     int spots(int r, int c) {
         return _board.spots(r, c);
@@ -0,0 +1,267 @@
+package jump61;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static jump61.GameException.error;
+
+/** Plays batches of self-play games in worker processes: copies of this
+ *  program started with --worker (see Main), each on its own JVM on this
+ *  machine, so that games need share neither a heap nor a garbage
+ *  collector.  The coordinator talks to each worker over the worker's
+ *  standard input and output.  It sends a job as the byte JOB, the
+ *  job's number as an int, and the game's random seed as a long, or
+ *  tells the worker to exit with the byte QUIT; the worker answers each
+ *  job with its number followed by the GameRecord of the game (see
+ *  GameRecord.write).  The worker's standard error is the
+ *  coordinator's.
+ *
+ *  The jobs are first split into one contiguous batch per worker.  A
+ *  worker takes its next job from the front of its own batch; once that
+ *  is empty, it steals from the back of the longest remaining batch, so
+ *  that no worker sits idle while others have work queued.  A worker
+ *  that dies, or exits of its own accord (as one started with a game
+ *  limit does), is restarted, and its unfinished job is put back at the
+ *  front of its batch.  A worker that fails Defaults.WORKER_RESTARTS
+ *  times in a row without finishing a game is given up, and its jobs are
+ *  left to the others.  The records are returned in the order of their
+ *  jobs, whichever worker played them.
+ *  @author Alan Ponte
+ */
+class Coordinator {
+
+    /** Message types sent to workers. */
+    static final int QUIT = 0, JOB = 1;
+
+    /** A coordinator of WORKERS worker processes, each started with the
+     *  command and arguments COMMAND. */
+    Coordinator(int workers, List<String> command) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("no workers");
+        }
+        _workers = workers;
+        _command = new ArrayList<>(command);
+    }
+
+    /** Returns the command that starts a worker on this machine playing
+     *  games on N x N boards searched to depth DEPTH, which exits after
+     *  GAMES games if GAMES is positive.  The worker runs on the same
+     *  Java runtime and class path as this program. */
+    static List<String> command(int N, int depth, int games) {
+        File java = new File(new File(System.getProperty("java.home"),
+                                      "bin"), "java");
+        List<String> result = new ArrayList<>();
+        result.add(java.getPath());
+        result.add("-cp");
+        result.add(System.getProperty("java.class.path"));
+        result.add(Main.class.getName());
+        result.add("--worker");
+        result.add(Integer.toString(N));
+        result.add(Integer.toString(depth));
+        if (games > 0) {
+            result.add(Integer.toString(games));
+        }
+        return result;
+    }
+
+    /** Play one game for each of SEEDS in my workers, and return their
+     *  records in the same order.  Throws GameException if some game
+     *  could not be played. */
+    List<GameRecord> play(long[] seeds) {
+        int workers = Math.min(_workers, Math.max(1, seeds.length));
+        _results = new GameRecord[seeds.length];
+        _seeds = seeds;
+        _queues = new ArrayList<>();
+        _busy = 0;
+        _alive = workers;
+        _restarts = _steals = 0;
+        for (int w = 0; w < workers; w += 1) {
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            for (int j = (int) ((long) w * seeds.length / workers);
+                 j < (long) (w + 1) * seeds.length / workers; j += 1) {
+                queue.add(j);
+            }
+            _queues.add(queue);
+        }
+        Thread[] handlers = new Thread[workers];
+        for (int w = 0; w < workers; w += 1) {
+            final int worker = w;
+            handlers[w] = new Thread(() -> handle(worker),
+                                     "jump61 worker " + w);
+            handlers[w].start();
+        }
+        try {
+            for (Thread handler : handlers) {
+                handler.join();
+            }
+        } catch (InterruptedException excp) {
+            for (Thread handler : handlers) {
+                handler.interrupt();
+            }
+            throw error("self-play interrupted");
+        }
+        for (int j = 0; j < _results.length; j += 1) {
+            if (_results[j] == null) {
+                throw error("all workers failed; game %d not played", j);
+            }
+        }
+        return Arrays.asList(_results);
+    }
+
+    /** Returns the number of times a worker was restarted during the last
+     *  play. */
+    synchronized int restarts() {
+        return _restarts;
+    }
+
+    /** Returns the number of jobs taken from another worker's batch
+     *  during the last play. */
+    synchronized int steals() {
+        return _steals;
+    }
+
+    /** Run worker WORKER's process, feeding it jobs until there are none
+     *  left, and restarting it when it fails. */
+    private void handle(int worker) {
+        int failures = 0;
+        while (true) {
+            Process process;
+            try {
+                process = start();
+            } catch (IOException excp) {
+                process = null;
+            }
+            int job = -1;
+            if (process != null) {
+                try (DataOutputStream out = new DataOutputStream(
+                         new BufferedOutputStream(process.getOutputStream()));
+                     DataInputStream in = new DataInputStream(
+                         new BufferedInputStream(process.getInputStream()))) {
+                    while ((job = nextJob(worker)) >= 0) {
+                        out.writeByte(JOB);
+                        out.writeInt(job);
+                        out.writeLong(_seeds[job]);
+                        out.flush();
+                        if (in.readInt() != job) {
+                            throw error("worker answered the wrong job");
+                        }
+                        finish(job, GameRecord.read(in));
+                        job = -1;
+                        failures = 0;
+                    }
+                    out.writeByte(QUIT);
+                    out.flush();
+                    process.waitFor();
+                    return;
+                } catch (IOException | RuntimeException excp) {
+                    process.destroyForcibly();
+                } catch (InterruptedException excp) {
+                    process.destroyForcibly();
+                    return;
+                }
+            }
+            failures += 1;
+            if (!fail(worker, job, failures)) {
+                return;
+            }
+        }
+    }
+
+    /** Returns a new worker process. */
+    private Process start() throws IOException {
+        return new ProcessBuilder(_command)
+            .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    }
+
+    /** Returns the next job for WORKER, or -1 if there are no more.  Waits
+     *  while there are no jobs queued but some are being played, since a
+     *  failed worker may put its job back. */
+    private synchronized int nextJob(int worker) throws InterruptedException {
+        while (true) {
+            ArrayDeque<Integer> own = _queues.get(worker);
+            if (!own.isEmpty()) {
+                _busy += 1;
+                return own.removeFirst();
+            }
+            ArrayDeque<Integer> longest = own;
+            for (ArrayDeque<Integer> queue : _queues) {
+                if (queue.size() > longest.size()) {
+                    longest = queue;
+                }
+            }
+            if (!longest.isEmpty()) {
+                _busy += 1;
+                _steals += 1;
+                return longest.removeLast();
+            }
+            if (_busy == 0) {
+                return -1;
+            }
+            wait();
+        }
+    }
+
+    /** Record RECORD as the result of JOB. */
+    private synchronized void finish(int job, GameRecord record) {
+        if (record.seed() != _seeds[job]) {
+            throw error("worker played the wrong game");
+        }
+        _results[job] = record;
+        _busy -= 1;
+        notifyAll();
+    }
+
+    /** Note that WORKER has failed FAILURES times in a row, while playing
+     *  JOB if JOB is not negative.  Puts JOB back at the front of
+     *  WORKER's batch (or, if WORKER is given up, of another live
+     *  worker's).  Returns true iff WORKER should be restarted. */
+    private synchronized boolean fail(int worker, int job, int failures) {
+        boolean restart = failures < Defaults.WORKER_RESTARTS;
+        if (restart) {
+            _restarts += 1;
+        } else {
+            _alive -= 1;
+        }
+        if (job >= 0) {
+            _busy -= 1;
+            if (restart || _alive > 0) {
+                _queues.get(worker).addFirst(job);
+            }
+        }
+        if (!restart && _alive == 0) {
+            for (ArrayDeque<Integer> queue : _queues) {
+                queue.clear();
+            }
+        }
+        notifyAll();
+        return restart;
+    }
+
+    /** Number of worker processes. */
+    private final int _workers;
+    /** Command that starts a worker. */
+    private final List<String> _command;
+    /** Seeds of the games being played. */
+    private long[] _seeds;
+    /** Records of the games played, indexed by job. */
+    private GameRecord[] _results;
+    /** The jobs queued for each worker. */
+    private ArrayList<ArrayDeque<Integer>> _queues;
+    /** Number of jobs being played. */
+    private int _busy;
+    /** Number of workers not given up. */
+    private int _alive;
+    /** Restarts during the last play. */
+    private int _restarts;
+    /** Jobs stolen during the last play. */
+    private int _steals;
+
+}
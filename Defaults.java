@@ -20,6 +20,93 @@ class Defaults {
     /** The default depth of the game tree.*/
     static final int DEPTH = 4;
 
+    /** True iff the A.I. extends its search with a quiescence search over
+     *  explosive moves.  With a budget for each horizon node (see
+     *  QUIESCENCE_NODES), the A.I. with it won 17 of 20 games on 5x5 and
+     *  16 of 20 on 6x6 against the A.I. without it (Benchmark
+     *  quiescence). */
+    static final boolean QUIESCENCE = true;
+
+    /** Most quiescence search nodes the A.I. visits below each node at
+     *  the horizon of its full-width search. */
+    static final int QUIESCENCE_NODES = 64;
+
+    /** True iff the A.I. prunes with verified null moves. */
+    static final boolean NULL_MOVE = false;
+
+    /** Least depth at which the A.I. tries a null move. */
+    static final int NULL_MOVE_DEPTH = 3;
+
+    /** Plies by which a null move and its verification are searched less
+     *  deeply than the node tried. */
+    static final int NULL_MOVE_REDUCTION = 2;
+
+    /** True iff the A.I. searches quiet moves late in the move order less
+     *  deeply. */
+    static final boolean REDUCTIONS = false;
+
+    /** Least depth at which the A.I. reduces late moves. */
+    static final int REDUCTION_DEPTH = 3;
+
+    /** Number of moves the A.I. searches at full depth at each node before
+     *  reducing quiet ones. */
+    static final int REDUCTION_MOVES = 3;
+
+    /** Half-width of the aspiration window the A.I. searches around the
+     *  value of its previous, shallower search, in units of a lead of
+     *  one square. */
+    static final int ASPIRATION_WINDOW = 2;
+
+    /** The A.I.'s transposition table has 2**TABLE_BITS entries. */
+    static final int TABLE_BITS = 18;
+
+    /** The endgame solver's table (see ProofSearch) has
+     *  2**SOLVER_TABLE_BITS entries. */
+    static final int SOLVER_TABLE_BITS = 18;
+
+    /** The A.I. tries to solve positions in which at least this percentage
+     *  of the squares are owned. */
+    static final int SOLVER_OWNED = 75;
+
+    /** Most of its own moves within which the A.I. looks for a forced
+     *  win, and the default for the solve command. */
+    static final int SOLVER_MOVES = 4;
+
+    /** Most positions the endgame solver visits per A.I. move. */
+    static final int SOLVER_NODES = 5000;
+
+    /** Number of moves a BeamSearch searches at each node in its first
+     *  iteration. */
+    static final int BEAM_WIDTH = 8;
+
+    /** Most moves a BeamSearch searches at each node, which it chooses
+     *  from the best-scoring moves at the root. */
+    static final int BEAM_POOL = 64;
+
+    /** Deepest a BeamSearch searches. */
+    static final int BEAM_DEPTH = 8;
+
+    /** Default time in milliseconds an A.I. using a BeamSearch takes to
+     *  choose a move. */
+    static final long BEAM_MILLIS = 1000;
+
+    /** Default for the most positions visited by the solve command. */
+    static final long SOLVE_NODES = 1000000;
+
+    /** The default number of best moves reported for each position by
+     *  batch analysis. */
+    static final int ANALYSIS_MOVES = 3;
+
+    /** Initial number of moves between a board's history checkpoints. */
+    static final int HISTORY_INTERVAL = 16;
+
+    /** Most history checkpoints a board keeps; must be even. */
+    static final int HISTORY_CHECKPOINTS = 64;
+
+    /** Number of positions a board keeps for fast undo; should exceed
+     *  the depth of the A.I.'s searches. */
+    static final int UNDO_CACHE = 64;
+
     /** The default number of players in the game.*/
     static final int NUMPLAYERS = 2;
 
@@ -28,4 +115,68 @@ class Defaults {
 
     /** Every suare is initialiazed with 0 spots.*/
     static final int INIT_SPOTS = 0;
+
+    /** Boards at least this many squares on a side resolve cascades
+     *  breadth first with CascadeResolver instead of depth first.  Waves
+     *  do more bookkeeping per jump than depth-first jumping, and gain
+     *  only by running on several processors, so on a machine with one
+     *  processor they are not used. */
+    static final int WAVE_CASCADE_SIZE =
+        Runtime.getRuntime().availableProcessors() > 1 ? 64
+        : Integer.MAX_VALUE;
+
+    /** Smallest wave of jumping squares that CascadeResolver splits
+     *  across threads; smaller waves are resolved on the calling thread. */
+    static final int WAVE_PARALLEL_GRAIN = 1024;
+
+    /** Pixels on a side of the board drawn by the GUI (approximately). */
+    static final int GUI_BOARD_PIXELS = 720;
+
+    /** Most frames in the GUI's animation of a move that are shown at
+     *  full length; a longer animation is sped up to take as long. */
+    static final int GUI_FRAMES = 8;
+
+    /** Milliseconds between frames of the GUI's animation of a move. */
+    static final int GUI_FRAME_MILLIS = 40;
+
+    /** Number of frames between keyframes sent to spectators. */
+    static final int SPECTATOR_KEYFRAME = 64;
+
+    /** Default number of frames a spectator's queue holds. */
+    static final int SPECTATOR_QUEUE = 256;
+
+    /** Most times a spectator may fall behind before it is dropped. */
+    static final int SPECTATOR_RESYNCS = 8;
+
+    /** File of evaluation weights (see Weights) that the A.I. loads, if
+     *  it exists, from the current directory. */
+    static final String WEIGHTS_FILE = "jump61.weights";
+
+    /** Number of self-play games the tuner plays by default. */
+    static final int TUNER_GAMES = 200;
+
+    /** Search depth of the tuner's self-play games. */
+    static final int TUNER_DEPTH = 2;
+
+    /** Number of gradient-descent steps the tuner takes. */
+    static final int TUNER_STEPS = 500;
+
+    /** Most times in a row a self-play worker process is restarted
+     *  without finishing a game before the coordinator gives it up. */
+    static final int WORKER_RESTARTS = 3;
+
+    /** Log base 2 of the number of slots in a new PositionStore index. */
+    static final int STORE_INDEX_BITS = 16;
+
+    /** Most percent of the slots of a PositionStore index that are used
+     *  before it doubles. */
+    static final int STORE_LOAD = 70;
+
+    /** Most updates a PositionStore holds before writing them as a
+     *  batch. */
+    static final int STORE_BATCH = 1 << 16;
+
+    /** Size in characters of the buffers of scripts run in batch and of
+     *  their output. */
+    static final int BATCH_BUFFER = 1 << 16;
 }
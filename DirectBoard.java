@@ -0,0 +1,282 @@
+package jump61;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static jump61.GameException.error;
+
+/** A Jump61 board whose squares are kept outside the Java heap, one int
+ *  per square, so that boards with millions of squares cost no objects
+ *  and no garbage collection.  The storage is either a direct buffer or
+ *  a memory-mapped file, which can be closed and later reopened
+ *  instantly with all its contents.
+ *
+ *  The storage consists of a header of HEADER_SIZE bytes (a magic number,
+ *  the board size, and the number of moves) followed by the squares in
+ *  square-number order, each a packed cell as made by Board.cell.
+ *
+ *  A DirectBoard keeps no undo history.  Once closed, it may not be used
+ *  again; every operation then throws IllegalStateException.
+ *  @author Alan Ponte
+ */
+class DirectBoard extends Board implements Closeable {
+
+    /** An N x N board in initial configuration, held in a direct
+     *  buffer. */
+    DirectBoard(int N) {
+        _cells = ByteBuffer.allocateDirect((int) byteSize(N));
+        _N = N;
+        format(_cells, N);
+    }
+
+    /** A board that stores its contents in BUFFER, which holds a board
+     *  in the format described above. */
+    private DirectBoard(ByteBuffer buffer) {
+        _cells = buffer;
+        if (_cells.getInt(MAGIC_POS) != MAGIC) {
+            throw new IllegalArgumentException("not a saved Jump61 board");
+        }
+        _N = _cells.getInt(SIZE_POS);
+    }
+
+    /** Returns a new N x N board in initial configuration, stored in
+     *  FILE, which is created or overwritten. */
+    static DirectBoard create(Path file, int N) throws IOException {
+        try (FileChannel chan = FileChannel.open(file, CREATE, READ, WRITE)) {
+            chan.truncate(0);
+            MappedByteBuffer buf =
+                chan.map(FileChannel.MapMode.READ_WRITE, 0, byteSize(N));
+            format(buf, N);
+            return new DirectBoard(buf);
+        }
+    }
+
+    /** Returns the board previously stored in FILE by create, with the
+     *  contents it had when last closed or flushed.  Throws GameException
+     *  if FILE is too short to hold the board its header describes. */
+    static DirectBoard open(Path file) throws IOException {
+        try (FileChannel chan = FileChannel.open(file, READ, WRITE)) {
+            long size = chan.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw error("not a saved Jump61 board: %s", file);
+            }
+            MappedByteBuffer buf =
+                chan.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            int N = buf.getInt(SIZE_POS);
+            if (buf.getInt(MAGIC_POS) != MAGIC || N < 1) {
+                throw error("not a saved Jump61 board: %s", file);
+            }
+            if (size < HEADER_SIZE + 4L * N * N) {
+                throw error("saved board is truncated: %s", file);
+            }
+            return new DirectBoard(buf);
+        }
+    }
+
+    /** Returns the number of bytes needed to hold an N x N board. */
+    private static long byteSize(int N) {
+        long result = HEADER_SIZE + 4L * N * N;
+        if (result > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("board too large");
+        }
+        return result;
+    }
+
+    /** Write the header and cleared squares of an N x N board to BUF. */
+    private static void format(ByteBuffer buf, int N) {
+        buf.putInt(MAGIC_POS, MAGIC);
+        buf.putInt(SIZE_POS, N);
+        buf.putInt(MOVES_POS, 0);
+        for (int n = 0; n < N * N; n += 1) {
+            buf.putInt(HEADER_SIZE + 4 * n,
+                       cell(Defaults.INIT_SPOTS, Defaults.BLANK_COLOR));
+        }
+    }
+
+    /** Write any changes to a mapped board to its file. */
+    void flush() {
+        checkOpen();
+        if (_cells instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) _cells).force();
+        }
+    }
+
+    /** Flush and release my storage.  I may not be used afterwards.  Java
+     *  offers no way to free a direct buffer or unmap a file on demand:
+     *  the memory and the mapping are released when the garbage collector
+     *  reclaims my buffer, which this makes possible by dropping my
+     *  reference to it.  Until then, the file stays mapped (on some
+     *  systems, it cannot be deleted), but its contents are up to date,
+     *  and it may be opened again at once. */
+    @Override
+    public void close() {
+        if (_cells != null) {
+            flush();
+            _cells = null;
+            _resolver = null;
+        }
+    }
+
+    /** Returns my topology, the standard grid, which is compiled on first
+     *  use. */
+    @Override
+    Topology topology() {
+        if (_topology == null || _topology.size() != _N) {
+            _topology = Topology.grid(_N);
+        }
+        return _topology;
+    }
+
+    /** Returns true iff I have been closed. */
+    boolean isClosed() {
+        return _cells == null;
+    }
+
+    /** Clears me to an empty N x N board.  A board stored in a file must
+     *  keep its size, and a closed board may not be cleared. */
+    @Override
+    void clear(int N) {
+        checkOpen();
+        if (_cells instanceof MappedByteBuffer) {
+            if (N != _N) {
+                throw new IllegalArgumentException(
+                    "cannot resize a board stored in a file");
+            }
+        } else if (N != _N) {
+            _cells = ByteBuffer.allocateDirect((int) byteSize(N));
+        }
+        _N = N;
+        format(_cells, N);
+    }
+
+    @Override
+    void copy(Board board) {
+        checkOpen();
+        if (board.size() != _N) {
+            clear(board.size());
+        }
+        for (int n = 0; n < _N * _N; n += 1) {
+            put(n, board.spots(n), board.color(n));
+        }
+        _cells.putInt(MOVES_POS, board.numMoves());
+    }
+
+    @Override
+    int size() {
+        checkOpen();
+        return _N;
+    }
+
+    @Override
+    int spots(int r, int c) {
+        return spots(sqNum(r, c));
+    }
+
+    @Override
+    int spots(int n) {
+        return cellSpots(cellAt(n));
+    }
+
+    @Override
+    Color color(int r, int c) {
+        return color(sqNum(r, c));
+    }
+
+    @Override
+    Color color(int n) {
+        return cellColor(cellAt(n));
+    }
+
+    @Override
+    int numMoves() {
+        checkOpen();
+        return _cells.getInt(MOVES_POS);
+    }
+
+    @Override
+    int numOfColor(Color color) {
+        checkOpen();
+        int ord = color.ordinal();
+        int count = 0;
+        for (int n = 0; n < _N * _N; n += 1) {
+            if (cellColorOrdinal(_cells.getInt(HEADER_SIZE + 4 * n)) == ord) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    void addSpot(Color player, int r, int c) {
+        addSpot(player, sqNum(r, c));
+    }
+
+    @Override
+    void addSpot(Color player, int n) {
+        _cells.putInt(MOVES_POS, numMoves() + 1);
+        put(n, spots(n) + 1, player);
+        if (_resolver == null) {
+            _resolver = new CascadeResolver(this);
+        }
+        _resolver.resolve(player, n);
+    }
+
+    @Override
+    void set(int r, int c, int num, Color player) {
+        set(sqNum(r, c), num, player);
+    }
+
+    @Override
+    void set(int n, int num, Color player) {
+        put(n, num, num == 0 ? Defaults.BLANK_COLOR : player);
+    }
+
+    @Override
+    void put(int n, int num, Color player) {
+        checkOpen();
+        _cells.putInt(HEADER_SIZE + 4 * n, cell(num, player));
+    }
+
+    @Override
+    void setMoves(int num) {
+        checkOpen();
+        _cells.putInt(MOVES_POS, num);
+    }
+
+    /** Returns the stored contents of square #N. */
+    private int cellAt(int n) {
+        checkOpen();
+        return _cells.getInt(HEADER_SIZE + 4 * n);
+    }
+
+    /** Throw IllegalStateException if I have been closed. */
+    private void checkOpen() {
+        if (_cells == null) {
+            throw new IllegalStateException("board is closed");
+        }
+    }
+
+    /** Marks the start of a saved board ("J61B"). */
+    private static final int MAGIC = 0x4a363142;
+    /** Byte positions of the header fields. */
+    private static final int MAGIC_POS = 0, SIZE_POS = 4, MOVES_POS = 8;
+    /** Size of the header, in bytes. */
+    private static final int HEADER_SIZE = 16;
+
+    /** My storage, or null once I am closed. */
+    private ByteBuffer _cells;
+    /** Convenience variable: size of board (squares along one edge). */
+    private int _N;
+    /** My topology, if compiled. */
+    private Topology _topology;
+    /** Resolves the cascades that follow my moves (lazily created). */
+    private CascadeResolver _resolver;
+
+}
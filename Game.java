@@ -1,11 +1,14 @@
 package jump61;
 
+import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
 import java.io.PrintWriter;
-import java.util.Scanner;
+import java.nio.file.Paths;
 import java.util.Random;
 import java.util.Stack;
+import java.util.regex.Pattern;
 
 import static jump61.Color.*;
 import static jump61.GameException.error;
@@ -18,19 +21,32 @@ class Game {
     /** Name of resource containing help message. */
     private static final String HELP = "jump61/Help.txt";
 
+    /** A command that is a number, and so begins a move. */
+    private static final Pattern NUMBER = Pattern.compile("\\d+");
+
     /** A new Game that takes command/move input from INPUT, prints
      *  normal output on OUTPUT, prints prompts for input on PROMPTS,
      *  and prints error messages on ERROROUTPUT. The Game now "owns"
      *  INPUT, PROMPTS, OUTPUT, and ERROROUTPUT, and is responsible for
-     *  closing them when its play method returns. */
+     *  flushing them when its play method returns. */
     Game(Reader input, Writer prompts, Writer output, Writer errorOutput) {
+        this(input, prompts, output, errorOutput, false);
+    }
+
+    /** A new Game as for Game(INPUT, PROMPTS, OUTPUT, ERROROUTPUT) that,
+     *  if BATCH, runs INPUT as a script: it prints no prompts or welcome,
+     *  and flushes OUTPUT and ERROROUTPUT only on dump and when play
+     *  returns, rather than after every line. */
+    Game(Reader input, Writer prompts, Writer output, Writer errorOutput,
+         boolean batch) {
         _board = new MutableBoard(Defaults.BOARD_SIZE);
         _readonlyBoard = new ConstantBoard(_board);
-        _prompter = new PrintWriter(prompts, true);
-        _inp = new Scanner(input);
-        _inp.useDelimiter("(?m)$|^|\\p{Blank}");
-        _out = new PrintWriter(output, true);
-        _err = new PrintWriter(errorOutput, true);
+        _batch = batch;
+        _prompter = new PrintWriter(prompts, !batch);
+        _inp = input instanceof BufferedReader ? (BufferedReader) input
+            : new BufferedReader(input);
+        _out = new PrintWriter(output, !batch);
+        _err = new PrintWriter(errorOutput, !batch);
         _p1 = new HumanPlayer(this, RED);
         _p2 = new AI(this, BLUE);
         _prevMoves = new Stack<String>();
@@ -43,26 +59,49 @@ class Game {
         return _readonlyBoard;
     }
 
+    /** Returns an unchanging copy of the current position, which other
+     *  threads may read (and load into a SearchContext) while the game
+     *  goes on.  Takes constant time.  Must be called by the thread
+     *  playing the game. */
+    BoardSnapshot snapshot() {
+        return _board.snapshot();
+    }
+
+    /** Returns the channel on which the changes to my board are
+     *  broadcast to spectators, creating it on first use.  Must be called
+     *  by the thread playing the game. */
+    SpectatorChannel spectators() {
+        if (_spectators == null) {
+            _spectators = new SpectatorChannel(_board);
+        }
+        return _spectators;
+    }
+
     /** Play a session of Jump61.  This may include multiple games,
      *  and proceeds until the user exits.  Returns an exit code: 0 is
      *  normal; any positive quantity indicates an error.  */
     int play() {
-        _out.println("Welcome to " + Defaults.VERSION);
-        while (!_playing) {
-            promptForNext();
+        if (!_batch) {
+            _out.println("Welcome to " + Defaults.VERSION);
+        }
+        while (!_quit && promptForNext()) {
             readExecuteCommand();
         }
-        startGame();
+        _prompter.flush();
+        _err.flush();
         _out.flush();
-        System.exit(0);
         return 0;
     }
 
     /** Get a move from my input and place its row and column in
      *  MOVE.  Returns true if this is successful, false if game stops
-     *  or ends first. */
+     *  or ends first.  The game stops if my input ends. */
     boolean getMove(int[] move) {
-        while (_playing && _move[0] == 0 && promptForNext()) {
+        while (_playing && _move[0] == 0) {
+            if (!promptForNext()) {
+                _playing = false;
+                break;
+            }
             readExecuteCommand();
         }
         if (_move[0] > 0) {
@@ -115,16 +154,41 @@ class Game {
         _out.printf("%s wins.\n", getBoard().getWinner().toCapitalizedString());
     }
 
-    /** Make player #PLAYER (1 or 2) an AI for subsequent moves. */
-    private void setAuto(String player) {
+    /** Make player #PLAYER (1 or 2) an AI for subsequent moves, which
+     *  chooses its moves by a beam search taking about BEAMMILLIS
+     *  milliseconds if BEAMMILLIS is positive (see AI.setBeam). */
+    private void setAuto(String player, long beamMillis) {
+        AI ai;
         if (!player.matches("[Rr][Ee][Dd]")
                 && !player.matches("[Bb][Ll][Uu][Ee]")) {
             throw error("Player number must be either red or blue");
         } else if (player.matches("[Rr][Ee][Dd]")) {
-            _p1 = new AI(this, _p1.getColor());
+            ai = new AI(this, _p1.getColor());
+            _p1 = ai;
         } else {
-            _p2 = new AI(this, _p2.getColor());
+            ai = new AI(this, _p2.getColor());
+            _p2 = ai;
         }
+        ai.setBeam(beamMillis);
+    }
+
+    /** Returns the beam search time limit given by the arguments ARGS of
+     *  an auto command: 0 if there is no "beam" argument, and otherwise
+     *  the number of milliseconds following it, or
+     *  Defaults.BEAM_MILLIS. */
+    private long beamMillis(String[] args) {
+        if (args.length <= 2) {
+            return 0;
+        } else if (!args[2].equals("beam")) {
+            throw error("unknown player option: '%s'", args[2]);
+        } else if (args.length <= 3) {
+            return Defaults.BEAM_MILLIS;
+        }
+        long millis = Long.parseLong(args[3]);
+        if (millis <= 0) {
+            throw error("beam time must be positive");
+        }
+        return millis;
     }
 
     /** Make player #PLAYER (1 or 2) take manual input from the user
@@ -156,6 +220,10 @@ class Game {
     /** Print the current board using standard board-dump format. */
     private void dump() {
         _out.println(_board);
+        if (_batch) {
+            _err.flush();
+            _out.flush();
+        }
     }
 
     /** Print a help message. */
@@ -169,6 +237,98 @@ class Game {
         _board.setMoves(n);
     }
 
+    /** Stop any current game and take back the last move. */
+    private void undo() {
+        _playing = false;
+        if (_board.numMoves() <= _board.firstMove()) {
+            throw error("no move to undo");
+        }
+        _board.undo();
+    }
+
+    /** Stop any current game and make again the last move taken back. */
+    private void redo() {
+        _playing = false;
+        if (_board.numMoves() >= _board.lastMove()) {
+            throw error("no move to redo");
+        }
+        _board.redo();
+    }
+
+    /** Stop any current game and go to the position after move N. */
+    private void seek(int n) {
+        _playing = false;
+        if (n < _board.firstMove() || n > _board.lastMove()) {
+            throw error("no position after move %d: history holds moves "
+                        + "%d to %d", n, _board.firstMove(),
+                        _board.lastMove());
+        }
+        _board.seek(n);
+    }
+
+    /** Report whether the player to move can force a win within MOVES of
+     *  its moves, looking at no more than NODES positions, with the
+     *  winning line if so, and the work taken.  The game's board is
+     *  unchanged. */
+    void solve(int moves, long nodes) {
+        if (moves < 1 || nodes < 1) {
+            throw error("the numbers of moves and positions must be"
+                        + " positive");
+        }
+        if (_solver == null) {
+            _solver = new ProofSearch(new MutableBoard(_board.size()));
+        }
+        MutableBoard position = _solver.getBoard();
+        position.copy(snapshot());
+        Color p = position.whoseMove();
+        String player = p.toCapitalizedString();
+        switch (_solver.solve(p, moves, nodes)) {
+        case ProofSearch.PROVEN:
+            _out.printf("%s wins within %d move%s:", player, moves,
+                        moves == 1 ? "" : "s");
+            for (int k = 0; k < _solver.lineLength(); k += 1) {
+                int n = _solver.line()[k];
+                _out.printf("%s %d %d", k == 0 ? "" : ",",
+                            position.row(n), position.col(n));
+            }
+            _out.println(".");
+            break;
+        case ProofSearch.DISPROVEN:
+            _out.printf("%s cannot force a win within %d move%s.%n",
+                        player, moves, moves == 1 ? "" : "s");
+            break;
+        default:
+            _out.printf("Unknown whether %s can force a win within %d"
+                        + " move%s.%n", player, moves, moves == 1 ? "" : "s");
+            break;
+        }
+        _out.printf("(%d positions, %.1f ms)%n", _solver.nodes(),
+                    _solver.nanos() / 1e6);
+    }
+
+    /** Returns the position database whose moves the A.I. plays when it
+     *  has them, or null if there is none. */
+    PositionStore book() {
+        return _book;
+    }
+
+    /** Make the A.I. play moves from the position database whose log is
+     *  the file named NAME, or from none if NAME is null. */
+    private void setBook(String name) {
+        try {
+            if (_book != null) {
+                _book.close();
+                _book = null;
+            }
+            if (name != null) {
+                _book = new PositionStore(Paths.get(name));
+                _out.printf("%d positions in book.%n", _book.size());
+            }
+        } catch (IOException excp) {
+            throw error("cannot use book: %s", excp.getMessage());
+        }
+    }
+
     /** Seed the random-number generator with SEED. */
     private void setSeed(long seed) {
         _random.setSeed(seed);
@@ -196,6 +356,55 @@ class Game {
         _board.clear(n);
     }
 
+    /** Stop any current game and make the board the position in TEXT,
+     *  in either of the formats of PositionFormat, keeping the board's
+     *  topology, in one step; then make every over-full square jump (see
+     *  MutableBoard.stabilize).  Clears the undo history once.  Throws
+     *  GameException if TEXT is not a single well-formed position. */
+    void loadPosition(String text) {
+        MutableBoard position = PositionFormat.parse(text);
+        int N = position.size();
+        int[] cells = new int[N * N];
+        for (int n = 0; n < N * N; n += 1) {
+            cells[n] = Board.cell(position.spots(n), position.color(n));
+        }
+        _playing = false;
+        _board.load(N, cells, position.numMoves());
+        _board.stabilize();
+    }
+
+    /** Returns the text of a load command whose arguments are ARGS: the
+     *  rest of its line, if not empty, and otherwise the dump that follows
+     *  it on my input, from "===" to "===". */
+    private String loadText(String[] args) {
+        if (args.length > 1) {
+            return String.join(" ", args).substring(args[0].length());
+        }
+        StringBuilder text = new StringBuilder();
+        boolean started = false;
+        while (hasNextLine()) {
+            String line = nextLine();
+            text.append(line).append('\n');
+            if (line.trim().equals("===")) {
+                if (started) {
+                    break;
+                }
+                started = true;
+            } else if (!started && !line.trim().isEmpty()) {
+                throw error("load: expected a board dump");
+            }
+        }
+        return text.toString();
+    }
+
+    /** Stop any current game and clear the board to an empty one of the
+     *  same size and of topology NAME (grid, torus, or hex). */
+    private void setTopology(String name) {
+        Topology topology = Topology.parse(name, _board.size());
+        _playing = false;
+        _board.clear(topology);
+    }
+
     /** Begin accepting moves for game.  If the game is won,
      *  immediately print a win message and end the game. */
     private void startGame() {
@@ -225,7 +434,29 @@ class Game {
     /** Read and execute one command.  Leave the input at the start of
      *  a line, if there is more input. */
     private void readExecuteCommand() {
-        executeCommand(_inp.nextLine());
+        executeCommand(nextLine());
+    }
+
+    /** Returns true iff there is another line on my input. */
+    private boolean hasNextLine() {
+        if (_nextLine == null && !_ended) {
+            try {
+                _nextLine = _inp.readLine();
+            } catch (IOException excp) {
+                _err.println(excp.getMessage());
+            }
+            _ended = _nextLine == null;
+        }
+        return _nextLine != null;
+    }
+
+    /** Returns the next line on my input, without its line terminator.
+     *  Requires that hasNextLine(). */
+    private String nextLine() {
+        hasNextLine();
+        String line = _nextLine;
+        _nextLine = null;
+        return line;
     }
 
     /**Prints all previous moves made.*/
@@ -236,11 +467,8 @@ class Game {
 
     /** Quits the current game.*/
     private void quit() {
-        _out.flush();
-        _out.close();
-        _err.flush();
-        _out.close();
-        System.exit(0);
+        _playing = false;
+        _quit = true;
     }
 
     /** Prints an error message with the invalid arguments
@@ -254,7 +482,7 @@ class Game {
     /** Saves the move from the command CMD
      *  and argument ARG.*/
     private void save(String cmd, int arg) {
-        if (cmd.matches("\\d+") && _playing) {
+        if (NUMBER.matcher(cmd).matches() && _playing) {
             saveMove(Integer.parseInt(cmd), arg);
         }
     }
@@ -266,7 +494,7 @@ class Game {
         String[] args = input.trim().split(" ");
         String cmnd = args[0];
         try {
-            if (cmnd.matches("\\d+") && _playing) {
+            if (NUMBER.matcher(cmnd).matches() && _playing) {
                 saveMove(Integer.parseInt(cmnd), Integer.parseInt(args[1]));
                 return;
             }
@@ -288,7 +516,7 @@ class Game {
                 quit();
                 break;
             case "auto":
-                setAuto(args[1]);
+                setAuto(args[1], beamMillis(args));
                 break;
             case "manual":
                 setManual(args[1]);
@@ -296,6 +524,16 @@ class Game {
             case "size":
                 setSize(Integer.parseInt(args[1]));
                 break;
+            case "load":
+                loadPosition(loadText(args));
+                break;
+            case "stabilize":
+                _playing = false;
+                _board.stabilize();
+                break;
+            case "topology":
+                setTopology(args[1]);
+                break;
             case "move":
                 setMoveNumber(Integer.parseInt(args[1]));
                 break;
@@ -306,9 +544,27 @@ class Game {
             case "dump":
                 dump();
                 break;
+            case "undo":
+                undo();
+                break;
+            case "redo":
+                redo();
+                break;
+            case "seek":
+                seek(Integer.parseInt(args[1]));
+                break;
+            case "solve":
+                solve(args.length > 1 ? Integer.parseInt(args[1])
+                      : Defaults.SOLVER_MOVES,
+                      args.length > 2 ? Long.parseLong(args[2])
+                      : Defaults.SOLVE_NODES);
+                break;
             case "seed":
                 setSeed(Integer.parseInt(args[1]));
                 break;
+            case "book":
+                setBook(args.length > 1 ? args[1] : null);
+                break;
             default:
                 throw error("bad command: '%s'", cmnd);
             }
@@ -321,18 +577,24 @@ class Game {
         }
     }
 
-    /** Print a prompt and wait for input. Returns true iff there is another
-     *  token.  If verbose is on, display the game board after every input. */
+    /** Print a prompt, unless running a script, and wait for input.
+     *  Returns true iff there is another line.  If verbose is on,
+     *  display the game board after every input. */
     private boolean promptForNext() {
+        if (_ended) {
+            return false;
+        }
         if (_playing) {
             if (_verbose) {
                 dump();
             }
-            _prompter.printf("%s>", _board.whoseMove());
-        } else {
+            if (!_batch) {
+                _prompter.printf("%s>", _board.whoseMove());
+            }
+        } else if (!_batch) {
             _prompter.printf(">");
         }
-        return true;
+        return hasNextLine();
     }
 
     /** Send an error message to the user formed from arguments FORMAT
@@ -345,16 +607,31 @@ class Game {
 
     /** Writer on which to print prompts for input. */
     private final PrintWriter _prompter;
-    /** Scanner from current game input.  Initialized to return
-     *  newlines as tokens. */
-    private final Scanner _inp;
+    /** Reader of current game input, a line at a time. */
+    private final BufferedReader _inp;
+    /** The next line of _inp, if read ahead, or null. */
+    private String _nextLine;
+    /** True iff _inp has ended. */
+    private boolean _ended;
+    /** True iff running a script, without prompts or flushing after
+     *  each line. */
+    private final boolean _batch;
+    /** True iff the quit command has been given. */
+    private boolean _quit;
     /** Outlet for responses to the user. */
     private final PrintWriter _out;
     /** Outlet for error responses to the user. */
     private final PrintWriter _err;
 
     /** The board on which I record all moves. */
-    protected final Board _board;
+    protected final MutableBoard _board;
+    /** Broadcasts the changes to _board, or null if not yet needed. */
+    private SpectatorChannel _spectators;
+    /** The endgame solver used by the solve command, over a board of
+     *  its own, or null if not yet needed. */
+    private ProofSearch _solver;
+    /** The position database the A.I. takes moves from, or null. */
+    private PositionStore _book;
     /** A readonly view of _board. */
     private final Board _readonlyBoard;
     /** The first player in THIS game. */
@@ -0,0 +1,233 @@
+package jump61;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static jump61.GameException.error;
+
+/** The record of one game played from an empty board: the board's shape,
+ *  the random seed the game was played from, how many of its first moves
+ *  were random rather than chosen by the A.I., the moves, the winner
+ *  (WHITE if the game was abandoned), and the work the A.I. did.  The
+ *  moves suffice to replay the game, so records are what self-play
+ *  workers send back to the coordinator (see Coordinator), which turns
+ *  them into whatever it needs.
+ *
+ *  In binary form, a record is the int MAGIC; a version byte; the
+ *  ordinal of the topology kind, as a byte; the board size, as a varint;
+ *  the seed, as a long; the numbers of random moves and of moves, as
+ *  varints; each move's square number, as a varint; the ordinal of the
+ *  winner, as a byte; and the nodes searched and the time taken in
+ *  nanoseconds, as longs.  Varints are unsigned, seven bits to a byte,
+ *  low-order bits first, with the high bit of each byte but the last
+ *  set (as in SpectatorChannel).
+ *  @author Alan Ponte
+ */
+class GameRecord {
+
+    /** The first four bytes of every record: "J61R". */
+    static final int MAGIC = 0x4a363152;
+
+    /** The version of the binary form written. */
+    static final byte VERSION = 1;
+
+    /** The largest size of board a record read may describe. */
+    static final int MAX_SIZE = 1024;
+
+    /** The most moves per square a record read may hold.  Tuner abandons
+     *  its games at this length. */
+    static final int MAX_MOVES_PER_SQUARE = 8;
+
+    /** A record of a game on a board of shape TOPOLOGY played from random
+     *  seed SEED, whose first OPENING moves were random, and whose moves
+     *  were the first COUNT of MOVES, won by WINNER (WHITE if abandoned),
+     *  in which the A.I. searched NODES nodes in NANOS nanoseconds. */
+    GameRecord(Topology topology, long seed, int opening, int[] moves,
+               int count, Color winner, long nodes, long nanos) {
+        if (topology.kind() == Topology.Kind.GRAPH) {
+            throw new IllegalArgumentException("graphs cannot be recorded");
+        }
+        _topology = topology;
+        _seed = seed;
+        _opening = opening;
+        _moves = Arrays.copyOf(moves, count);
+        _winner = winner;
+        _nodes = nodes;
+        _nanos = nanos;
+    }
+
+    /** Returns the shape of the board played on. */
+    Topology topology() {
+        return _topology;
+    }
+
+    /** Returns the random seed the game was played from. */
+    long seed() {
+        return _seed;
+    }
+
+    /** Returns the number of random moves that began the game. */
+    int opening() {
+        return _opening;
+    }
+
+    /** Returns the number of moves. */
+    int numMoves() {
+        return _moves.length;
+    }
+
+    /** Returns the square of move K, numbered from 0. */
+    int move(int k) {
+        return _moves[k];
+    }
+
+    /** Returns the winner, or WHITE if the game was abandoned. */
+    Color winner() {
+        return _winner;
+    }
+
+    /** Returns the number of nodes the A.I. searched. */
+    long nodes() {
+        return _nodes;
+    }
+
+    /** Returns the time in nanoseconds the game took. */
+    long nanos() {
+        return _nanos;
+    }
+
+    /** Returns a new board holding the position after the first K
+     *  moves. */
+    MutableBoard replay(int k) {
+        MutableBoard board = new MutableBoard(_topology.size());
+        board.clear(_topology);
+        for (int i = 0; i < k; i += 1) {
+            board.addSpot(board.whoseMove(), _moves[i]);
+        }
+        return board;
+    }
+
+    /** Write my binary form to OUT. */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(_topology.kind().ordinal());
+        writeVarint(out, _topology.size());
+        out.writeLong(_seed);
+        writeVarint(out, _opening);
+        writeVarint(out, _moves.length);
+        for (int move : _moves) {
+            writeVarint(out, move);
+        }
+        out.writeByte(_winner.ordinal());
+        out.writeLong(_nodes);
+        out.writeLong(_nanos);
+    }
+
+    /** Returns the record whose binary form is next on IN.  Throws
+     *  GameException if it is malformed. */
+    static GameRecord read(DataInput in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw error("not a game record");
+        }
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw error("unknown game record version: %d", version);
+        }
+        int kind = in.readByte();
+        int N = readVarint(in);
+        if (kind < 0 || kind >= Topology.Kind.GRAPH.ordinal() || N < 1
+            || N > MAX_SIZE) {
+            throw error("bad board in game record");
+        }
+        Topology topology = Topology.of(Topology.Kind.values()[kind], N);
+        long seed = in.readLong();
+        int opening = readVarint(in);
+        int count = readVarint(in);
+        if (count > MAX_MOVES_PER_SQUARE * N * N + 1 || opening > count) {
+            throw error("bad length of game record");
+        }
+        int[] moves = new int[count];
+        for (int i = 0; i < count; i += 1) {
+            moves[i] = readVarint(in);
+            if (moves[i] < 0 || moves[i] >= N * N) {
+                throw error("bad move in game record");
+            }
+        }
+        int winner = in.readByte();
+        if (winner < 0 || winner >= COLORS.length) {
+            throw error("bad winner in game record");
+        }
+        long nodes = in.readLong();
+        long nanos = in.readLong();
+        return new GameRecord(topology, seed, opening, moves, count,
+                              COLORS[winner], nodes, nanos);
+    }
+
+    /** Write X, which must not be negative, to OUT as a varint. */
+    private static void writeVarint(DataOutput out, int x)
+        throws IOException {
+        while ((x & ~0x7f) != 0) {
+            out.writeByte((x & 0x7f) | 0x80);
+            x >>>= 7;
+        }
+        out.writeByte(x);
+    }
+
+    /** Returns the varint next on IN, which is never negative.  Throws
+     *  GameException if it is too long or does not fit in an int. */
+    private static int readVarint(DataInput in) throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readByte();
+            if (shift == 28 && (b & 0xf8) != 0) {
+                break;
+            }
+            result |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw error("bad number in game record");
+    }
+
+    /** Returns true iff OBJ records the same game as I do, however much
+     *  work it took. */
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof GameRecord)) {
+            return false;
+        }
+        GameRecord other = (GameRecord) obj;
+        return _topology.equals(other._topology) && _seed == other._seed
+            && _opening == other._opening
+            && Arrays.equals(_moves, other._moves)
+            && _winner == other._winner;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(_seed) * 31 + Arrays.hashCode(_moves);
+    }
+
+    /** The colors, indexed by ordinal. */
+    private static final Color[] COLORS = Color.values();
+
+    /** The shape of the board. */
+    private final Topology _topology;
+    /** The random seed of the game. */
+    private final long _seed;
+    /** Number of random moves at the start. */
+    private final int _opening;
+    /** The moves, as square numbers. */
+    private final int[] _moves;
+    /** The winner, or WHITE. */
+    private final Color _winner;
+    /** Nodes searched by the A.I. */
+    private final long _nodes;
+    /** Time taken. */
+    private final long _nanos;
+
+}
@@ -1,8 +1,26 @@
 package jump61;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -67,4 +85,542 @@ public class GameTest extends TestCase {
             + "    -- -- -- -- -- --\n"
             + "===");
     }
+
+    @Test
+    public void testSearchContexts() throws InterruptedException {
+        Writer output = Writer.nullWriter();
+        Game game = new Game(new StringReader(""), output, output, output);
+        game.makeMove(1, 1);
+        game.makeMove(2, 2);
+        game.makeMove(1, 2);
+        BoardSnapshot position = game.snapshot();
+        SearchContext[] contexts = new SearchContext[4];
+        int[] moves = new int[contexts.length];
+        Thread[] threads = new Thread[contexts.length];
+        for (int i = 0; i < contexts.length; i += 1) {
+            final int k = i;
+            contexts[k] = new SearchContext(position);
+            threads[k] = new Thread(() -> {
+                moves[k] = contexts[k].bestMove(Color.BLUE, 3);
+            });
+            threads[k].start();
+        }
+        game.makeMove(3, 3);
+        for (Thread t : threads) {
+            t.join();
+        }
+        for (int i = 0; i < contexts.length; i += 1) {
+            assertEquals(moves[0], moves[i]);
+            assertEquals(position, contexts[i].getBoard().snapshot());
+            assertEquals(1, contexts[i].searches());
+        }
+        assertEquals(4, game.getBoard().numMoves());
+        assertEquals(3, position.numMoves());
+    }
+
+    @Test
+    public void testDeepSearch() {
+        Search search = new Search(new MutableBoard(2));
+        int move = search.bestMove(Color.RED, 80);
+        assertTrue(search.getBoard().isLegal(Color.RED, move));
+        long total = 0;
+        for (int d = 1; d <= 80; d += 1) {
+            total += search.nodes(d);
+        }
+        assertEquals(search.nodes(), total);
+    }
+
+    @Test
+    public void testTableKeysIncludeShape() {
+        SearchContext context = new SearchContext(new MutableBoard(8));
+        context.bestMove(Color.RED, 2);
+        context.load(new MutableBoard(5));
+        assertEquals(0, context.principalVariation(Color.RED, 4));
+        int move = context.bestMove(Color.RED, 2);
+        assertTrue(move >= 0 && move < 25);
+    }
+
+    @Test
+    public void testWeights() throws IOException {
+        MutableBoard b = new MutableBoard(5);
+        b.addSpot(Color.RED, 0);
+        b.addSpot(Color.BLUE, 6);
+        b.addSpot(Color.RED, 0);
+        b.addSpot(Color.BLUE, 12);
+        b.addSpot(Color.RED, 24);
+        Weights standard = new Weights();
+        assertEquals(b.numOfColor(Color.RED) - b.numOfColor(Color.BLUE),
+                     standard.evaluate(b, Color.RED));
+        double[] f = new double[Weights.COUNT];
+        Weights.features(b, Color.RED, f);
+        double[] w = { 0.5, 0.25, 2, 1.5, -0.25, 1 };
+        Weights tuned = new Weights(w);
+        assertEquals((int) Math.round(Weights.UNIT * tuned.dot(f)),
+                     tuned.evaluate(b, Color.RED));
+        assertEquals(Weights.UNIT, tuned.unit());
+        assertEquals(1, standard.unit());
+        assertEquals(1, (int) f[1]);
+        Weights quarter = new Weights(new double[] { 0, 0.25, 0, 0, 0, 0 });
+        assertEquals(Weights.UNIT / 4, quarter.evaluate(b, Color.RED));
+        assertEquals(-tuned.evaluate(b, Color.RED),
+                     tuned.evaluate(b, Color.BLUE));
+        File file = File.createTempFile("jump61", ".weights");
+        file.deleteOnExit();
+        tuned.save(file.toPath(), "test");
+        Weights loaded = Weights.load(file.toPath());
+        for (int k = 0; k < Weights.COUNT; k += 1) {
+            assertTrue(Math.abs(w[k] - loaded.get(k)) < 1e-6);
+        }
+        assertFalse(loaded.isDefault());
+    }
+
+    @Test
+    public void testPatterns() {
+        MutableBoard b = new MutableBoard(6);
+        PatternEval patterns = new PatternEval(b);
+        Random rand = new Random(40);
+        for (int k = 0; k < 60 && !b.won(); k += 1) {
+            Color p = b.whoseMove();
+            int move;
+            do {
+                move = rand.nextInt(36);
+            } while (!b.isLegal(p, move));
+            b.addSpot(p, move);
+            if (k % 7 == 3) {
+                b.undo();
+                b.undo();
+                b.redo();
+            }
+            for (Color q : new Color[] { Color.RED, Color.BLUE }) {
+                assertEquals(PatternEval.evaluate(b, q), patterns.evaluate(q));
+            }
+        }
+        b.seek(5);
+        assertEquals(PatternEval.evaluate(b, Color.RED),
+                     patterns.evaluate(Color.RED));
+        b.clear(4);
+        assertEquals(0, patterns.evaluate(Color.BLUE));
+        b.addSpot(Color.RED, 0);
+        assertEquals(PatternEval.evaluate(b, Color.BLUE),
+                     patterns.evaluate(Color.BLUE));
+        patterns.detach();
+    }
+
+    @Test
+    public void testTrialMoveSearch() {
+        MutableBoard b = new MutableBoard(4);
+        Random rand = new Random(44);
+        while (b.numMoves() < 12 && !b.won()) {
+            int move;
+            do {
+                move = rand.nextInt(16);
+            } while (!b.isLegal(b.whoseMove(), move));
+            b.addSpot(b.whoseMove(), move);
+        }
+        Search trial = new Search(new MutableBoard(b));
+        Search plain = new Search(new MutableBoard(b));
+        plain.setTrialMoves(false);
+        assertEquals(plain.bestMove(b.whoseMove(), 4),
+                     trial.bestMove(b.whoseMove(), 4));
+        assertEquals(plain.value(), trial.value());
+        assertEquals(plain.nodes(), trial.nodes());
+        assertEquals(b.toString(), trial.getBoard().toString());
+        assertEquals(0, trial.arena().trials());
+    }
+
+    @Test
+    public void testSelectiveSearch() {
+        Random rand = new Random(49);
+        MutableBoard b = new MutableBoard(6);
+        while (b.numMoves() < 12) {
+            int move;
+            do {
+                move = rand.nextInt(36);
+            } while (!b.isLegal(b.whoseMove(), move));
+            b.addSpot(b.whoseMove(), move);
+        }
+        Color p = b.whoseMove();
+        Search plain = new Search(new MutableBoard(b));
+        Search selective = new Search(new MutableBoard(b));
+        selective.setNullMove(true);
+        selective.setReductions(true);
+        int move = selective.bestMove(p, 5);
+        assertTrue(b.isLegal(p, move));
+        assertTrue(selective.reductions() > 0);
+        assertTrue(selective.researches() <= selective.reductions());
+        assertTrue(selective.nullCutoffs() + selective.nullRefuted()
+                   <= selective.nullMoves());
+        plain.bestMove(p, 5);
+        assertTrue(selective.nodes() < plain.nodes());
+        assertEquals(0, plain.nullMoves() + plain.reductions());
+        assertEquals(b.toString(), selective.getBoard().toString());
+        assertEquals(0, selective.arena().trials());
+
+        selective.setNullMove(false);
+        selective.setReductions(false);
+        selective.table().clear();
+        plain.table().clear();
+        assertEquals(plain.bestMove(p, 5), selective.bestMove(p, 5));
+        assertEquals(plain.nodes(), selective.nodes());
+    }
+
+    @Test
+    public void testBeamSearch() {
+        Random rand = new Random(50);
+        MutableBoard b = new MutableBoard(100);
+        while (b.numMoves() < 2500) {
+            int move;
+            do {
+                move = rand.nextInt(10000);
+            } while (!b.isLegal(b.whoseMove(), move));
+            b.addSpot(b.whoseMove(), move);
+        }
+        Color p = b.whoseMove();
+        BeamSearch beam = new BeamSearch(new MutableBoard(b));
+        long start = System.nanoTime();
+        int move = beam.bestMove(p, 50);
+        assertTrue(System.nanoTime() - start < 2000000000L);
+        assertTrue(b.isLegal(p, move));
+        assertTrue(beam.iterations() > 0 && beam.depth() > 0);
+        assertTrue(beam.width() >= Defaults.BEAM_WIDTH);
+        assertEquals(b.toString(), beam.getBoard().toString());
+
+        SearchContext context = new SearchContext(b);
+        context.setPatterns(true);
+        move = context.beamMove(p, 0);
+        assertEquals(1, context.beam().depth());
+        MutableBoard after = new MutableBoard(b);
+        after.addSpot(p, move);
+        assertEquals(-PatternEval.evaluate(after, p.opposite()),
+                     context.beam().value());
+
+        int wins = 0;
+        for (int g = 0; g < 20; g += 1) {
+            b = new MutableBoard(4);
+            int length = 10 + rand.nextInt(30);
+            while (!b.won() && b.numMoves() < length) {
+                do {
+                    move = rand.nextInt(16);
+                } while (!b.isLegal(b.whoseMove(), move));
+                b.addSpot(b.whoseMove(), move);
+            }
+            if (b.won()) {
+                continue;
+            }
+            p = b.whoseMove();
+            beam = new BeamSearch(new MutableBoard(b));
+            move = beam.bestMove(p, 500);
+            assertTrue(b.isLegal(p, move));
+            assertEquals(b.toString(), beam.getBoard().toString());
+            if (beam.value() == Search.WIN && beam.depth() <= 5) {
+                wins += 1;
+                b.addSpot(p, move);
+                assertTrue(b.won() || canWin(b, p.opposite(), p,
+                                             beam.depth() - 1));
+            } else if (beam.depth() >= 5) {
+                assertFalse(canWin(b, p, p, 5));
+            }
+        }
+        assertTrue(wins > 0);
+    }
+
+    @Test
+    public void testSolve() {
+        Random rand = new Random(45);
+        int wins = 0;
+        for (int g = 0; g < 100; g += 1) {
+            MutableBoard b = new MutableBoard(4);
+            int length = 10 + rand.nextInt(30);
+            while (!b.won() && b.numMoves() < length) {
+                int move;
+                do {
+                    move = rand.nextInt(16);
+                } while (!b.isLegal(b.whoseMove(), move));
+                b.addSpot(b.whoseMove(), move);
+            }
+            Color p = b.whoseMove();
+            ProofSearch solver = new ProofSearch(new MutableBoard(b), 12);
+            int result = solver.solve(p, 3, 1000000);
+            boolean win = canWin(b, p, p, 5);
+            assertEquals(win ? ProofSearch.PROVEN : ProofSearch.DISPROVEN,
+                         result);
+            if (win && !b.won()) {
+                wins += 1;
+                for (int k = 0; k < solver.lineLength(); k += 1) {
+                    b.addSpot(b.whoseMove(), solver.line()[k]);
+                }
+                assertTrue(b.won());
+                assertEquals(p, b.color(0));
+            }
+        }
+        assertTrue(wins > 0);
+
+        Writer output = new StringWriter();
+        Game game = new Game(new StringReader(""), output, output, output);
+        game.loadPosition("2 2 1r 1b -- 1r");
+        game.solve(1, 1000);
+        game.solve(2, 1000);
+        String[] lines = output.toString().split("\n");
+        assertEquals("Red cannot force a win within 1 move.", lines[0]);
+        assertEquals("Red wins within 2 moves: 1 1, 1 2, 1 1.", lines[2]);
+    }
+
+    /** Returns true iff ATTACKER can win on B, with P to move, within
+     *  DEPTH moves by either player, found by trying every line. */
+    private static boolean canWin(MutableBoard b, Color p, Color attacker,
+                                  int depth) {
+        if (b.won()) {
+            return b.color(0) == attacker;
+        }
+        if (depth == 0) {
+            return false;
+        }
+        for (int i = b.nextLegal(p, 0); i >= 0; i = b.nextLegal(p, i + 1)) {
+            b.addSpot(p, i);
+            boolean win = canWin(b, p.opposite(), attacker, depth - 1);
+            b.undo();
+            if (win == (p == attacker)) {
+                return win;
+            }
+        }
+        return p != attacker;
+    }
+
+    @Test
+    public void testSelfPlayWorkers() throws IOException {
+        Tuner tuner = new Tuner(4, 1, 1);
+        GameRecord record = tuner.playGame(46);
+        ByteArrayOutputStream bytes =
+            new ByteArrayOutputStream();
+        record.write(new DataOutputStream(bytes));
+        GameRecord copy = GameRecord.read(new DataInputStream(
+            new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(record, copy);
+        assertEquals(record.nodes(), copy.nodes());
+        int[][][] bad = {
+            { { 0x80, 0x80, 0x80, 0x80, 0x08 }, { 0, 0, 0 } },
+            { { 0xff, 0xff, 0xff, 0xff, 0x07 }, { 0, 0, 0 } },
+            { { 4 }, { 0, 0xff, 0xff, 0xff, 0xff, 0x0f } },
+            { { 4 }, { 0, 1, 0xff, 0xff, 0xff, 0xff, 0x0f } },
+            { { 4 }, { 0, 1, 16 } },
+            { { 4 }, { 2, 1, 0 } },
+        };
+        for (int[][] fields : bad) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(GameRecord.MAGIC);
+            data.writeByte(GameRecord.VERSION);
+            data.writeByte(0);
+            for (int b : fields[0]) {
+                data.writeByte(b);
+            }
+            data.writeLong(46);
+            for (int b : fields[1]) {
+                data.writeByte(b);
+            }
+            data.write(new byte[17]);
+            try {
+                GameRecord.read(new DataInputStream(
+                    new ByteArrayInputStream(out.toByteArray())));
+                fail("Read a malformed game record");
+            } catch (GameException excp) {
+                /* Expected. */
+            }
+        }
+        MutableBoard end = copy.replay(copy.numMoves());
+        if (copy.winner() != Color.WHITE) {
+            assertEquals(copy.winner(), end.color(0));
+        }
+
+        long[] seeds = new long[9];
+        for (int g = 0; g < seeds.length; g += 1) {
+            seeds[g] = 460 + g;
+        }
+        Coordinator coordinator =
+            new Coordinator(2, Coordinator.command(4, 1, 2));
+        List<GameRecord> records = coordinator.play(seeds);
+        assertEquals(seeds.length, records.size());
+        for (int g = 0; g < seeds.length; g += 1) {
+            assertEquals(tuner.playGame(seeds[g]), records.get(g));
+        }
+        assertTrue(coordinator.restarts() > 0);
+
+        Coordinator broken = new Coordinator(
+            2, Arrays.asList("/nonexistent/jump61-worker"));
+        try {
+            broken.play(seeds);
+            fail("Games were played by failed workers");
+        } catch (GameException excp) {
+            assertEquals(2 * (Defaults.WORKER_RESTARTS - 1),
+                         broken.restarts());
+        }
+    }
+
+    @Test
+    public void testPositionStore() throws IOException {
+        Path dir =
+            Files.createTempDirectory("jump61");
+        Path log = dir.resolve("positions");
+        Path index = dir.resolve("positions.index");
+        Tuner tuner = new Tuner(4, 1, 1);
+        List<GameRecord> records = tuner.playGames(6, 47);
+        Map<Long, Integer> games = new HashMap<>();
+        PositionStore store = new PositionStore(log, 2);
+        for (GameRecord record : records) {
+            store.add(record, 1);
+            MutableBoard b = record.replay(0);
+            for (int k = 0; k < record.numMoves(); k += 1) {
+                games.merge(PositionStore.key(b), 1, Integer::sum);
+                b.addSpot(b.whoseMove(), record.move(k));
+            }
+        }
+        assertEquals(0, store.size());
+        store.flush();
+        assertEquals(games.size(), store.size());
+        assertTrue(store.capacity() > 4);
+
+        GameRecord record = records.get(0);
+        MutableBoard b = record.replay(0);
+        MutableBoard t = new MutableBoard(4);
+        for (int k = 0; k < record.numMoves(); k += 1) {
+            PositionStore.Entry entry = store.lookup(b);
+            PositionStore.Entry turned = store.lookup(t);
+            int games0 = games.get(PositionStore.key(b));
+            assertEquals(games0, entry.games());
+            assertEquals(games0, turned.games());
+            assertTrue(entry.wins() + entry.losses() <= games0);
+            if (k >= record.opening()) {
+                int move = store.bookMove(b, 1);
+                assertTrue(b.isLegal(b.whoseMove(), move));
+                assertEquals(-1, store.bookMove(b, 2));
+                b.addSpot(b.whoseMove(), move);
+                t.addSpot(t.whoseMove(), turned.move());
+                assertEquals(b.won(), t.won());
+                if (!b.won()) {
+                    assertEquals(b.canonicalKey(), t.canonicalKey());
+                }
+                b.undo();
+                t.undo();
+            }
+            int move = record.move(k);
+            b.addSpot(b.whoseMove(), move);
+            t.addSpot(t.whoseMove(), Symmetry.map(6, move, 4));
+        }
+        try {
+            new PositionStore(log);
+            fail("Position store opened twice");
+        } catch (GameException excp) {
+            assertTrue(excp.getMessage().contains("in use"));
+        }
+        store.close();
+
+        long length = Files.size(log);
+        Files.write(log, new byte[] { 0, 0, 0, 9, 1, 2 },
+                                  StandardOpenOption.APPEND);
+        store = new PositionStore(log, 2);
+        assertEquals(games.size(), store.size());
+        assertEquals(length, Files.size(log));
+        store.close();
+        Files.delete(index);
+        store = new PositionStore(log, 2);
+        assertEquals(games.size(), store.size());
+        assertEquals(games.get(PositionStore.key(record.replay(3))).intValue(),
+                     store.lookup(record.replay(3)).games());
+        store.close();
+        Files.delete(index);
+        Files.delete(log);
+        Files.delete(dir);
+    }
+
+    @Test
+    public void testBatch() {
+        StringWriter output = new StringWriter();
+        StringWriter prompts = new StringWriter();
+        Game game = new Game(new StringReader("size 2\nset 1 1 2 r\ndump\n"
+                                              + "bogus\nquit\ndump\n"),
+                             prompts, output, output, true);
+        assertEquals(0, game.play());
+        assertEquals("===\n    2r --\n    -- --\n===\nbad command: 'bogus'\n",
+                     output.toString());
+        assertEquals("", prompts.toString());
+
+        output = new StringWriter();
+        game = new Game(new StringReader("manual blue\nstart\n1 1\n2 2"),
+                        prompts, output, output, true);
+        assertEquals(0, game.play());
+        assertEquals(2, game.getBoard().numMoves());
+        assertEquals("", output.toString());
+    }
+
+    @Test
+    public void testLoadPosition() {
+        Writer output = new StringWriter();
+        Game game = new Game(new StringReader(""), output, output, output);
+        game.loadPosition("3 4 2r 1b -- -- 5b -- -- -- 1r");
+        assertEquals(3, game.getBoard().size());
+        assertEquals(4, game.getBoard().numMoves());
+        assertEquals("===\n"
+                     + "    2r 2b --\n"
+                     + "    1b 1b 1b\n"
+                     + "    -- 1b 1r\n"
+                     + "===", game.getBoard().toString());
+        game.loadPosition("===\n 3r 1b\n -- -- \n===");
+        assertEquals(2, game.getBoard().size());
+        assertEquals(1, game.getBoard().spots(0));
+        assertEquals(Color.RED, game.getBoard().color(1));
+        assertEquals(2, game.getBoard().spots(1));
+        assertEquals(Color.RED, game.getBoard().color(2));
+        assertEquals(8, PositionFormat.parse("2 0 8r -- -- --").spots(0));
+        for (String bad : new String[] {
+                "2 0 9r -- -- --", "1 0 999999999b", "1 0 4294967297r" }) {
+            try {
+                PositionFormat.parse(bad);
+                fail("Loaded " + bad);
+            } catch (GameException excp) {
+                assertTrue(excp.getMessage().contains("bad square"));
+            }
+        }
+    }
+
+    @Test
+    public void testAnalysis() throws IOException {
+        Random random = new Random(61);
+        StringBuilder input = new StringBuilder("# positions\n");
+        String first = null;
+        for (int i = 0; i < 30; i += 1) {
+            MutableBoard board = new MutableBoard(4);
+            for (int k = random.nextInt(12); k > 0 && !board.won();
+                 k -= 1) {
+                Color p = board.whoseMove();
+                int n;
+                do {
+                    n = random.nextInt(16);
+                } while (!board.isLegal(p, n));
+                board.addSpot(p, n);
+            }
+            String position =
+                i % 3 == 0 ? "move " + board.numMoves() + "\n" + board
+                : PositionFormat.compact(board);
+            if (first == null) {
+                first = position;
+            }
+            input.append(position).append("\n");
+        }
+        String single = analyze(input.toString(), 1);
+        assertTrue(single.startsWith("position 1: "));
+        assertTrue(single.contains("position 30: "));
+        assertEquals(single, analyze(input.toString(), 3));
+        assertEquals(analyze(first, 2),
+                     single.substring(0, single.indexOf("position 2: ")));
+    }
+
+    /** Returns the reports of an analysis of the positions in INPUT
+     *  by THREADS threads, without the closing summary. */
+    private String analyze(String input, int threads) throws IOException {
+        StringWriter output = new StringWriter();
+        new Analysis(3, 2, threads).run(new BufferedReader(
+            new StringReader(input)), new PrintWriter(output));
+        String result = output.toString();
+        return result.substring(0, result.lastIndexOf("# "));
+    }
 }
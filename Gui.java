@@ -1,30 +1,202 @@
 package jump61;
 
-import javax.swing.JWindow;
+import java.awt.BorderLayout;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import javax.swing.JButton;
+import javax.swing.JComboBox;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+
+import static jump61.Color.*;
+
 /** The Graphical User Interface.  Invoked with the "--display" switch
- *  from the command line.
+ *  from the command line.  A human plays Red by clicking on squares; the
+ *  A.I. plays Blue.
+ *
+ *  The event dispatch thread only ever handles the display (a
+ *  BoardPanel, which keeps its own copy of the squares).  Moves, the
+ *  A.I.'s searches, and the computation of the frames that animate each
+ *  cascade are done by SwingWorkers, one at a time, which alone touch
+ *  the game's board, and which hand the display only the squares each
+ *  frame changes.
  * @author Alan Ponte
  */
 public class Gui {
 
-	/**Creates and shows the GUI.*/
-	public void createAndShowGui() {
-		JFrame MainFrame = new JFrame("Jump61");
-		MainFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-		JLabel MainLabel = new JLabel(" ");
-		MainFrame.getContentPane().add(MainLabel);
-		MainFrame.pack();
-		MainFrame.setVisible(true);
-	}
-	
+    /** Creates and shows the GUI.*/
+    public void createAndShowGui() {
+        _board = new MutableBoard(Defaults.BOARD_SIZE);
+        _board.addListener(delta -> _move = delta.copy());
+        _context = new SearchContext();
+        _panel = new BoardPanel(Defaults.BOARD_SIZE);
+        _status = new JLabel(" ");
+        _panel.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                click(_panel.squareAt(e.getX(), e.getY()));
+            }
+        });
+
+        JComboBox<Integer> sizes = new JComboBox<>(SIZES);
+        sizes.setSelectedItem(Defaults.BOARD_SIZE);
+        JComboBox<Topology.Kind> kinds = new JComboBox<>(KINDS);
+        JButton newGame = new JButton("New game");
+        newGame.addActionListener(e -> newGame(
+            Topology.of((Topology.Kind) kinds.getSelectedItem(),
+                        (Integer) sizes.getSelectedItem())));
+        JPanel controls = new JPanel();
+        controls.add(new JLabel("Size:"));
+        controls.add(sizes);
+        controls.add(kinds);
+        controls.add(newGame);
+
+        JFrame mainFrame = new JFrame("Jump61");
+        mainFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        mainFrame.getContentPane().add(controls, BorderLayout.NORTH);
+        mainFrame.getContentPane().add(new JScrollPane(_panel),
+                                       BorderLayout.CENTER);
+        mainFrame.getContentPane().add(_status, BorderLayout.SOUTH);
+        mainFrame.pack();
+        mainFrame.setVisible(true);
+        newGame(Topology.grid(Defaults.BOARD_SIZE));
+    }
+
     /** Main entry point for the GUI.
      * Sets up appropriate elements.
      */
     public void run() {
-    	createAndShowGui();
+        SwingUtilities.invokeLater(this::createAndShowGui);
+    }
+
+    /** Start a new game on a board of shape TOPOLOGY, unless a move is
+     *  under way. */
+    private void newGame(Topology topology) {
+        if (_busy) {
+            return;
+        }
+        _board.clear(topology);
+        _panel.resize(topology);
+        _over = false;
+        _status.setText("Red to move.");
+    }
 
+    /** Handle a click on square N. */
+    private void click(int n) {
+        if (_busy || _over || n < 0
+            || Board.cellColor(_panel.cell(n)) == BLUE) {
+            return;
+        }
+        new MoveWorker(RED, n).execute();
     }
 
+    /** Makes one move on the board, off the event dispatch thread, and
+     *  publishes the squares it changes as animation frames, one for
+     *  each wave of its cascade (see BoardPanel.Changes.waveEnd), so
+     *  that each frame shows a position the cascade went through.  A
+     *  cascade of more than Defaults.GUI_FRAMES waves is shown faster,
+     *  so that it takes no longer than one of that many. */
+    private class MoveWorker extends SwingWorker<Void, BoardPanel.Changes> {
+
+        /** A worker that makes the move of PLAYER to square N, or the
+         *  A.I.'s choice of move for PLAYER if N is -1. */
+        MoveWorker(Color player, int n) {
+            _player = player;
+            _square = n;
+            _busy = true;
+            _status.setText(n < 0 ? "Blue is thinking..." : " ");
+        }
+
+        @Override
+        protected Void doInBackground() throws InterruptedException {
+            if (_square < 0) {
+                _context.load(_board.snapshot());
+                _square = _context.bestMove(_player, Defaults.DEPTH);
+            }
+            _board.addSpot(_player, _square);
+            BoardDelta delta = _move;
+            int waves = 0;
+            for (int k = 0; k < delta.count(); waves += 1) {
+                k = BoardPanel.Changes.waveEnd(delta, k);
+            }
+            long pause = Defaults.GUI_FRAME_MILLIS
+                * Math.min(waves, Defaults.GUI_FRAMES) / Math.max(waves, 1);
+            for (int k = 0, wave = 0; k < delta.count(); wave += 1) {
+                int end = BoardPanel.Changes.waveEnd(delta, k);
+                publish(BoardPanel.Changes.of(delta, k, end));
+                k = end;
+                if (wave + 1 < waves && pause > 0) {
+                    Thread.sleep(pause);
+                }
+            }
+            _won = _board.won();
+            return null;
+        }
+
+        @Override
+        protected void process(List<BoardPanel.Changes> frames) {
+            for (BoardPanel.Changes frame : frames) {
+                _panel.update(frame);
+            }
+        }
+
+        @Override
+        protected void done() {
+            _busy = false;
+            try {
+                get();
+            } catch (InterruptedException | ExecutionException excp) {
+                _status.setText("Error: " + excp.getCause());
+                return;
+            }
+            if (_won) {
+                _over = true;
+                _status.setText(_player.toCapitalizedString() + " wins.");
+            } else if (_player == RED) {
+                new MoveWorker(BLUE, -1).execute();
+            } else {
+                int N = _panel.boardSize();
+                _status.setText(String.format("Blue moved %d %d.  Red to"
+                                              + " move.", _square / N + 1,
+                                              _square % N + 1));
+            }
+        }
+
+        /** The player moving. */
+        private final Color _player;
+        /** The square played, or -1 until the A.I. chooses it. */
+        private int _square;
+        /** True iff the move won the game. */
+        private boolean _won;
+    }
+
+    /** Board sizes offered. */
+    private static final Integer[] SIZES = { 4, 6, 8, 10, 20, 50, 100, 200 };
+    /** Board shapes offered. */
+    private static final Topology.Kind[] KINDS = {
+        Topology.Kind.GRID, Topology.Kind.TORUS, Topology.Kind.HEX
+    };
+
+    /** The game's board, used only by MoveWorkers (and by newGame when
+     *  none is running). */
+    private MutableBoard _board;
+    /** The last change to _board, as its listener recorded it. */
+    private BoardDelta _move;
+    /** Where the A.I. searches. */
+    private SearchContext _context;
+    /** The display of the board. */
+    private BoardPanel _panel;
+    /** Status line. */
+    private JLabel _status;
+    /** True iff a MoveWorker is running. */
+    private boolean _busy;
+    /** True iff the current game is over. */
+    private boolean _over;
+
 }
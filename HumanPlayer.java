@@ -16,8 +16,9 @@ class HumanPlayer extends Player {
     void makeMove() {
         Game game = getGame();
         int[] move = new int[2];
-        game.getMove(move);
-        game.makeMove(move[0], move[1]);
+        if (game.getMove(move)) {
+            game.makeMove(move[0], move[1]);
+        }
     }
 
 }
@@ -1,12 +1,22 @@
 package jump61;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Writer;
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
 
 /** The jump61 game.
  * @author Alan Ponte
@@ -16,9 +26,13 @@ public class Main {
     /** Location of usage message resource. */
     static final String USAGE = "jump61/Usage.txt";
 
-    /** Play jump61.  ARGS0 may consist of the single string
-     *  '--display' to indicate that the game is played using a GUI. Prints
-     *  a usage message if the arguments are wrong. */
+    /** Play jump61.  ARGS0 may consist of the names of script files to
+     *  run in batch (see batch), of the single string
+     *  '--display' to indicate that the game is played using a GUI, of
+     *  '--analyze' followed by the arguments of analyze, of '--tune'
+     *  followed by the arguments of tune, of '--book' followed by the
+     *  arguments of book, or of '--worker' followed by the arguments of
+     *  worker.  Prints a usage message if the arguments are wrong. */
     public static void main(String[] args0) {
 
         if (args0.length == 0) {
@@ -28,15 +42,205 @@ public class Main {
                              new OutputStreamWriter(System.err));
             System.exit(game.play());
         }
-        if (args0[0].equals("--display")) {
+        if (!args0[0].startsWith("--")) {
+            System.exit(batch(args0));
+        } else if (args0[0].equals("--display")) {
             Gui g = new Gui();
             System.out.println("Starting the Graphical Interface ...");
             g.run();
+        } else if (args0[0].equals("--analyze")
+                   && args0.length >= 3 && args0.length <= 6) {
+            System.exit(analyze(args0));
+        } else if (args0[0].equals("--tune")
+                   && args0.length >= 2 && args0.length <= 7) {
+            System.exit(tune(args0));
+        } else if (args0[0].equals("--book")
+                   && args0.length >= 2 && args0.length <= 7) {
+            System.exit(book(args0));
+        } else if (args0[0].equals("--worker")
+                   && args0.length >= 3 && args0.length <= 4) {
+            System.exit(worker(args0));
         } else {
             usage();
         }
     }
 
+    /** Run the scripts in the files named SCRIPTS, in order, each in a
+     *  new Game in batch mode (without prompts), with buffered output
+     *  flushed only on dump and at the end of each script.  Returns an
+     *  exit code. */
+    private static int batch(String[] scripts) {
+        PrintWriter output = new PrintWriter(new BufferedWriter(
+            new OutputStreamWriter(System.out), Defaults.BATCH_BUFFER));
+        PrintWriter errors = new PrintWriter(new BufferedWriter(
+            new OutputStreamWriter(System.err), Defaults.BATCH_BUFFER));
+        int code = 0;
+        for (String script : scripts) {
+            try (BufferedReader input =
+                     new BufferedReader(new FileReader(script),
+                                        Defaults.BATCH_BUFFER)) {
+                Game game = new Game(input, Writer.nullWriter(), output,
+                                     errors, true);
+                code = Math.max(code, game.play());
+            } catch (IOException excp) {
+                errors.println(excp.getMessage());
+                code = 1;
+            }
+        }
+        output.flush();
+        errors.flush();
+        return code;
+    }
+
+    /** Analyze the positions in the file named ARGS[1], writing the best
+     *  moves of each to the file named ARGS[2].  ARGS[3], ARGS[4], and
+     *  ARGS[5], if present, give the search depth, the number of moves
+     *  to report per position, and the number of threads to use.
+     *  Returns an exit code. */
+    private static int analyze(String[] args) {
+        try {
+            int depth = args.length > 3 ? Integer.parseInt(args[3])
+                : Defaults.DEPTH;
+            int k = args.length > 4 ? Integer.parseInt(args[4])
+                : Defaults.ANALYSIS_MOVES;
+            int threads = args.length > 5 ? Integer.parseInt(args[5])
+                : Runtime.getRuntime().availableProcessors();
+            try (BufferedReader input =
+                     new BufferedReader(new FileReader(args[1]));
+                 PrintWriter output =
+                     new PrintWriter(new BufferedWriter(
+                         new FileWriter(args[2])))) {
+                new Analysis(depth, k, threads).run(input, output);
+            }
+            return 0;
+        } catch (NumberFormatException excp) {
+            usage();
+            return 1;
+        } catch (IOException | GameException excp) {
+            System.err.println(excp.getMessage());
+            return 1;
+        }
+    }
+
+    /** Fit evaluation weights to self-play games and write them to the
+     *  file named ARGS[1].  ARGS[2], ARGS[3], ARGS[4], and ARGS[5], if
+     *  present, give the number of games, the board size, the search
+     *  depth, and the number of threads, and ARGS[6], if present, the
+     *  number of worker processes to play the games in (see
+     *  Coordinator).  The games are played, and the fit started, with
+     *  the standard weights, except in workers, which play only with
+     *  the defaults.  Returns an exit code. */
+    private static int tune(String[] args) {
+        try {
+            int games = args.length > 2 ? Integer.parseInt(args[2])
+                : Defaults.TUNER_GAMES;
+            int size = args.length > 3 ? Integer.parseInt(args[3])
+                : Defaults.BOARD_SIZE;
+            int depth = args.length > 4 ? Integer.parseInt(args[4])
+                : Defaults.TUNER_DEPTH;
+            int threads = args.length > 5 ? Integer.parseInt(args[5])
+                : Runtime.getRuntime().availableProcessors();
+            int workers = args.length > 6 ? Integer.parseInt(args[6]) : 0;
+            Tuner tuner =
+                new Tuner(size, depth, threads,
+                          workers > 0 ? new Weights() : Weights.standard());
+            tuner.setWorkers(workers);
+            tuner.run(games, Paths.get(args[1]));
+            return 0;
+        } catch (NumberFormatException excp) {
+            usage();
+            return 1;
+        } catch (IOException | GameException excp) {
+            System.err.println(excp.getMessage());
+            return 1;
+        }
+    }
+
+    /** Play self-play games and add their positions to the PositionStore
+     *  whose log is the file named ARGS[1].  ARGS[2], ARGS[3], ARGS[4],
+     *  ARGS[5], and ARGS[6], if present, give the number of games, the
+     *  board size, the search depth, the number of threads, and the
+     *  number of worker processes, as for tune.  Returns an exit code. */
+    private static int book(String[] args) {
+        try {
+            int games = args.length > 2 ? Integer.parseInt(args[2])
+                : Defaults.TUNER_GAMES;
+            int size = args.length > 3 ? Integer.parseInt(args[3])
+                : Defaults.BOARD_SIZE;
+            int depth = args.length > 4 ? Integer.parseInt(args[4])
+                : Defaults.DEPTH;
+            int threads = args.length > 5 ? Integer.parseInt(args[5])
+                : Runtime.getRuntime().availableProcessors();
+            int workers = args.length > 6 ? Integer.parseInt(args[6]) : 0;
+            Tuner tuner =
+                new Tuner(size, depth, threads,
+                          workers > 0 ? new Weights() : Weights.standard());
+            tuner.setWorkers(workers);
+            try (PositionStore store = new PositionStore(Paths.get(args[1]))) {
+                long before = store.size();
+                long start = System.nanoTime();
+                List<GameRecord> records =
+                    tuner.playGames(games, System.nanoTime());
+                double playSecs = (System.nanoTime() - start) / 1e9;
+                start = System.nanoTime();
+                for (GameRecord record : records) {
+                    store.add(record, depth);
+                }
+                store.flush();
+                System.out.printf("%d games on %dx%d at depth %d"
+                                  + " (%.1f s); %d new positions (%.1f s);"
+                                  + " %d positions in all%n", games, size,
+                                  size, depth, playSecs,
+                                  store.size() - before,
+                                  (System.nanoTime() - start) / 1e9,
+                                  store.size());
+            }
+            return 0;
+        } catch (NumberFormatException excp) {
+            usage();
+            return 1;
+        } catch (IOException | GameException excp) {
+            System.err.println(excp.getMessage());
+            return 1;
+        }
+    }
+
+    /** Serve as a self-play worker for a Coordinator, playing games on
+     *  ARGS[1] x ARGS[1] boards searched to depth ARGS[2], and exiting
+     *  after ARGS[3] games, if present.  Jobs are read from the standard
+     *  input and records written to the standard output, in the form
+     *  Coordinator describes.  Returns an exit code. */
+    private static int worker(String[] args) {
+        try {
+            int size = Integer.parseInt(args[1]);
+            int depth = Integer.parseInt(args[2]);
+            int games = args.length > 3 ? Integer.parseInt(args[3])
+                : Integer.MAX_VALUE;
+            Tuner tuner = new Tuner(size, depth, 1);
+            DataInputStream in =
+                new DataInputStream(new BufferedInputStream(System.in));
+            DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(System.out));
+            for (int g = 0; g < games && in.readByte() == Coordinator.JOB;
+                 g += 1) {
+                int job = in.readInt();
+                GameRecord record = tuner.playGame(in.readLong());
+                out.writeInt(job);
+                record.write(out);
+                out.flush();
+            }
+            return 0;
+        } catch (NumberFormatException excp) {
+            usage();
+            return 1;
+        } catch (EOFException excp) {
+            return 0;
+        } catch (IOException | GameException excp) {
+            System.err.println(excp.getMessage());
+            return 1;
+        }
+    }
+
     /** Print the contents of the resource named NAME on OUT.
      *  NAME will typically be a file name based in one of the directories
      *  in the class path.  */
@@ -1,17 +1,43 @@
 package jump61;
 
-/** A Jump61 board state.
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/** A Jump61 board state.  The squares are held row by row, each row an
+ *  array of packed cells (see Board.cell).  Rows are shared copy-on-write
+ *  with the BoardSnapshots taken of me, so that a snapshot costs O(1)
+ *  and a move after a snapshot copies only the row index and the rows
+ *  it changes.  I also keep, up to date with every change, the position
+ *  keys of all eight symmetric variants of my contents (see Symmetry),
+ *  and, for each row, bitsets of its red squares, its blue squares, and
+ *  its squares at critical mass (one spot short of jumping), which are
+ *  shared and copied along with the row.  Counting the squares of a
+ *  color, and so evaluating positions and detecting wins, takes one
+ *  population count per 64 squares.
+ *
+ *  My history since it was last cleared is a log of the moves made,
+ *  together with snapshots (checkpoints) of the position after every
+ *  _interval moves.  Any earlier or later logged position can be reached
+ *  by restoring the nearest checkpoint before it and replaying at most
+ *  _interval - 1 moves.  When there are more than
+ *  Defaults.HISTORY_CHECKPOINTS checkpoints, the interval doubles and
+ *  every other checkpoint is dropped, so that the checkpoints take
+ *  bounded space however long the game; the log itself takes one int
+ *  per move.  The positions before the most recent few moves are also
+ *  kept, so that the undo()s of a game-tree search cost O(1).
+ *
+ *  I also keep the set of squares changed by my last move, undo, redo,
+ *  seek, set, copy, or clear (see numChanged), and send each such change
+ *  to my BoardListeners as a BoardDelta, so that displays and other
+ *  observers of a large board need look only at the squares changed.
+ *  When there are no listeners, no deltas are recorded.
  *  @author Alan Ponte
  */
 class MutableBoard extends Board {
 
     /** An N x N board in initial configuration. */
     MutableBoard(int N) {
-        _N = N;
-        squares = new Square[_N * _N];
-        for (int i = 0; i < squares.length; i++) {
-            squares[i] = new Square();
-        }
+        clear(N);
     }
 
     /** A board whose initial contents are copied from BOARD0. Clears the
@@ -22,24 +48,175 @@ class MutableBoard extends Board {
 
     @Override
     void clear(int N) {
-        _N = N;
-        squares = new Square[_N * _N];
+        clear(_topology == null ? Topology.grid(N) : _topology.resize(N));
+    }
+
+    /** (Re)initialize me to a cleared board of shape TOPOLOGY.  Clears
+     *  the undo history and sets the number of moves to 0. */
+    @Override
+    void clear(Topology topology) {
+        setTopology(topology);
+        _N = topology.size();
+        _rows = new int[_N][_N];
+        _W = (_N + 63) >>> 6;
+        _bits = new long[_N][3 * _W];
+        _rowGen = new int[_N];
+        Arrays.fill(_rowGen, _gen);
+        _changed = new int[_N * _N];
+        _changeMark = new int[_N * _N];
+        _rootShared = false;
+        _keys = new long[Symmetry.COUNT];
         _moves = 0;
-        _prevBoard = null;
-        for (int i = 0; i < squares.length; i++) {
-            squares[i] = new Square();
+        int blank = cell(Defaults.INIT_SPOTS, Defaults.BLANK_COLOR);
+        for (int[] row : _rows) {
+            Arrays.fill(row, blank);
         }
+        clearHistory();
+        beginChanges(NO_ROWS);
+        publish(BoardDelta.Kind.CLEAR, NO_ROWS);
     }
 
     @Override
     void copy(Board board) {
-        _N = board.size();
-        _moves = board.numMoves();
-        squares = new Square[board.squares.length];
-        for (int i = 0; i < squares.length; i++) {
-            squares[i] = board.squares[i].clone();
+        int[][] old = _rows == null ? NO_ROWS : _rows;
+        if (board instanceof MutableBoard) {
+            board = ((MutableBoard) board).snapshot();
+        }
+        if (board instanceof BoardSnapshot) {
+            restore((BoardSnapshot) board);
+        } else {
+            clear(board.topology());
+            for (int n = 0; n < _N * _N; n += 1) {
+                put(n, board.spots(n), board.color(n));
+            }
+            _moves = board.numMoves();
+        }
+        clearHistory();
+        beginChanges(old);
+        publish(BoardDelta.Kind.COPY, NO_ROWS);
+    }
+
+    /** Make my contents the N x N position (of my topology's kind) whose
+     *  packed cells (see Board.cell) are CELLS, in square-number order,
+     *  after MOVES moves, in one step: my history is cleared once and my
+     *  listeners are told of one change.  Over-full squares are left as
+     *  they are (see stabilize). */
+    void load(int N, int[] cells, int moves) {
+        if (cells.length != N * N) {
+            throw new IllegalArgumentException("wrong number of squares");
+        }
+        int[][] old = _rows == null ? NO_ROWS : _rows;
+        clear(_topology == null ? Topology.grid(N) : _topology.resize(N));
+        for (int n = 0; n < N * N; n += 1) {
+            put(n, cellSpots(cells[n]), cellColor(cells[n]));
+        }
+        _moves = moves;
+        clearHistory();
+        beginChanges(old);
+        publish(BoardDelta.Kind.COPY, NO_ROWS);
+    }
+
+    /** Make every over-full square jump, together with all the jumping
+     *  that follows, as one change, and clear my history.  The squares of
+     *  the player who moved last (the opposite of whoseMove()) jump first,
+     *  all in the first wave of a single cascade (see CascadeResolver);
+     *  any of the other player's squares still over-full then jump in a
+     *  second cascade.  Returns the number of squares that were
+     *  over-full at the start of either cascade.  Takes time proportional
+     *  to the number of squares plus the number of jumps. */
+    int stabilize() {
+        beginChanges(null);
+        record(BoardDelta.Kind.SET, null, -1);
+        Color first = whoseMove().opposite();
+        int[] squares = null;
+        int total = 0;
+        for (Color player : new Color[] { first, first.opposite() }) {
+            int count = 0;
+            for (int n = 0; n < _N * _N; n += 1) {
+                if (overfull(n) && color(n) == player) {
+                    if (squares == null) {
+                        squares = new int[_N * _N];
+                    }
+                    squares[count++] = n;
+                }
+            }
+            if (count > 0 && !won()) {
+                resolver().resolve(player, squares, count);
+            }
+            total += count;
+        }
+        clearHistory();
+        publish();
+        return total;
+    }
+
+    /** Returns an immutable copy of my current contents.  Takes constant
+     *  time: my rows are shared with the snapshot and copied only when I
+     *  next change them. */
+    BoardSnapshot snapshot() {
+        _rootShared = true;
+        _gen += 1;
+        return new BoardSnapshot(_rows, _bits, _topology, _moves,
+                                 _keys.clone());
+    }
+
+    /** Returns my key under symmetry G. */
+    long key(int g) {
+        return _keys[g];
+    }
+
+    /** Returns a key for my contents that is the same for all eight
+     *  symmetric variants of them, if my topology is symmetric, and
+     *  otherwise my plain key. */
+    long canonicalKey() {
+        return _keys[canonicalSymmetry()];
+    }
+
+    /** Returns the symmetry that carries my contents to the orientation
+     *  whose key is canonicalKey().  A move M on me is move
+     *  Symmetry.map(canonicalSymmetry(), M, size()) in that orientation.
+     *  This is the identity if my topology is not symmetric. */
+    int canonicalSymmetry() {
+        return _topology.symmetric() ? Symmetry.least(_keys) : 0;
+    }
+
+    @Override
+    Topology topology() {
+        return _topology;
+    }
+
+    @Override
+    int neighbors(int n) {
+        return _capacity[n];
+    }
+
+    /** Make TOPOLOGY my shape, without changing my contents. */
+    private void setTopology(Topology topology) {
+        _topology = topology;
+        _capacity = topology.capacities();
+        _offsets = topology.offsets();
+        _targets = topology.targets();
+    }
+
+    /** Make my contents those of SNAP, sharing its rows.  Does not change
+     *  my history. */
+    private void restore(BoardSnapshot snap) {
+        setTopology(snap.topology());
+        _N = snap.size();
+        _rows = snap.rows();
+        _bits = snap.bits();
+        _W = (_N + 63) >>> 6;
+        if (_rowGen == null || _rowGen.length != _N) {
+            _rowGen = new int[_N];
         }
-        _prevBoard = board.getPrevBoard();
+        if (_changed == null || _changed.length != _N * _N) {
+            _changed = new int[_N * _N];
+            _changeMark = new int[_N * _N];
+        }
+        _rootShared = true;
+        _gen += 1;
+        _keys = snap.keys().clone();
+        _moves = snap.numMoves();
     }
 
     @Override
@@ -54,7 +231,7 @@ class MutableBoard extends Board {
 
     @Override
     int spots(int n) {
-        return squares[n].getSpots();
+        return cellSpots(_rows[n / _N][n % _N]);
     }
 
     @Override
@@ -64,7 +241,7 @@ class MutableBoard extends Board {
 
     @Override
     Color color(int n) {
-        return squares[n].getColor();
+        return cellColor(_rows[n / _N][n % _N]);
     }
 
     @Override
@@ -74,15 +251,77 @@ class MutableBoard extends Board {
 
     @Override
     int numOfColor(Color color) {
+        if (!_bitCounting) {
+            return scanColor(_rows, color);
+        }
+        return countColor(_bits, _W, _N, color);
+    }
+
+    /** Returns the number of squares of color COLOR in ROWS, looking at
+     *  each square's cell in turn. */
+    static int scanColor(int[][] rows, Color color) {
+        int ord = color.ordinal();
+        int count = 0;
+        for (int[] row : rows) {
+            for (int cell : row) {
+                if (cellColorOrdinal(cell) == ord) {
+                    count += 1;
+                }
+            }
+        }
+        return count;
+    }
+
+    /** Returns the number of squares of color COLOR on the N x N board
+     *  whose row bitsets, of W words each, are BITS, counting 64 squares
+     *  at a time. */
+    static int countColor(long[][] bits, int W, int N, Color color) {
+        if (color == Color.WHITE) {
+            return N * N - countColor(bits, W, N, Color.RED)
+                - countColor(bits, W, N, Color.BLUE);
+        }
+        int words = color == Color.RED ? RED_BITS : W;
         int count = 0;
-        for (Square elem : squares) {
-            if (elem.getColor() == color) {
-                count += 1;
+        for (long[] row : bits) {
+            for (int w = words; w < words + W; w += 1) {
+                count += Long.bitCount(row[w]);
             }
         }
         return count;
     }
 
+    /** Returns true iff all my squares have the same color, comparing
+     *  whole words of the bitsets of that color against full ones. */
+    @Override
+    public boolean won() {
+        if (!_bitCounting) {
+            return super.won();
+        }
+        Color first = color(0);
+        if (first == Color.WHITE) {
+            return false;
+        }
+        int words = colorWords(first);
+        long last = _N % 64 == 0 ? -1L : (1L << (_N % 64)) - 1;
+        for (long[] bits : _bits) {
+            for (int w = 0; w < _W - 1; w += 1) {
+                if (bits[words + w] != -1L) {
+                    return false;
+                }
+            }
+            if (bits[words + _W - 1] != last) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Count squares and detect wins using my bitsets iff ON, and
+     *  otherwise by looking at each square (for comparison). */
+    void setBitCounting(boolean on) {
+        _bitCounting = on;
+    }
+
     @Override
     void addSpot(Color player, int r, int c) {
         addSpot(player, sqNum(r, c));
@@ -90,18 +329,79 @@ class MutableBoard extends Board {
 
     @Override
     void addSpot(Color player, int n) {
-        _prevBoard = new MutableBoard(this);
+        assert _trial == null;
+        beginChanges(null);
+        record(BoardDelta.Kind.MOVE, player, n);
+        if (_checkpointCount == 0) {
+            _checkpoints[0] = snapshot();
+            _checkpointCount = 1;
+        }
+        remember();
+        _logSize = _cursor;
+        _checkpointCount = Math.min(_checkpointCount,
+                                    _cursor / _interval + 1);
+        if (_logSize == _log.length) {
+            _log = Arrays.copyOf(_log, 2 * _log.length);
+        }
+        _log[_logSize++] = n << 1 | (player == Color.BLUE ? 1 : 0);
+        play(player, n);
+        _cursor += 1;
+        checkpoint();
+        publish();
+    }
+
+    /** Add a spot from PLAYER to square N, with all resulting jumping, as
+     *  a trial move, to be taken back by untry(ARENA).  Rather than in my
+     *  history, which is left as it was, the move is recorded in ARENA as
+     *  the squares it changes and their old contents, so that neither the
+     *  move nor taking it back allocates anything once ARENA has grown
+     *  to fit.  Trial moves may be nested, all with the same ARENA, and
+     *  while any remains, no other change may be made to me except more
+     *  trial moves and their undoing. */
+    void tryMove(Color player, int n, SearchArena arena) {
+        assert _trial == null || _trial == arena;
+        beginChanges(null);
+        record(BoardDelta.Kind.MOVE, player, n);
+        arena.begin(_moves, _keys);
+        _trial = arena;
+        play(player, n);
+        publish();
+    }
+
+    /** Take back the last trial move recorded in ARENA (see tryMove). */
+    void untry(SearchArena arena) {
+        assert _trial == arena && arena.trials() > 0;
+        beginChanges(null);
+        record(BoardDelta.Kind.UNDO, null, -1);
+        _trial = null;
+        for (int k = arena.recordSize() - 2; k >= 0; k -= 2) {
+            store(arena.recordEntry(k), arena.recordEntry(k + 1), false);
+        }
+        _moves = arena.end(_keys);
+        if (arena.trials() > 0) {
+            _trial = arena;
+        }
+        publish();
+    }
+
+    /** Add a spot from PLAYER to square N and do all resulting jumping,
+     *  without recording anything in my history. */
+    private void play(Color player, int n) {
         _moves++;
-        squares[n].setColor(player);
-        squares[n].addSpot();
-        jump(n);
+        addSpotInternal(player, n);
+        if (_N >= _waveSize) {
+            resolver().resolve(player, n);
+        } else {
+            jump(n);
+        }
     }
+
     /** Adds a spot  to square N for PLAYER without saving the board
-     *  or jumping squares. Only used internally in JUMP. */
+     *  or jumping squares. */
     private void addSpotInternal(Color player, int n) {
-        squares[n].setColor(player);
-        squares[n].addSpot();
+        put(n, spots(n) + 1, player);
     }
+
     @Override
     void set(int r, int c, int num, Color player) {
         set(sqNum(r, c), num, player);
@@ -109,58 +409,515 @@ class MutableBoard extends Board {
 
     @Override
     void set(int n, int num, Color player) {
-        _prevBoard = null;
-        squares[n].setColor(player);
-        squares[n].setSpots(num);
+        beginChanges(null);
+        record(BoardDelta.Kind.SET, null, -1);
+        put(n, num, player);
+        clearHistory();
+        publish();
+    }
+
+    @Override
+    void put(int n, int num, Color player) {
+        store(n, cell(num, player), true);
+    }
+
+    /** Make the contents of square N the packed cell CELL, updating my
+     *  keys iff REKEY. */
+    private void store(int n, int cell, boolean rekey) {
+        int r = n / _N, c = n % _N;
+        int old = _rows[r][c];
+        if (old == cell) {
+            return;
+        }
+        noteChange(n);
+        if (_delta != null) {
+            _delta.add(n, old, cell);
+        }
+        if (_trial != null) {
+            _trial.record(n, old);
+        }
+        if (_rootShared) {
+            _rows = _rows.clone();
+            _bits = _bits.clone();
+            _rootShared = false;
+        }
+        if (_rowGen[r] != _gen) {
+            _rows[r] = _rows[r].clone();
+            _bits[r] = _bits[r].clone();
+            _rowGen[r] = _gen;
+        }
+        _rows[r][c] = cell;
+        long[] bits = _bits[r];
+        int w = c >>> 6;
+        long bit = 1L << c;
+        bits[RED_BITS + w] &= ~bit;
+        bits[_W + w] &= ~bit;
+        int color = cellColorOrdinal(cell);
+        if (color == RED_ORDINAL) {
+            bits[RED_BITS + w] |= bit;
+        } else if (color == BLUE_ORDINAL) {
+            bits[_W + w] |= bit;
+        }
+        if (cellSpots(cell) == _capacity[n]) {
+            bits[2 * _W + w] |= bit;
+        } else {
+            bits[2 * _W + w] &= ~bit;
+        }
+        if (rekey) {
+            for (int g = 0; g < Symmetry.COUNT; g += 1) {
+                int s = Symmetry.map(g, n, _N);
+                _keys[g] ^= Symmetry.squareKey(s, old)
+                    ^ Symmetry.squareKey(s, cell);
+            }
+        }
+    }
+
+    @Override
+    boolean isLegal(Color player, int n) {
+        int r = n / _N, c = n % _N;
+        return (_bits[r][colorWords(player.opposite()) + (c >>> 6)]
+                & (1L << c)) == 0;
+    }
+
+    /** Returns the least square number >= FROM to which PLAYER may legally
+     *  add a spot, or -1 if there is none. */
+    int nextLegal(Color player, int from) {
+        return nextSquare(colorWords(player.opposite()), true, -1, from);
+    }
+
+    /** Returns the least square number >= FROM of a square of color PLAYER
+     *  at critical mass, or -1 if there is none. */
+    int nextCritical(Color player, int from) {
+        return nextSquare(2 * _W, false, colorWords(player), from);
+    }
+
+    /** Returns the number of squares of color PLAYER at critical mass. */
+    int numCritical(Color player) {
+        int count = 0;
+        int own = colorWords(player), crit = 2 * _W;
+        for (long[] bits : _bits) {
+            for (int w = 0; w < _W; w += 1) {
+                count += Long.bitCount(bits[crit + w] & bits[own + w]);
+            }
+        }
+        return count;
+    }
+
+    /** Returns the offset in a row's bitsets of the words for COLOR, which
+     *  must be RED or BLUE. */
+    private int colorWords(Color color) {
+        return color == Color.RED ? RED_BITS : _W;
+    }
+
+    /** Returns the least square number >= FROM whose bit is set in the
+     *  row bitset words at offset WORDS (clear, if INVERT) and, if MASK is
+     *  not -1, also set in the words at offset MASK; or -1 if there is
+     *  none. */
+    private int nextSquare(int words, boolean invert, int mask, int from) {
+        if (from >= _N * _N) {
+            return -1;
+        }
+        int r = from / _N, c = from % _N;
+        long last = _N % 64 == 0 ? -1L : (1L << (_N % 64)) - 1;
+        for (; r < _N; r += 1, c = 0) {
+            long[] bits = _bits[r];
+            for (int w = c >>> 6; w < _W; w += 1) {
+                long x = invert ? ~bits[words + w] : bits[words + w];
+                if (mask >= 0) {
+                    x &= bits[mask + w];
+                }
+                if (w == _W - 1) {
+                    x &= last;
+                }
+                if (w == c >>> 6) {
+                    x &= -1L << c;
+                }
+                if (x != 0) {
+                    return r * _N + (w << 6) + Long.numberOfTrailingZeros(x);
+                }
+            }
+        }
+        return -1;
     }
 
     @Override
     void setMoves(int num) {
-        assert num > 0;
-        _prevBoard = null;
+        assert num >= 0;
+        beginChanges(null);
+        record(BoardDelta.Kind.SET, null, -1);
         _moves = num;
+        clearHistory();
+        publish();
     }
 
     @Override
     void undo() {
-        assert _prevBoard != null;
-        copy(_prevBoard);
+        assert _cursor > 0 && _trial == null;
+        int[][] old = _rows;
+        if (_recentCount > 0) {
+            _recentCount -= 1;
+            _recentTop = (_recentTop + _recent.length - 1) % _recent.length;
+            restore(_recent[_recentTop]);
+            _recent[_recentTop] = null;
+            _cursor -= 1;
+        } else {
+            goTo(_cursor - 1);
+        }
+        beginChanges(old);
+        publish(BoardDelta.Kind.UNDO, old);
+    }
+
+    @Override
+    void redo() {
+        assert _cursor < _logSize && _trial == null;
+        int entry = _log[_cursor];
+        Color player = (entry & 1) == 0 ? Color.RED : Color.BLUE;
+        beginChanges(null);
+        record(BoardDelta.Kind.REDO, player, entry >>> 1);
+        remember();
+        play(player, entry >>> 1);
+        _cursor += 1;
+        checkpoint();
+        publish();
+    }
+
+    @Override
+    void seek(int k) {
+        assert firstMove() <= k && k <= lastMove() && _trial == null;
+        int[][] old = _rows;
+        goTo(k - _baseMoves);
+        beginChanges(old);
+        publish(BoardDelta.Kind.SEEK, old);
+    }
+
+    @Override
+    int firstMove() {
+        return _baseMoves;
+    }
+
+    @Override
+    int lastMove() {
+        return _baseMoves + _logSize;
+    }
+
+    /** Make my position the one after the first K logged moves, and
+     *  forget the positions kept for fast undo. */
+    private void goTo(int k) {
+        if (_checkpointCount == 0) {
+            return;
+        }
+        int c = Math.min(k / _interval, _checkpointCount - 1);
+        restore(_checkpoints[c]);
+        _cursor = c * _interval;
+        Arrays.fill(_recent, null);
+        _recentCount = 0;
+        while (_cursor < k) {
+            int entry = _log[_cursor];
+            play((entry & 1) == 0 ? Color.RED : Color.BLUE, entry >>> 1);
+            _cursor += 1;
+        }
+    }
+
+    /** Save the current position for a quick undo of the next move. */
+    private void remember() {
+        _recent[_recentTop] = snapshot();
+        _recentTop = (_recentTop + 1) % _recent.length;
+        _recentCount = Math.min(_recentCount + 1, _recent.length);
+    }
+
+    /** Record a checkpoint if my position is at the end of an interval,
+     *  first halving the number of checkpoints if there are too many. */
+    private void checkpoint() {
+        if (_cursor % _interval != 0) {
+            return;
+        }
+        int c = _cursor / _interval;
+        if (c == _checkpoints.length) {
+            for (int i = 0; i < c / 2; i += 1) {
+                _checkpoints[i] = _checkpoints[2 * i];
+            }
+            Arrays.fill(_checkpoints, c / 2, c, null);
+            _interval *= 2;
+            c /= 2;
+        }
+        _checkpoints[c] = snapshot();
+        _checkpointCount = c + 1;
+    }
+
+    /** Make my current position the only one in my history. */
+    private void clearHistory() {
+        _baseMoves = _moves;
+        _cursor = _logSize = 0;
+        _interval = Defaults.HISTORY_INTERVAL;
+        if (_checkpoints == null) {
+            _checkpoints = new BoardSnapshot[Defaults.HISTORY_CHECKPOINTS];
+            _recent = new BoardSnapshot[Defaults.UNDO_CACHE];
+        }
+        Arrays.fill(_checkpoints, null);
+        Arrays.fill(_recent, null);
+        _recentCount = 0;
+        _checkpointCount = 0;
+    }
+
+    /** Returns the number of squares whose contents were changed by my
+     *  last move, undo, redo, seek, set, copy, or clear. */
+    int numChanged() {
+        settleChanges();
+        return _numChanged;
+    }
+
+    /** Returns the Kth of the squares counted by numChanged(), where
+     *  0 <= K < numChanged().  After a move or redo, the squares are in
+     *  the order in which the move and its cascade first changed them;
+     *  otherwise they are in order of square number. */
+    int changedSquare(int k) {
+        settleChanges();
+        return _changed[k];
+    }
+
+    /** Start a new, empty set of changed squares.  If FROM is not null,
+     *  the set instead becomes the squares whose contents differ between
+     *  the rows FROM (which no one may change) and my rows, found when
+     *  it is first needed.  Rows of a different size differ entirely. */
+    private void beginChanges(int[][] from) {
+        _changeStamp += 1;
+        if (_changeStamp == 0) {
+            Arrays.fill(_changeMark, 0);
+            _changeStamp = 1;
+        }
+        _numChanged = 0;
+        _changesFrom = from;
+    }
+
+    /** Find the changed squares put off by beginChanges, if any.  Only
+     *  the rows that are not shared with FROM need be compared. */
+    private void settleChanges() {
+        int[][] from = _changesFrom;
+        if (from == null) {
+            return;
+        }
+        _changesFrom = null;
+        boolean all = from.length != _N;
+        for (int r = 0; r < _N; r += 1) {
+            if (all || from[r] != _rows[r]) {
+                for (int c = 0; c < _N; c += 1) {
+                    if (all || from[r][c] != _rows[r][c]) {
+                        noteChange(r * _N + c);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Add square N to the set of changed squares, if not already
+     *  there. */
+    private void noteChange(int n) {
+        if (_changeMark[n] != _changeStamp) {
+            _changeMark[n] = _changeStamp;
+            _changed[_numChanged++] = n;
+        }
+    }
+
+    /** Add LISTENER to those told of each change to me. */
+    void addListener(BoardListener listener) {
+        _listeners.add(listener);
+        if (_delta == null) {
+            _delta = new BoardDelta();
+        }
+    }
+
+    /** Stop telling LISTENER of changes to me. */
+    void removeListener(BoardListener listener) {
+        _listeners.remove(listener);
+        if (_listeners.isEmpty()) {
+            _delta = null;
+        }
+    }
+
+    /** Start recording, if anyone is listening, a change of kind KIND
+     *  whose entries are made by put, and which, if a move, is PLAYER's
+     *  move to square N. */
+    private void record(BoardDelta.Kind kind, Color player, int n) {
+        if (_delta != null) {
+            _delta.begin(kind, player, n);
+        }
+    }
+
+    /** Send the change recorded since the last call of record to my
+     *  listeners. */
+    private void publish() {
+        if (_delta != null) {
+            _delta.end(_topology, _moves);
+            for (BoardListener listener : _listeners) {
+                listener.boardChanged(_delta);
+            }
+        }
+    }
+
+    /** Send a change of kind KIND, which changed my rows from FROM, to
+     *  my listeners.  If KIND resets the board, the entries are instead
+     *  all my squares that are not empty. */
+    private void publish(BoardDelta.Kind kind, int[][] from) {
+        if (_delta == null) {
+            return;
+        }
+        _delta.begin(kind, null, -1);
+        if (_delta.resets()) {
+            int blank = cell(Defaults.INIT_SPOTS, Defaults.BLANK_COLOR);
+            for (int n = 0; n < _N * _N; n += 1) {
+                int cell = _rows[n / _N][n % _N];
+                if (cell != blank) {
+                    _delta.add(n, blank, cell);
+                }
+            }
+        } else {
+            settleChanges();
+            for (int k = 0; k < _numChanged; k += 1) {
+                int n = _changed[k], r = n / _N, c = n % _N;
+                _delta.add(n, from[r][c], _rows[r][c]);
+            }
+        }
+        publish();
     }
+
     /** Returns true iff the square at index S is overfull. */
     private boolean overfull(int S) {
-        return squares[S].getSpots() > neighbors(S);
+        return spots(S) > _capacity[S];
     }
 
     /** Do all jumping on this board, assuming that initially, S is the only
-     *  square that might be over-full. */
+     *  square that might be over-full.  Squares are visited depth first,
+     *  in the order of a recursive walk over the neighbors of each square
+     *  that jumps, but using an explicit stack so that long cascades on
+     *  large boards cannot overflow the Java stack. */
     private void jump(int S) {
-        int k = 0;
-        if (!overfull(S) || won()) {
-            return;
-        }
-        while (k < 4) {
-            try {
-                addSpotInternal(squares[S].getColor(), adjacent(k, S));
-                squares[S].remSpot();
-                k++;
-            } catch (ArrayIndexOutOfBoundsException e) {
-                k++;
+        _jumpTop = 0;
+        push(S);
+        while (_jumpTop > 0) {
+            int s = _jumpStack[--_jumpTop];
+            if (!overfull(s) || won()) {
                 continue;
             }
-        }
-        for (k = 0; k < 4; k++) {
-            try {
-                jump(adjacent(k, S));
-            } catch (ArrayIndexOutOfBoundsException e) {
-                continue;
+            Color player = color(s);
+            int first = _offsets[s], last = _offsets[s + 1];
+            for (int i = first; i < last; i++) {
+                addSpotInternal(player, _targets[i]);
+            }
+            put(s, spots(s) - (last - first), player);
+            for (int i = last - 1; i >= first; i--) {
+                push(_targets[i]);
             }
         }
     }
 
+    /** Push square S on the jump stack. */
+    private void push(int s) {
+        if (_jumpTop == _jumpStack.length) {
+            _jumpStack = Arrays.copyOf(_jumpStack, 2 * _jumpStack.length);
+        }
+        _jumpStack[_jumpTop++] = s;
+    }
+
+    /** Resolve cascades breadth first on boards at least SIZE squares on
+     *  a side, and depth first on smaller ones. */
+    void setWaveSize(int size) {
+        _waveSize = size;
+    }
+
+    /** Returns the wave resolver used for cascades on large boards,
+     *  creating it on first use. */
+    CascadeResolver resolver() {
+        if (_resolver == null) {
+            _resolver = new CascadeResolver(this);
+        }
+        return _resolver;
+    }
+
     /** Total combined number of moves by both sides. */
     protected int _moves;
     /** Convenience variable: size of board (squares along one edge). */
     private int _N;
-
+    /** My shape. */
+    private Topology _topology;
+    /** The capacity of each square, and the neighbor lists of all
+     *  squares, in compressed form (see Topology). */
+    private int[] _capacity, _offsets, _targets;
+    /** The rows of packed cells of my squares. */
+    private int[][] _rows;
+    /** Bitsets for each row: _W words of red squares, then _W of blue
+     *  squares, then _W of squares at critical mass. */
+    private long[][] _bits;
+    /** Number of words in each of a row's bitsets. */
+    private int _W;
+    /** Offset of the red squares' words in a row's bitsets. */
+    private static final int RED_BITS = 0;
+    /** Ordinals of the players' colors. */
+    private static final int RED_ORDINAL = Color.RED.ordinal(),
+        BLUE_ORDINAL = Color.BLUE.ordinal();
+    /** True iff _rows and _bits are shared with some snapshot. */
+    private boolean _rootShared;
+    /** Row r of _rows and _bits is mine alone iff _rowGen[r] == _gen.  Taking a
+     *  snapshot increments _gen, which marks every row as shared. */
+    private int[] _rowGen;
+    /** The current sharing generation. */
+    private int _gen = 1;
+    /** My keys under each of the symmetries. */
+    private long[] _keys;
+    /** The number of moves when my history was last cleared. */
+    private int _baseMoves;
+    /** The moves made since then, each as (square << 1) | (1 if Blue).
+     *  The first _cursor have been made; the next _logSize - _cursor may
+     *  be redone. */
+    private int[] _log = new int[64];
+    /** Number of valid entries in _log. */
+    private int _logSize;
+    /** Number of logged moves currently made. */
+    private int _cursor;
+    /** Number of moves between checkpoints. */
+    private int _interval;
+    /** _checkpoints[i] is the position after i * _interval logged moves,
+     *  for i < _checkpointCount.  The first is taken lazily, on the first
+     *  move after the history is cleared. */
+    private BoardSnapshot[] _checkpoints;
+    /** Number of valid entries in _checkpoints. */
+    private int _checkpointCount;
+    /** Ring of the positions before the last _recentCount moves, the
+     *  latest just before _recentTop. */
+    private BoardSnapshot[] _recent;
+    /** Index in _recent of the next position to be saved. */
+    private int _recentTop;
+    /** Number of positions saved in _recent. */
+    private int _recentCount;
+    /** The arena recording the trial moves not yet taken back, or null if
+     *  there are none. */
+    private SearchArena _trial;
+    /** Pending squares of the current cascade in jump. */
+    private int[] _jumpStack = new int[16];
+    /** Number of entries in _jumpStack. */
+    private int _jumpTop;
+    /** True iff squares are counted using my bitsets. */
+    private boolean _bitCounting = true;
+    /** Smallest board size on which cascades are resolved in waves. */
+    private int _waveSize = Defaults.WAVE_CASCADE_SIZE;
+    /** Wave-parallel cascade resolver for large boards (lazily created). */
+    private CascadeResolver _resolver;
+    /** The first _numChanged entries are the changed squares. */
+    private int[] _changed;
+    /** Number of changed squares. */
+    private int _numChanged;
+    /** _changeMark[n] == _changeStamp iff square n is in _changed. */
+    private int[] _changeMark;
+    /** The mark of the current set of changed squares. */
+    private int _changeStamp;
+    /** If not null, the rows from which the changed squares are still to
+     *  be found (see beginChanges). */
+    private int[][] _changesFrom;
+    /** The objects told of changes to me. */
+    private final ArrayList<BoardListener> _listeners = new ArrayList<>();
+    /** The change being recorded for my listeners, or null if there are
+     *  none. */
+    private BoardDelta _delta;
+    /** Rows of no board, which differ from those of every board. */
+    private static final int[][] NO_ROWS = new int[0][];
 
 }
@@ -0,0 +1,250 @@
+package jump61;
+
+import static jump61.Color.*;
+
+/** A static evaluation built from local patterns.  Each square's
+ *  neighborhood (the square and its neighbors) is encoded as an index
+ *  into a table of scores computed once for each number of neighbors
+ *  (four on a grid, six on a hex board; see Topology): each square of
+ *  the neighborhood is empty, Red's, or Blue's, or, for squares with
+ *  fewer neighbors than the most, off the board, and a colored square
+ *  is either critical (holding as many spots as it has neighbors, so
+ *  that one more spot makes it jump) or not.  A
+ *  pattern is scored for both players to move, since a critical square
+ *  next to an enemy square is an attack when its owner is to move and a
+ *  liability when the enemy is, if the enemy has a critical square of
+ *  its own next to it.  The value of a position is the sum of the scores
+ *  of its squares' patterns.
+ *
+ *  A PatternEval listens to the board it evaluates and, after each
+ *  change, recomputes only the patterns of the squares changed and of
+ *  their neighbors, so evaluating a position costs a table lookup and
+ *  keeping the value current costs a few lookups per square changed.
+ *  The board records the changes it sends only while it has listeners
+ *  (see MutableBoard.addListener), so a search whose board has no
+ *  PatternEval attached, or one that has been detached, pays nothing
+ *  for them.
+ *  @author Alan Ponte
+ */
+class PatternEval implements BoardListener {
+
+    /** An evaluator of the positions on BOARD, from now on. */
+    PatternEval(MutableBoard board) {
+        _board = board;
+        rebuild();
+        board.addListener(this);
+    }
+
+    /** Stop following my board's changes.  I may not be used after. */
+    void detach() {
+        _board.removeListener(this);
+    }
+
+    /** Returns the board I evaluate. */
+    MutableBoard getBoard() {
+        return _board;
+    }
+
+    /** Returns the value of my board's position for P, when P is to move
+     *  (ignoring whether it is won).  Higher is better for P. */
+    int evaluate(Color p) {
+        return p == RED ? _total[0] : -_total[1];
+    }
+
+    @Override
+    public void boardChanged(BoardDelta delta) {
+        if (delta.resets() || _board.topology() != _topology) {
+            rebuild();
+            return;
+        }
+        int[] offsets = _topology.offsets(), targets = _topology.targets();
+        for (int k = 0; k < delta.count(); k += 1) {
+            int n = delta.square(k);
+            refresh(n);
+            for (int i = offsets[n]; i < offsets[n + 1]; i += 1) {
+                refresh(targets[i]);
+            }
+        }
+    }
+
+    /** Returns the score of the neighborhood of square N of BOARD, from
+     *  Red's point of view, when P is to move. */
+    static int score(Board board, int n, Color p) {
+        int slots = board.topology().maxDegree();
+        return scores(slots)[(p == RED ? 0 : patterns(slots))
+                             + pattern(board, n)];
+    }
+
+    /** Returns the value of BOARD for P, when P is to move, computed
+     *  from scratch. */
+    static int evaluate(Board board, Color p) {
+        int N = board.size();
+        int total = 0;
+        for (int n = 0; n < N * N; n += 1) {
+            total += score(board, n, p);
+        }
+        return p == RED ? total : -total;
+    }
+
+    /** Returns the index of the pattern of the neighborhood of square N
+     *  of BOARD. */
+    static int pattern(Board board, int n) {
+        Topology topology = board.topology();
+        int index = state(board, n);
+        for (int k = 0; k < topology.maxDegree(); k += 1) {
+            int adj = topology.neighbor(n, k);
+            index = index * STATES + (adj < 0 ? OFF : state(board, adj));
+        }
+        return index;
+    }
+
+    /** Returns the number of patterns of squares with at most SLOTS
+     *  neighbors. */
+    static int patterns(int slots) {
+        int result = STATES;
+        for (int k = 0; k < slots; k += 1) {
+            result *= STATES;
+        }
+        return result;
+    }
+
+    /** Recompute the value of my board from scratch. */
+    private void rebuild() {
+        _topology = _board.topology();
+        _scores = scores(_topology.maxDegree());
+        _patterns = patterns(_topology.maxDegree());
+        int squares = _board.size() * _board.size();
+        if (_pattern.length != squares) {
+            _pattern = new int[squares];
+        }
+        _total[0] = _total[1] = 0;
+        for (int n = 0; n < squares; n += 1) {
+            _pattern[n] = pattern(_board, n);
+            _total[0] += _scores[_pattern[n]];
+            _total[1] += _scores[_patterns + _pattern[n]];
+        }
+    }
+
+    /** Bring the pattern of square N, and its contribution to my totals,
+     *  up to date. */
+    private void refresh(int n) {
+        int old = _pattern[n], now = pattern(_board, n);
+        if (old != now) {
+            _pattern[n] = now;
+            _total[0] += _scores[now] - _scores[old];
+            _total[1] += _scores[_patterns + now] - _scores[_patterns + old];
+        }
+    }
+
+    /** Returns the state of square N of BOARD. */
+    private static int state(Board board, int n) {
+        Color c = board.color(n);
+        if (c == WHITE) {
+            return EMPTY;
+        }
+        int base = c == RED ? RED_SQUARE : BLUE_SQUARE;
+        return board.spots(n) >= board.neighbors(n) ? base + 1 : base;
+    }
+
+    /** Returns the table of scores of the patterns of squares with at
+     *  most SLOTS neighbors: the score for Red of each pattern when Red
+     *  is to move, followed by those when Blue is.  Tables are computed
+     *  on first use. */
+    private static int[] scores(int slots) {
+        if (slots > Topology.MAX_DEGREE) {
+            throw new IllegalArgumentException("squares have too many"
+                                               + " neighbors");
+        }
+        synchronized (SCORES) {
+            if (SCORES[slots] == null) {
+                int patterns = patterns(slots);
+                int[] table = new int[2 * patterns];
+                int[] states = new int[slots + 1];
+                for (int index = 0; index < patterns; index += 1) {
+                    for (int i = slots, x = index; i >= 0;
+                         i -= 1, x /= STATES) {
+                        states[i] = x % STATES;
+                    }
+                    table[index] = score(states, RED);
+                    table[patterns + index] = score(states, BLUE);
+                }
+                SCORES[slots] = table;
+            }
+            return SCORES[slots];
+        }
+    }
+
+    /** Returns the score for Red of the neighborhood whose center and
+     *  neighbors have the states STATES, when MOVER is to move. */
+    private static int score(int[] states, Color mover) {
+        int center = states[0];
+        if (center == OFF || center == EMPTY) {
+            return 0;
+        }
+        Color owner = center < BLUE_SQUARE ? RED : BLUE;
+        boolean critical = center == RED_SQUARE + 1
+            || center == BLUE_SQUARE + 1;
+        int enemy = owner == RED ? BLUE_SQUARE : RED_SQUARE;
+        int offBoard = 0, enemies = 0, criticalEnemies = 0;
+        for (int d = 1; d < states.length; d += 1) {
+            if (states[d] == OFF) {
+                offBoard += 1;
+            } else if (states[d] == enemy) {
+                enemies += 1;
+            } else if (states[d] == enemy + 1) {
+                enemies += 1;
+                criticalEnemies += 1;
+            }
+        }
+        int value = SQUARE;
+        if (states.length - 1 - offBoard == 2) {
+            value += CORNER;
+        }
+        if (critical && enemies == 0) {
+            value += LOADED;
+        }
+        if (mover == owner) {
+            if (critical) {
+                value += ATTACK * enemies;
+            }
+        } else if (criticalEnemies > 0) {
+            value -= EXPOSED;
+        }
+        return owner == RED ? value : -value;
+    }
+
+    /** Number of states of a square. */
+    static final int STATES = 6;
+
+    /** States of a square: off the board, empty, Red's, or Blue's (the
+     *  colored states being followed by their critical versions). */
+    private static final int OFF = 0, EMPTY = 1, RED_SQUARE = 2,
+        BLUE_SQUARE = 4;
+
+    /** Scores of the features of a pattern: owning a square; owning a
+     *  corner (a square with two neighbors); owning a critical square
+     *  with no enemy neighbors; each enemy square next to one's critical
+     *  square, with one's move; a square of one's next to a critical
+     *  enemy square, with the enemy's move. */
+    private static final int SQUARE = 4, CORNER = 1, LOADED = 1,
+        ATTACK = 3, EXPOSED = 6;
+
+    /** The tables of scores of patterns, indexed by the number of
+     *  neighbors in a pattern, each computed when first needed. */
+    private static final int[][] SCORES = new int[Topology.MAX_DEGREE + 1][];
+
+    /** The board I evaluate. */
+    private final MutableBoard _board;
+    /** The topology of my board when I last rebuilt. */
+    private Topology _topology;
+    /** The table of scores for my topology. */
+    private int[] _scores;
+    /** The number of patterns in _scores for each player to move. */
+    private int _patterns;
+    /** The current pattern of each square. */
+    private int[] _pattern = new int[0];
+    /** The sums of the scores of the current patterns, for Red, when Red
+     *  and when Blue is to move. */
+    private final int[] _total = new int[2];
+
+}
@@ -0,0 +1,228 @@
+package jump61;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static jump61.Color.*;
+import static jump61.GameException.error;
+
+/** Reading and writing of positions as text.  A position may be given in
+ *  the dump format, as a block of lines from "===" to "===" as printed by
+ *  the dump command, or in the compact format: a single line holding the
+ *  board size, the number of moves made, and then the squares in
+ *  square-number order, each written as in a dump, all separated by
+ *  blanks.  For example,
+ *      3 2 1r -- -- -- 1b -- -- -- --
+ *  In a file of positions, a line "move N" sets the number of moves made
+ *  for the dump that follows it (0 if absent), and blank lines and lines
+ *  starting with "#" are ignored.  A square may be over-full, but may
+ *  hold no more than MAX_FILL times as many spots as it has neighbors
+ *  (or than one).  Each position is loaded into its board
+ *  in one step (see MutableBoard.load), so reading a position takes time
+ *  proportional to its number of squares.
+ *  @author Alan Ponte
+ */
+class PositionFormat {
+
+    /** A reader of the positions in a text, one at a time, so that the
+     *  whole of a long file need never be in memory at once. */
+    static class Reader {
+
+        /** A reader of the positions in INPUT. */
+        Reader(BufferedReader input) {
+            _input = input;
+        }
+
+        /** Returns the next position, or null if there are no more.
+         *  Throws GameException on malformed input. */
+        MutableBoard next() throws IOException {
+            for (String line = _input.readLine(); line != null;
+                 line = _input.readLine()) {
+                _lineNum += 1;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] words = line.split("\\s+");
+                if (words[0].equals("move") && words.length == 2) {
+                    _moves = parseInt(words[1], _lineNum);
+                } else if (line.equals("===")) {
+                    List<String[]> rows = new ArrayList<>();
+                    for (line = _input.readLine();
+                         line != null && !line.trim().equals("===");
+                         line = _input.readLine()) {
+                        _lineNum += 1;
+                        rows.add(line.trim().split("\\s+"));
+                    }
+                    _lineNum += 1;
+                    if (line == null) {
+                        throw error("line %d: unterminated board", _lineNum);
+                    }
+                    int moves = _moves;
+                    _moves = 0;
+                    return fromDump(rows, moves, _lineNum);
+                } else {
+                    return fromCompact(words, _lineNum);
+                }
+            }
+            return null;
+        }
+
+        /** The text read. */
+        private final BufferedReader _input;
+        /** Number of lines read. */
+        private int _lineNum;
+        /** Number of moves made for the next dump. */
+        private int _moves;
+    }
+
+    /** Returns all positions in INPUT, in order.  Throws GameException
+     *  on malformed input. */
+    static List<MutableBoard> readAll(BufferedReader input)
+        throws IOException {
+        List<MutableBoard> result = new ArrayList<>();
+        Reader positions = new Reader(input);
+        for (MutableBoard b = positions.next(); b != null;
+             b = positions.next()) {
+            result.add(b);
+        }
+        return result;
+    }
+
+    /** Returns the single position, in either format, in TEXT.  Throws
+     *  GameException if it is malformed or does not hold exactly one
+     *  position. */
+    static MutableBoard parse(String text) {
+        List<MutableBoard> positions;
+        try {
+            positions = readAll(new BufferedReader(new StringReader(text)));
+        } catch (IOException excp) {
+            throw new AssertionError("cannot happen");
+        }
+        if (positions.size() != 1) {
+            throw error("expected one position, found %d",
+                        positions.size());
+        }
+        return positions.get(0);
+    }
+
+    /** Returns the position in compact format in LINE.  Throws
+     *  GameException if it is malformed. */
+    static MutableBoard parseCompact(String line) {
+        return fromCompact(line.trim().split("\\s+"), 1);
+    }
+
+    /** Returns the compact form of the position on BOARD. */
+    static String compact(Board board) {
+        int N = board.size();
+        StringBuilder sb = new StringBuilder();
+        sb.append(N).append(' ').append(board.numMoves());
+        for (int n = 0; n < N * N; n += 1) {
+            sb.append(' ').append(square(board, n));
+        }
+        return sb.toString();
+    }
+
+    /** Returns the dump-format token for square #N of BOARD. */
+    static String square(Board board, int n) {
+        Color c = board.color(n);
+        if (c == WHITE) {
+            return "--";
+        }
+        return board.spots(n) + (c == RED ? "r" : "b");
+    }
+
+    /** Returns the board of a dump whose rows of squares are ROWS, after
+     *  MOVES moves, ending at line LINENUM. */
+    private static MutableBoard fromDump(List<String[]> rows, int moves,
+                                         int lineNum) {
+        int N = rows.size();
+        if (N == 0) {
+            throw error("line %d: empty board", lineNum);
+        }
+        int[] cells = new int[N * N];
+        Topology grid = Topology.grid(N);
+        for (int r = 0; r < N; r += 1) {
+            if (rows.get(r).length != N) {
+                throw error("line %d: board is not square", lineNum);
+            }
+            for (int c = 0; c < N; c += 1) {
+                cells[r * N + c] = parseSquare(rows.get(r)[c],
+                                               most(grid, r * N + c),
+                                               lineNum);
+            }
+        }
+        return load(N, cells, moves);
+    }
+
+    /** Returns the board described by the compact-format WORDS on line
+     *  LINENUM. */
+    private static MutableBoard fromCompact(String[] words, int lineNum) {
+        if (words.length < 2) {
+            throw error("line %d: bad position", lineNum);
+        }
+        int N = parseInt(words[0], lineNum);
+        if (N <= 0 || words.length != 2 + N * N) {
+            throw error("line %d: expected %d squares", lineNum, N * N);
+        }
+        int[] cells = new int[N * N];
+        Topology grid = Topology.grid(N);
+        for (int n = 0; n < N * N; n += 1) {
+            cells[n] = parseSquare(words[n + 2], most(grid, n), lineNum);
+        }
+        return load(N, cells, parseInt(words[1], lineNum));
+    }
+
+    /** Returns the most spots square N of GRID may hold in a position
+     *  read. */
+    private static int most(Topology grid, int n) {
+        return MAX_FILL * Math.max(1, grid.capacity(n));
+    }
+
+    /** Returns the packed cell (see Board.cell) denoted by dump-format
+     *  token TOKEN on line LINENUM, for a square that may hold at most
+     *  MOST spots. */
+    private static int parseSquare(String token, int most, int lineNum) {
+        if (token.equals("--")) {
+            return Board.cell(Defaults.INIT_SPOTS, Defaults.BLANK_COLOR);
+        }
+        int last = token.length() - 1;
+        char color = last >= 0 ? token.charAt(last) : ' ';
+        int spots = 0;
+        boolean ok = last > 0 && (color == 'r' || color == 'b');
+        for (int i = 0; ok && i < last; i += 1) {
+            char c = token.charAt(i);
+            spots = 10 * spots + c - '0';
+            ok = '0' <= c && c <= '9' && spots <= most;
+        }
+        if (!ok) {
+            throw error("line %d: bad square '%s'", lineNum, token);
+        }
+        return Board.cell(spots, color == 'r' ? RED : BLUE);
+    }
+
+    /** Returns a new N x N board holding the squares whose packed cells
+     *  are CELLS, after MOVES moves. */
+    private static MutableBoard load(int N, int[] cells, int moves) {
+        MutableBoard b = new MutableBoard(N);
+        b.load(N, cells, moves);
+        return b;
+    }
+
+    /** Returns the non-negative integer denoted by WORD on line
+     *  LINENUM. */
+    private static int parseInt(String word, int lineNum) {
+        if (!word.matches("\\d+")) {
+            throw error("line %d: expected a number: '%s'", lineNum, word);
+        }
+        return Integer.parseInt(word);
+    }
+
+    /** Multiple of its number of neighbors beyond which a square may not
+     *  be filled. */
+    static final int MAX_FILL = 4;
+
+}
@@ -0,0 +1,594 @@
+package jump61;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.*;
+import static jump61.GameException.error;
+
+/** A database on disk of every position reached in the games added to
+ *  it, with how often each was reached, how often the player to move
+ *  went on to win or lose, and the move most often chosen there by the
+ *  deepest search that reached it.  Positions are identified by their
+ *  canonical keys (see MutableBoard.canonicalKey) together with the
+ *  board's shape and the player to move, so symmetric variants of a
+ *  position share their statistics, and moves are kept in the canonical
+ *  orientation.  The A.I. uses the store as an opening book (see
+ *  bookMove).
+ *
+ *  The store is two files.  The log, named by the path given, is the
+ *  record of everything added: the int LOG_MAGIC, a version byte, and
+ *  then batches, each an int count of updates, the updates (a position
+ *  key as a long, a move in canonical orientation or -1 as an int, the
+ *  search depth as a byte, and the outcome for the player to move as a
+ *  byte: 1, -1, or 0 if the game was abandoned), and the CRC-32 of the
+ *  updates as an int.  It is only ever appended to, a batch at a time.
+ *  The index, whose name is the log's with ".index" appended, holds the
+ *  statistics: a header of HEADER bytes, then a table of 2**k slots of
+ *  SLOT bytes, found by open addressing with linear probing from the
+ *  hash of the key.  It is memory-mapped in segments of at most
+ *  2**SEGMENT_BITS bytes, so a lookup touches a slot or two of the file
+ *  and nothing of it need be on the heap, however many positions it
+ *  holds; it doubles when more than Defaults.STORE_LOAD percent full.
+ *
+ *  Updates are buffered until flush (or until Defaults.STORE_BATCH of
+ *  them are waiting), and then written to the log as one batch before
+ *  they are applied to the index.  The index records how much of the
+ *  log it reflects, and is marked dirty while a batch is being applied,
+ *  so on opening, a clean index is brought up to date from the rest of
+ *  the log, and a dirty or missing one is rebuilt from the whole log.
+ *  A batch cut short by a crash fails its check and is discarded.  Only
+ *  one store at a time may have the files open.
+ *  @author Alan Ponte
+ */
+class PositionStore implements Closeable {
+
+    /** The first four bytes of the log: "J61P". */
+    static final int LOG_MAGIC = 0x4a363150;
+
+    /** The first eight bytes of the index: "J61INDEX". */
+    static final long INDEX_MAGIC = 0x4a3631494e444558L;
+
+    /** The version of the files written. */
+    static final byte VERSION = 1;
+
+    /** Bytes in the index header and in each slot of the index. */
+    static final int HEADER = 64, SLOT = 32;
+
+    /** Log base 2 of the largest segment of the index mapped at once. */
+    static final int SEGMENT_BITS = 30;
+
+    /** The statistics of one position. */
+    static class Entry {
+
+        /** Statistics of a position reached GAMES times, of which the
+         *  player to move went on to win WINS and lose LOSSES, whose best
+         *  known move is MOVE (-1 if none), chosen VOTES more times than
+         *  others by searches of depth DEPTH. */
+        Entry(int games, int wins, int losses, int move, int depth,
+              int votes) {
+            _games = games;
+            _wins = wins;
+            _losses = losses;
+            _move = move;
+            _depth = depth;
+            _votes = votes;
+        }
+
+        /** Returns the number of times the position was reached. */
+        int games() {
+            return _games;
+        }
+
+        /** Returns the number of games the player to move went on to
+         *  win. */
+        int wins() {
+            return _wins;
+        }
+
+        /** Returns the number of games the player to move went on to
+         *  lose. */
+        int losses() {
+            return _losses;
+        }
+
+        /** Returns the best known move, in the orientation of the board
+         *  looked up, or -1 if none is known. */
+        int move() {
+            return _move;
+        }
+
+        /** Returns the depth of the searches that chose move(). */
+        int depth() {
+            return _depth;
+        }
+
+        /** Returns how many more times searches of depth() chose move()
+         *  than chose other moves. */
+        int votes() {
+            return _votes;
+        }
+
+        /** My statistics. */
+        private final int _games, _wins, _losses, _move, _depth, _votes;
+    }
+
+    /** A store whose log is LOG, which is created if it does not exist,
+     *  with an index of at least 2**Defaults.STORE_INDEX_BITS slots. */
+    PositionStore(Path log) throws IOException {
+        this(log, Defaults.STORE_INDEX_BITS);
+    }
+
+    /** A store whose log is LOG, which is created if it does not exist,
+     *  with an index of at least 2**BITS slots. */
+    PositionStore(Path log, int bits) throws IOException {
+        _indexPath = log.resolveSibling(log.getFileName() + ".index");
+        _log = FileChannel.open(log, CREATE, READ, WRITE);
+        try {
+            _lock = _log.tryLock();
+        } catch (OverlappingFileLockException excp) {
+            _lock = null;
+        }
+        if (_lock == null) {
+            _log.close();
+            throw error("position store %s is in use", log);
+        }
+        if (_log.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(LOG_HEADER);
+            header.putInt(LOG_MAGIC).put(VERSION).flip();
+            _log.write(header, 0);
+            _log.force(false);
+        }
+        ByteBuffer header = ByteBuffer.allocate(LOG_HEADER);
+        _log.read(header, 0);
+        header.flip();
+        if (header.remaining() < LOG_HEADER || header.getInt() != LOG_MAGIC
+            || header.get() != VERSION) {
+            close();
+            throw error("%s is not a position store", log);
+        }
+        if (!openIndex()) {
+            createIndex(_indexPath, bits);
+        }
+        replay();
+    }
+
+    /** Returns the key under which the position on BOARD, with the player
+     *  to move, is stored. */
+    static long key(MutableBoard board) {
+        long z = (board.topology().hashCode() * 2L
+                  + (board.whoseMove() == Color.BLUE ? 1 : 0))
+            * 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 31)) * 0xbf58476d1ce4e5b9L;
+        long key = board.canonicalKey() ^ z ^ (z >>> 29);
+        return key == 0 ? 1 : key;
+    }
+
+    /** Returns the statistics of the position on BOARD, or null if it is
+     *  not in the store.  Graph boards are never in the store.  Pending
+     *  updates are not seen until they are flushed. */
+    Entry lookup(MutableBoard board) {
+        if (board.topology().kind() == Topology.Kind.GRAPH) {
+            return null;
+        }
+        long slot = find(key(board));
+        if (slot < 0) {
+            return null;
+        }
+        long at = HEADER + slot * SLOT;
+        int move = getInt(at + MOVE);
+        if (move >= 0) {
+            int g = board.canonicalSymmetry();
+            move = Symmetry.map(Symmetry.inverse(g), move, board.size());
+        }
+        return new Entry(getInt(at + GAMES), getInt(at + WINS),
+                         getInt(at + LOSSES), move, getInt(at + DEPTH),
+                         getInt(at + VOTES));
+    }
+
+    /** Returns the book move for the player to move on BOARD: the best
+     *  known move, if it was chosen by searches at least DEPTH deep and
+     *  is legal, and otherwise -1. */
+    int bookMove(MutableBoard board, int depth) {
+        Entry entry = lookup(board);
+        if (entry == null || entry.move() < 0 || entry.depth() < depth
+            || !board.isLegal(board.whoseMove(), entry.move())) {
+            return -1;
+        }
+        return entry.move();
+    }
+
+    /** Add the positions of the game recorded in RECORD, whose moves after
+     *  its random opening were chosen by searches of depth DEPTH.  The
+     *  updates are pending until flushed. */
+    void add(GameRecord record, int depth) throws IOException {
+        MutableBoard board = record.replay(0);
+        Color winner = record.winner();
+        for (int k = 0; k < record.numMoves(); k += 1) {
+            Color p = board.whoseMove();
+            int move = record.move(k);
+            int outcome = winner == Color.WHITE ? 0 : winner == p ? 1 : -1;
+            if (k < record.opening()) {
+                add(key(board), -1, 0, outcome);
+            } else {
+                add(key(board), Symmetry.map(board.canonicalSymmetry(),
+                                             move, board.size()),
+                    depth, outcome);
+            }
+            board.addSpot(p, move);
+        }
+    }
+
+    /** Write the pending updates to the log as one batch, and then apply
+     *  them to the index. */
+    void flush() throws IOException {
+        if (_pendingCount == 0) {
+            return;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(_pending.array(), 4, _pending.position() - 4);
+        _pending.putInt(0, _pendingCount);
+        _pending.putInt((int) crc.getValue());
+        _pending.flip();
+        long end = _log.size();
+        while (_pending.hasRemaining()) {
+            end += _log.write(_pending, end);
+        }
+        _log.force(false);
+        _pending.position(4);
+        apply(_pending, _pendingCount, end);
+        _pending.clear();
+        _pending.position(4);
+        _pendingCount = 0;
+    }
+
+    /** Returns the number of positions in the store. */
+    long size() {
+        return _count;
+    }
+
+    /** Returns the number of slots in the index. */
+    long capacity() {
+        return 1L << _bits;
+    }
+
+    /** Returns the number of updates not yet flushed. */
+    int pending() {
+        return _pendingCount;
+    }
+
+    /** Flush any pending updates and close my files. */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (_segments != null) {
+                flush();
+                force();
+            }
+        } finally {
+            _segments = null;
+            if (_lock != null) {
+                _lock.release();
+            }
+            _log.close();
+        }
+    }
+
+    /** Queue the update of the position with key KEY: reached again, with
+     *  OUTCOME for its player to move, and MOVE (in canonical orientation;
+     *  -1 for none) chosen there by a search of depth DEPTH. */
+    private void add(long key, int move, int depth, int outcome)
+        throws IOException {
+        if (_pendingCount == Defaults.STORE_BATCH) {
+            flush();
+        }
+        _pending.putLong(key).putInt(move)
+            .put((byte) Math.min(depth, Byte.MAX_VALUE))
+            .put((byte) outcome);
+        _pendingCount += 1;
+    }
+
+    /** Apply the COUNT updates at the current position of UPDATES to the
+     *  index, which then reflects the log up to byte END. */
+    private void apply(ByteBuffer updates, int count, long end)
+        throws IOException {
+        putInt(DIRTY_AT, 1);
+        force();
+        for (int i = 0; i < count; i += 1) {
+            update(updates.getLong(), updates.getInt(), updates.get(),
+                   updates.get());
+        }
+        _applied = end;
+        putLong(COUNT_AT, _count);
+        putLong(APPLIED_AT, _applied);
+        putInt(DIRTY_AT, 0);
+        force();
+    }
+
+    /** Update the position with key KEY as for add(KEY, MOVE, DEPTH,
+     *  OUTCOME). */
+    private void update(long key, int move, int depth, int outcome)
+        throws IOException {
+        long slot = find(key);
+        if (slot < 0) {
+            if ((_count + 1) * 100 > Defaults.STORE_LOAD * capacity()) {
+                grow();
+                slot = find(key);
+            }
+            slot = ~slot;
+            long at = HEADER + slot * SLOT;
+            putLong(at, key);
+            putInt(at + MOVE, -1);
+            _count += 1;
+        }
+        long at = HEADER + slot * SLOT;
+        putInt(at + GAMES, getInt(at + GAMES) + 1);
+        if (outcome > 0) {
+            putInt(at + WINS, getInt(at + WINS) + 1);
+        } else if (outcome < 0) {
+            putInt(at + LOSSES, getInt(at + LOSSES) + 1);
+        }
+        if (move < 0) {
+            return;
+        }
+        int best = getInt(at + MOVE), bestDepth = getInt(at + DEPTH),
+            votes = getInt(at + VOTES);
+        if (best < 0 || depth > bestDepth) {
+            best = move;
+            bestDepth = depth;
+            votes = 1;
+        } else if (depth == bestDepth) {
+            if (move == best) {
+                votes += 1;
+            } else if (votes > 1) {
+                votes -= 1;
+            } else {
+                best = move;
+                votes = 1;
+            }
+        }
+        putInt(at + MOVE, best);
+        putInt(at + DEPTH, bestDepth);
+        putInt(at + VOTES, votes);
+    }
+
+    /** Returns the slot holding KEY, or if there is none, ~S, where S is
+     *  the empty slot at which KEY would be put. */
+    private long find(long key) {
+        long mask = capacity() - 1;
+        long z = key * 0x9e3779b97f4a7c15L;
+        for (long slot = (z ^ (z >>> 32)) & mask; true;
+             slot = (slot + 1) & mask) {
+            long k = getLong(HEADER + slot * SLOT);
+            if (k == key) {
+                return slot;
+            } else if (k == 0) {
+                return ~slot;
+            }
+        }
+    }
+
+    /** Replace my index with one of twice as many slots, holding the
+     *  same entries. */
+    private void grow() throws IOException {
+        MappedByteBuffer[] old = _segments;
+        int oldBits = _bits;
+        long count = _count, applied = _applied;
+        Path grown = _indexPath.resolveSibling(_indexPath.getFileName()
+                                               + ".tmp");
+        createIndex(grown, oldBits + 1);
+        byte[] slot = new byte[SLOT];
+        for (long s = 0; s < 1L << oldBits; s += 1) {
+            long at = HEADER + s * SLOT;
+            MappedByteBuffer segment = old[(int) (at >>> SEGMENT_BITS)];
+            int offset = (int) (at & SEGMENT_MASK);
+            long key = segment.getLong(offset);
+            if (key != 0) {
+                segment.get(offset, slot);
+                long to = HEADER + ~find(key) * SLOT;
+                _segments[(int) (to >>> SEGMENT_BITS)]
+                    .put((int) (to & SEGMENT_MASK), slot);
+            }
+        }
+        _count = count;
+        _applied = applied;
+        putLong(COUNT_AT, _count);
+        putLong(APPLIED_AT, _applied);
+        putInt(DIRTY_AT, 1);
+        force();
+        Files.move(grown, _indexPath, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Map the index, if it exists and is clean, and return true iff it
+     *  does. */
+    private boolean openIndex() throws IOException {
+        if (!Files.exists(_indexPath)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(_indexPath, READ,
+                                                    WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < HEADER
+                || header.getLong() != INDEX_MAGIC
+                || header.getInt() != VERSION) {
+                return false;
+            }
+            int bits = header.getInt();
+            long count = header.getLong(), applied = header.getLong();
+            int dirty = header.getInt();
+            if (dirty != 0 || applied > _log.size() || bits < 1
+                || bits > MAX_BITS
+                || channel.size() < HEADER + ((long) SLOT << bits)) {
+                return false;
+            }
+            map(channel, bits);
+            _count = count;
+            _applied = applied;
+            return true;
+        }
+    }
+
+    /** Create and map an empty index with 2**BITS slots in the file
+     *  PATH, replacing any file there. */
+    private void createIndex(Path path, int bits) throws IOException {
+        if (bits > MAX_BITS) {
+            throw error("position store is full");
+        }
+        Files.deleteIfExists(path);
+        try (FileChannel channel = FileChannel.open(path, CREATE_NEW, READ,
+                                                    WRITE)) {
+            map(channel, bits);
+        }
+        putLong(0, INDEX_MAGIC);
+        putInt(8, VERSION);
+        putInt(12, bits);
+        _count = 0;
+        _applied = LOG_HEADER;
+        putLong(COUNT_AT, _count);
+        putLong(APPLIED_AT, _applied);
+    }
+
+    /** Map the index of 2**BITS slots open on CHANNEL, extending it if
+     *  need be. */
+    private void map(FileChannel channel, int bits) throws IOException {
+        long size = HEADER + ((long) SLOT << bits);
+        int n = (int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS);
+        _segments = new MappedByteBuffer[n];
+        for (int i = 0; i < n; i += 1) {
+            long start = (long) i << SEGMENT_BITS;
+            _segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start,
+                                       Math.min(size - start,
+                                                1L << SEGMENT_BITS));
+        }
+        _bits = bits;
+    }
+
+    /** Apply the batches of the log that the index does not yet reflect.
+     *  A batch that is incomplete or fails its check, and anything after
+     *  it, is cut from the log. */
+    private void replay() throws IOException {
+        long end = _log.size();
+        ByteBuffer count = ByteBuffer.allocate(4);
+        while (_applied < end) {
+            count.clear();
+            if (_log.read(count, _applied) < 4) {
+                break;
+            }
+            int n = count.getInt(0);
+            long length = (long) n * UPDATE + 4;
+            if (n <= 0 || _applied + 4 + length > end) {
+                break;
+            }
+            ByteBuffer batch = ByteBuffer.allocate((int) length);
+            if (!readFully(batch, _applied + 4)) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(batch.array(), 0, n * UPDATE);
+            if (batch.getInt(n * UPDATE) != (int) crc.getValue()) {
+                break;
+            }
+            batch.position(0);
+            apply(batch, n, _applied + 4 + length);
+        }
+        if (_applied < end) {
+            _log.truncate(_applied);
+            _log.force(false);
+        }
+    }
+
+    /** Fill BUFFER from the log, starting at byte AT.  Returns false if
+     *  the log ends first. */
+    private boolean readFully(ByteBuffer buffer, long at) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = _log.read(buffer, at + buffer.position());
+            if (n < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Write my index's changed pages to disk. */
+    private void force() {
+        for (MappedByteBuffer segment : _segments) {
+            segment.force();
+        }
+    }
+
+    /** Returns the long at byte AT of the index. */
+    private long getLong(long at) {
+        return _segments[(int) (at >>> SEGMENT_BITS)]
+            .getLong((int) (at & SEGMENT_MASK));
+    }
+
+    /** Returns the int at byte AT of the index. */
+    private int getInt(long at) {
+        return _segments[(int) (at >>> SEGMENT_BITS)]
+            .getInt((int) (at & SEGMENT_MASK));
+    }
+
+    /** Set the long at byte AT of the index to X. */
+    private void putLong(long at, long x) {
+        _segments[(int) (at >>> SEGMENT_BITS)]
+            .putLong((int) (at & SEGMENT_MASK), x);
+    }
+
+    /** Set the int at byte AT of the index to X. */
+    private void putInt(long at, int x) {
+        _segments[(int) (at >>> SEGMENT_BITS)]
+            .putInt((int) (at & SEGMENT_MASK), x);
+    }
+
+    /** Bytes in the log header and in each update in the log. */
+    private static final int LOG_HEADER = 5, UPDATE = 14;
+
+    /** Offsets of the number of entries, the length of the log reflected,
+     *  and the dirty flag in the index header. */
+    private static final int COUNT_AT = 16, APPLIED_AT = 24, DIRTY_AT = 32;
+
+    /** Offsets of the fields of a slot after its key. */
+    private static final int GAMES = 8, WINS = 12, LOSSES = 16, MOVE = 20,
+        DEPTH = 24, VOTES = 28;
+
+    /** Mask selecting an offset within a segment. */
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+    /** Log base 2 of the most slots an index may have. */
+    private static final int MAX_BITS = 36;
+
+    /** The path of the index. */
+    private final Path _indexPath;
+    /** The log, open for reading and appending. */
+    private final FileChannel _log;
+    /** My hold on the log. */
+    private FileLock _lock;
+    /** The segments of the mapped index, in order, or null if it is not
+     *  open. */
+    private MappedByteBuffer[] _segments;
+    /** Log base 2 of the number of slots in the index. */
+    private int _bits;
+    /** Number of positions in the index. */
+    private long _count;
+    /** Bytes of the log reflected in the index. */
+    private long _applied;
+    /** The pending updates, after room for their count. */
+    private final ByteBuffer _pending =
+        ByteBuffer.allocate(4 + Defaults.STORE_BATCH * UPDATE + 4)
+        .position(4);
+    /** Number of pending updates. */
+    private int _pendingCount;
+
+}
@@ -0,0 +1,353 @@
+package jump61;
+
+import java.util.Arrays;
+
+import static jump61.Color.*;
+
+/** A solver that proves or disproves that a player can force a win
+ *  within a given number of moves, by depth-first proof-number search
+ *  (df-pn).  Each position is given a proof number, the least number of
+ *  unsolved positions that must be shown won for the player to move to
+ *  prove it won for that player, and a disproof number, the least
+ *  number that must be shown lost to prove it lost; these are computed
+ *  from those of its successors (negamax style: a position's proof
+ *  number is the least disproof number of its successors, and its
+ *  disproof number the sum of their proof numbers).  The search always
+ *  expands the successor on which proving or disproving the position
+ *  most cheaply depends, and stays below a position until its numbers
+ *  pass thresholds set by its parent, so it needs memory only for its
+ *  table.  Since one chain reaction often decides a Jump61 endgame,
+ *  this finds forced wins that a depth-limited minimax, which must look
+ *  at every reply to every move, finds late or not at all.
+ *
+ *  Positions from which the winner must make more than the given number
+ *  of moves count as not won, and positions are keyed by canonical
+ *  position (see Symmetry), player to move, and moves remaining, so
+ *  results are exact for the given number of moves.  The table has a
+ *  fixed size, and is divided into buckets of four entries; when a
+ *  bucket is full, the entry replaced is the one that took the least
+ *  work to find, preferring positions not yet solved.  Since losing
+ *  entries may make the search do work again, a full table may keep
+ *  a solution from being found within the node limit.  Moves are made
+ *  on the board as trial moves (see MutableBoard.tryMove), and the
+ *  board is the same after each solution as before.
+ *  @author Alan Ponte
+ */
+class ProofSearch {
+
+    /** Results of solve: the player is shown to win, shown not to win,
+     *  or neither within the node limit. */
+    static final int PROVEN = 1, DISPROVEN = -1, UNKNOWN = 0;
+
+    /** A solver over positions on BOARD with a table of 2**BITS
+     *  entries. */
+    ProofSearch(MutableBoard board, int bits) {
+        _board = board;
+        int size = 1 << bits;
+        _mask = size - 1;
+        _keys = new long[size];
+        _proof = new int[size];
+        _disproof = new int[size];
+        _work = new int[size];
+    }
+
+    /** A solver over positions on BOARD with a table of the default
+     *  size. */
+    ProofSearch(MutableBoard board) {
+        this(board, Defaults.SOLVER_TABLE_BITS);
+    }
+
+    /** Returns true iff BOARD is far enough into the endgame for the
+     *  A.I. to try to solve it: at least Defaults.SOLVER_OWNED percent
+     *  of its squares are owned. */
+    static boolean endgame(Board board) {
+        int squares = board.size() * board.size();
+        int owned = squares - board.numOfColor(WHITE);
+        return 100L * owned >= (long) Defaults.SOLVER_OWNED * squares;
+    }
+
+    /** Try to prove that P, who is to move, can win on my board within
+     *  MOVES of P's moves, visiting at most MAXNODES positions.  Returns
+     *  PROVEN, DISPROVEN, or UNKNOWN.  If PROVEN, the winning line is
+     *  then in line(). */
+    int solve(Color p, int moves, long maxNodes) {
+        long start = System.nanoTime();
+        MutableBoard b = _board;
+        int depth = 2 * moves - 1;
+        _attacker = p;
+        _maxNodes = maxNodes;
+        _nodes = 0;
+        _lineLength = 0;
+        reserve(depth, b.size() * b.size());
+        if (!b.topology().equals(_topology)) {
+            clear();
+            _topology = b.topology();
+        }
+        int result;
+        if (b.won()) {
+            result = b.color(0) == p ? PROVEN : DISPROVEN;
+        } else {
+            mid(p, depth, 0, INF, INF);
+            int slot = find(key(p, depth));
+            if (slot >= 0 && _proof[slot] == 0) {
+                result = PROVEN;
+                findLine(p, depth);
+            } else if (slot >= 0 && _disproof[slot] == 0) {
+                result = DISPROVEN;
+            } else {
+                result = UNKNOWN;
+            }
+        }
+        _nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /** Returns the board I search. */
+    MutableBoard getBoard() {
+        return _board;
+    }
+
+    /** Returns the winning line found by the last solve that returned
+     *  PROVEN: moves by the winner and the loser's longest defenses,
+     *  alternately.  The array is reused by later calls. */
+    int[] line() {
+        return _line;
+    }
+
+    /** Returns the number of moves in line(). */
+    int lineLength() {
+        return _lineLength;
+    }
+
+    /** Returns the number of positions visited by the last solve. */
+    long nodes() {
+        return _nodes;
+    }
+
+    /** Returns the time in nanoseconds taken by the last solve. */
+    long nanos() {
+        return _nanos;
+    }
+
+    /** Remove all entries from my table. */
+    void clear() {
+        Arrays.fill(_work, 0);
+    }
+
+    /** Expand the position on my board, with P to move and DEPTH moves
+     *  left, which is PLY moves below the root and not won, until its
+     *  proof number reaches THPROOF or its disproof number reaches
+     *  THDISPROOF, or the node limit is reached; then record its numbers
+     *  in my table. */
+    private void mid(Color p, int depth, int ply, int thProof,
+                     int thDisproof) {
+        MutableBoard b = _board;
+        long start = _nodes;
+        _nodes += 1;
+        int[] moves = _arena.moves(ply);
+        long[] keys = _childKeys[ply];
+        int[] fixed = _fixed[ply];
+        Color opp = p.opposite();
+        int count = 0;
+        for (int i = b.nextLegal(p, 0); i >= 0; i = b.nextLegal(p, i + 1)) {
+            b.tryMove(p, i, _arena);
+            moves[count] = i;
+            keys[count] = key(opp, depth - 1);
+            if (b.won()) {
+                fixed[count] = LOST;
+            } else if (depth == 1) {
+                fixed[count] = opp == _attacker ? LOST : WON;
+            } else {
+                fixed[count] = OPEN;
+            }
+            b.untry(_arena);
+            count += 1;
+        }
+        long key = key(p, depth);
+        while (true) {
+            int proof = INF, second = INF, best = -1, bestProof = 0;
+            long disproof = 0;
+            for (int c = 0; c < count; c += 1) {
+                int childProof, childDisproof;
+                if (fixed[c] == OPEN) {
+                    int slot = find(keys[c]);
+                    childProof = slot < 0 ? 1 : _proof[slot];
+                    childDisproof = slot < 0 ? 1 : _disproof[slot];
+                } else {
+                    childProof = fixed[c] == WON ? 0 : INF;
+                    childDisproof = fixed[c] == WON ? INF : 0;
+                }
+                if (childDisproof < proof) {
+                    second = proof;
+                    proof = childDisproof;
+                    best = c;
+                    bestProof = childProof;
+                } else if (childDisproof < second) {
+                    second = childDisproof;
+                }
+                disproof = childProof == INF || disproof == INF ? INF
+                    : Math.min(disproof + childProof, INF - 1);
+            }
+            if (proof >= thProof || disproof >= thDisproof
+                || _nodes >= _maxNodes) {
+                store(key, proof, (int) disproof, _nodes - start);
+                return;
+            }
+            b.tryMove(p, moves[best], _arena);
+            mid(opp, depth - 1, ply + 1,
+                (int) Math.min(INF, thDisproof - disproof + bestProof),
+                (int) Math.min(thProof, (long) second + 1));
+            b.untry(_arena);
+        }
+    }
+
+    /** Set line() to the line that wins for P, my attacker, from my
+     *  board with DEPTH moves left, which has been proven won. */
+    private void findLine(Color p, int depth) {
+        MutableBoard b = _board;
+        while (depth > 0 && !b.won()) {
+            int move = -1, most = -1;
+            for (int i = b.nextLegal(p, 0); i >= 0;
+                 i = b.nextLegal(p, i + 1)) {
+                b.tryMove(p, i, _arena);
+                boolean won = b.won();
+                int slot = won ? -1 : find(key(p.opposite(), depth - 1));
+                b.untry(_arena);
+                if (p == _attacker) {
+                    if (won || slot >= 0 && _disproof[slot] == 0) {
+                        move = i;
+                        break;
+                    }
+                } else if (slot >= 0 && _proof[slot] == 0
+                           && _work[slot] > most) {
+                    move = i;
+                    most = _work[slot];
+                }
+            }
+            if (move < 0) {
+                break;
+            }
+            _line[_lineLength++] = move;
+            b.tryMove(p, move, _arena);
+            p = p.opposite();
+            depth -= 1;
+        }
+        for (int k = 0; k < _lineLength; k += 1) {
+            b.untry(_arena);
+        }
+    }
+
+    /** Make room in my buffers for lines of DEPTH moves on boards of
+     *  SQUARES squares. */
+    private void reserve(int depth, int squares) {
+        _arena.reserve(depth, squares);
+        if (_childKeys.length <= depth
+            || _childKeys[0].length < squares) {
+            _childKeys = new long[depth + 1][squares];
+            _fixed = new int[depth + 1][squares];
+        }
+        if (_line.length < depth) {
+            _line = new int[depth];
+        }
+    }
+
+    /** Returns the key of the position on my board with P to move and
+     *  DEPTH moves left. */
+    private long key(Color p, int depth) {
+        long z = ((long) depth << 2 | (p == BLUE ? 1 : 0)
+                  | (_attacker == BLUE ? 2 : 0)) * 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 31)) * 0xbf58476d1ce4e5b9L;
+        return _board.canonicalKey() ^ z ^ (z >>> 29);
+    }
+
+    /** Returns the slot holding KEY, or -1 if KEY is not present. */
+    private int find(long key) {
+        int first = bucket(key);
+        for (int i = first; i < first + BUCKET; i += 1) {
+            if (_work[i] > 0 && _keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Record that the position with key KEY has proof and disproof
+     *  numbers PROOF and DISPROOF, found with WORK more nodes of search.
+     *  Of the slots of KEY's bucket, the one already holding KEY is used,
+     *  or else an empty one, or else the one holding the least work,
+     *  preferring unsolved positions to solved ones. */
+    private void store(long key, int proof, int disproof, long work) {
+        int first = bucket(key);
+        int victim = first;
+        long least = Long.MAX_VALUE;
+        for (int i = first; i < first + BUCKET; i += 1) {
+            if (_work[i] == 0 || _keys[i] == key) {
+                victim = i;
+                if (_work[i] > 0) {
+                    work += _work[i];
+                }
+                break;
+            }
+            long cost = _work[i];
+            if (_proof[i] == 0 || _disproof[i] == 0) {
+                cost += Integer.MAX_VALUE;
+            }
+            if (cost < least) {
+                least = cost;
+                victim = i;
+            }
+        }
+        _keys[victim] = key;
+        _proof[victim] = proof;
+        _disproof[victim] = disproof;
+        _work[victim] = (int) Math.min(work, Integer.MAX_VALUE);
+    }
+
+    /** Returns the first slot of the bucket for KEY. */
+    private int bucket(long key) {
+        return (int) (key ^ (key >>> 32)) & _mask & ~(BUCKET - 1);
+    }
+
+    /** Number of slots in which a key may be stored. */
+    private static final int BUCKET = 4;
+
+    /** An infinite proof or disproof number. */
+    private static final int INF = Integer.MAX_VALUE;
+
+    /** States of a successor: not yet solved, won by its player to move,
+     *  or lost by it. */
+    private static final int OPEN = 0, WON = 1, LOST = 2;
+
+    /** The board searched. */
+    private final MutableBoard _board;
+    /** Undo records of my trial moves, and my per-ply move buffers. */
+    private final SearchArena _arena = new SearchArena(1, 1);
+    /** The keys of the successors of the position at each ply. */
+    private long[][] _childKeys = new long[0][0];
+    /** The states (OPEN, WON, LOST) of the successors at each ply. */
+    private int[][] _fixed = new int[0][0];
+    /** The topology of the board at the last solve. */
+    private Topology _topology;
+    /** The player trying to win. */
+    private Color _attacker;
+    /** Node limit of the current solve. */
+    private long _maxNodes;
+    /** Positions visited by the last solve. */
+    private long _nodes;
+    /** Time taken by the last solve. */
+    private long _nanos;
+    /** The winning line found by the last solve. */
+    private int[] _line = new int[0];
+    /** Number of moves in _line. */
+    private int _lineLength;
+    /** Mask selecting a slot number from a hash. */
+    private final int _mask;
+    /** The keys of my table's entries. */
+    private final long[] _keys;
+    /** Proof and disproof numbers of my table's entries. */
+    private final int[] _proof, _disproof;
+    /** Nodes searched to find each entry's numbers; 0 for an empty
+     *  entry. */
+    private final int[] _work;
+
+}
@@ -0,0 +1,579 @@
+package jump61;
+
+import java.util.Arrays;
+
+import static jump61.Color.*;
+
+/** A game-tree search over a MutableBoard: negamax with alpha-beta
+ *  pruning, principal variation search, a transposition table keyed by
+ *  canonical position, a quiescence search at the horizon, and iterative
+ *  deepening with aspiration windows.  Values are from the point of view
+ *  of the player to move; WIN and -WIN denote won and lost positions.
+ *
+ *  The search may also be selective (see setNullMove and
+ *  setReductions).  With null-move pruning, a player who would still be
+ *  at or above beta after passing, searched less deeply, is taken to be
+ *  at or above beta without trying its moves.  Since a pass is never
+ *  legal, this is wrong where every move hurts the player (zugzwang), so
+ *  it is tried only well before the endgame (see ProofSearch.endgame),
+ *  when there are empty squares to play quietly, and a cutoff is only
+ *  taken once an ordinary search of reduced depth confirms it.  With
+ *  late-move reductions, quiet moves (those that start no chain
+ *  reaction) searched late in the move order are searched one ply less
+ *  deeply, and searched again to full depth if they then beat alpha.
+ *  The contents of the board are the same after each search as before.
+ *  Moves are tried on the board as trial moves recorded in a SearchArena
+ *  that also holds the search's move buffers, so that a search allocates
+ *  nothing once the arena has grown to fit the deepest search and the
+ *  largest board seen.
+ *  @author Alan Ponte
+ */
+class Search {
+
+    /** The value of a won position. */
+    static final int WIN = Integer.MAX_VALUE;
+
+    /** A search over positions on BOARD. */
+    Search(MutableBoard board) {
+        _board = board;
+    }
+
+    /** Returns the board I search. */
+    MutableBoard getBoard() {
+        return _board;
+    }
+
+    /** Returns the best move for P found by searching to depth DEPTH,
+     *  deepening one ply at a time.  Each iteration after the first
+     *  searches a window of Defaults.ASPIRATION_WINDOW squares (see
+     *  Weights.unit) around the value of the previous one, and searches
+     *  again with a full window if the value falls outside it. */
+    int bestMove(Color p, int depth) {
+        checkTopology();
+        _arena.reserve(depth, _board.size() * _board.size());
+        _nodes = _quiescentNodes = 0;
+        clearStats();
+        if (_depthNodes.length <= depth) {
+            _depthNodes = new long[depth + 1];
+        }
+        Arrays.fill(_depthNodes, 0);
+        _rootMove = -1;
+        int value = 0;
+        long window = (long) Defaults.ASPIRATION_WINDOW
+            * (_patterns == null ? _weights.unit() : 1);
+        for (int d = 1; d <= depth; d += 1) {
+            long before = _nodes;
+            if (d == 1) {
+                value = search(p, d, -WIN, WIN, 0);
+            } else {
+                int alpha = clamp((long) value - window);
+                int beta = clamp((long) value + window);
+                int v = search(p, d, alpha, beta, 0);
+                if (v <= alpha || v >= beta) {
+                    v = search(p, d, -WIN, WIN, 0);
+                }
+                value = v;
+            }
+            _depthNodes[d] = _nodes - before;
+            if (Math.abs(value) == WIN) {
+                break;
+            }
+        }
+        _value = value;
+        return _rootMove;
+    }
+
+    /** Find the (up to) K best moves for P by searching each move to
+     *  depth DEPTH, deepening one ply at a time.  Stores the moves in
+     *  MOVES and their values in VALUES, best first, and returns how many
+     *  there are.  Moves that cannot be among the K best are searched only
+     *  with a window that proves as much. */
+    int bestMoves(Color p, int depth, int k, int[] moves, int[] values) {
+        MutableBoard b = _board;
+        int size = b.size();
+        checkTopology();
+        _arena.reserve(depth, size * size);
+        _nodes = _quiescentNodes = 0;
+        clearStats();
+        int count = 0;
+        int[] order = _arena.moves(0);
+        for (int d = 1; d <= depth; d += 1) {
+            int known = count, n = 0;
+            for (int j = 0; j < known; j += 1) {
+                order[n++] = moves[j];
+            }
+            for (int i = b.nextLegal(p, 0); i >= 0; i = b.nextLegal(p, i + 1)) {
+                if (!contains(moves, known, i)) {
+                    order[n++] = i;
+                }
+            }
+            count = 0;
+            for (int j = 0; j < n; j += 1) {
+                int i = order[j];
+                int floor = count < k ? -WIN : values[count - 1];
+                make(p, i);
+                int v = -search(p.opposite(), d - 1, -WIN,
+                                floor == -WIN ? WIN : -floor, 1);
+                unmake();
+                if (count < k || v > floor) {
+                    int pos = Math.min(count, k - 1);
+                    while (pos > 0 && values[pos - 1] < v) {
+                        moves[pos] = moves[pos - 1];
+                        values[pos] = values[pos - 1];
+                        pos -= 1;
+                    }
+                    moves[pos] = i;
+                    values[pos] = v;
+                    count = Math.min(count + 1, k);
+                }
+            }
+        }
+        return count;
+    }
+
+    /** Returns true iff one of the first N elements of A is X. */
+    private static boolean contains(int[] a, int n, int x) {
+        for (int i = 0; i < n; i += 1) {
+            if (a[i] == x) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the value for P of my board, searched to depth D, if it
+     *  lies strictly between ALPHA and BETA.  Otherwise, returns a value
+     *  <= ALPHA or >= BETA, respectively.  PLY is the distance from the
+     *  root of the search. */
+    int search(Color p, int d, int alpha, int beta, int ply) {
+        return search(p, d, alpha, beta, ply, true);
+    }
+
+    /** As for search(P, D, ALPHA, BETA, PLY), but trying a null move
+     *  first only if NULLOK. */
+    private int search(Color p, int d, int alpha, int beta, int ply,
+                       boolean nullOk) {
+        MutableBoard b = _board;
+        _nodes += 1;
+        if (b.won()) {
+            return staticEval(p);
+        }
+        if (d == 0) {
+            if (!_quiescence) {
+                return staticEval(p);
+            }
+            _quiescenceEnd = _quiescentNodes + Defaults.QUIESCENCE_NODES;
+            return quiesce(p, alpha, beta);
+        }
+        int size = b.size();
+        int sym = b.canonicalSymmetry();
+        long key = positionKey(p, sym);
+        int hint = -1;
+        int slot = _table.find(key);
+        if (slot >= 0) {
+            int value = _table.value(slot);
+            if (_table.move(slot) >= 0) {
+                hint = Symmetry.map(Symmetry.inverse(sym), _table.move(slot),
+                                    size);
+            }
+            byte kind = _table.kind(slot);
+            if (ply > 0 && _table.depth(slot) >= d
+                && (kind == TranspositionTable.EXACT
+                    || kind == TranspositionTable.LOWER && value >= beta
+                    || kind == TranspositionTable.UPPER && value <= alpha)) {
+                return value;
+            }
+        }
+
+        if (nullOk && nullMoveSafe(p, d, alpha, beta, ply)) {
+            int r = Defaults.NULL_MOVE_REDUCTION;
+            _nullMoves += 1;
+            int v = -search(p.opposite(), d - 1 - r, -beta, -beta + 1,
+                            ply + 1, false);
+            if (v >= beta) {
+                v = search(p, d - r, beta - 1, beta, ply, false);
+                if (v >= beta) {
+                    _nullCutoffs += 1;
+                    return v;
+                }
+                _nullRefuted += 1;
+            }
+        }
+
+        int alpha0 = alpha;
+        int best = -WIN, bestMove = -1;
+        int searched = 0;
+        if (hint >= 0 && !b.isLegal(p, hint)) {
+            hint = -1;
+        }
+        for (int i = hint >= 0 ? hint : b.nextLegal(p, 0); i >= 0;
+             i = nextMove(p, i, hint)) {
+            boolean reduce = _reductions && d >= Defaults.REDUCTION_DEPTH
+                && searched >= Defaults.REDUCTION_MOVES && i != hint
+                && b.spots(i) < b.neighbors(i);
+            make(p, i);
+            int v;
+            if (searched == 0) {
+                v = -search(p.opposite(), d - 1, -beta, -alpha, ply + 1);
+            } else {
+                int r = reduce ? 1 : 0;
+                v = -search(p.opposite(), d - 1 - r, -alpha - 1, -alpha,
+                            ply + 1);
+                if (reduce) {
+                    _reductionCount += 1;
+                    if (v > alpha) {
+                        _researches += 1;
+                        v = -search(p.opposite(), d - 1, -alpha - 1, -alpha,
+                                    ply + 1);
+                    }
+                }
+                if (v > alpha && v < beta && beta - alpha > 1) {
+                    v = -search(p.opposite(), d - 1, -beta, -alpha, ply + 1);
+                }
+            }
+            unmake();
+            searched += 1;
+            if (v > best || bestMove < 0) {
+                best = v;
+                bestMove = i;
+                if (v > alpha) {
+                    alpha = v;
+                    if (alpha >= beta) {
+                        break;
+                    }
+                }
+            }
+        }
+        if (ply == 0) {
+            _rootMove = bestMove;
+        }
+        byte kind = best <= alpha0 ? TranspositionTable.UPPER
+            : best >= beta ? TranspositionTable.LOWER
+            : TranspositionTable.EXACT;
+        _table.store(key, d, best, kind,
+                     bestMove < 0 ? -1 : Symmetry.map(sym, bestMove, size));
+        return best;
+    }
+
+    /** Returns true iff a null move by P may be tried at a node of depth
+     *  D and window ALPHA..BETA, PLY moves below the root: null moves are
+     *  on, the node is not the root, is deep enough, and has a null
+     *  window short of a win, P's static value is at least BETA, and the
+     *  position is far enough from the endgame that P is not in
+     *  zugzwang. */
+    private boolean nullMoveSafe(Color p, int d, int alpha, int beta,
+                                 int ply) {
+        MutableBoard b = _board;
+        return _nullMove && ply > 0 && d >= Defaults.NULL_MOVE_DEPTH
+            && beta - alpha == 1 && Math.abs(beta) < WIN
+            && b.numOfColor(WHITE) > 0 && !ProofSearch.endgame(b)
+            && staticEval(p) >= beta;
+    }
+
+    /** Returns the legal move for P to search after move I, where moves
+     *  are searched in order of square number, except that HINT, if not
+     *  -1, is searched first.  Returns -1 if there are no more. */
+    private int nextMove(Color p, int i, int hint) {
+        int next = _board.nextLegal(p, i == hint ? 0 : i + 1);
+        if (next >= 0 && next == hint) {
+            next = _board.nextLegal(p, next + 1);
+        }
+        return next;
+    }
+
+    /** Returns the value for P of my board when only explosive moves
+     *  (those adding a spot to one of P's squares at critical mass) are
+     *  considered, so that positions in the middle of a chain reaction
+     *  are not judged by staticEval alone.  P may also stop ("stand pat")
+     *  at the static value.  The result is bounded by ALPHA and BETA as
+     *  for search.  Gives up, returning the static value, once
+     *  Defaults.QUIESCENCE_NODES nodes have been visited below the
+     *  current horizon node, so that every horizon node, in every
+     *  iteration, gets the same budget. */
+    int quiesce(Color p, int alpha, int beta) {
+        MutableBoard b = _board;
+        _quiescentNodes += 1;
+        int best = staticEval(p);
+        if (b.won() || best >= beta
+            || _quiescentNodes >= _quiescenceEnd) {
+            return best;
+        }
+        alpha = Math.max(alpha, best);
+        for (int i = b.nextCritical(p, 0);
+             i >= 0 && _quiescentNodes < _quiescenceEnd;
+             i = b.nextCritical(p, i + 1)) {
+            make(p, i);
+            int v = -quiesce(p.opposite(), -beta, -alpha);
+            unmake();
+            if (v > best) {
+                best = v;
+                alpha = Math.max(alpha, v);
+                if (alpha >= beta) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /** Returns the heuristic value of my board for player P, who is to
+     *  move, under my pattern evaluator, if I have one, and otherwise
+     *  under my weights. Higher is better for P. */
+    int staticEval(Color p) {
+        MutableBoard b = _board;
+        if (b.won()) {
+            return b.color(0) == p ? WIN : -WIN;
+        }
+        if (_patterns != null) {
+            return _patterns.evaluate(p);
+        }
+        return _weights.evaluate(b, p);
+    }
+
+    /** Evaluate positions using PATTERNS, which must evaluate my board,
+     *  or using my weights if PATTERNS is null.  Clears my transposition
+     *  table. */
+    void setPatterns(PatternEval patterns) {
+        assert patterns == null || patterns.getBoard() == _board;
+        _patterns = patterns;
+        _table.clear();
+    }
+
+    /** Remove all entries from my transposition table, so that the
+     *  results of my next search do not depend on earlier ones. */
+    void clearTable() {
+        _table.clear();
+    }
+
+    /** Evaluate positions using WEIGHTS.  Clears my transposition table,
+     *  whose values depend on them. */
+    void setWeights(Weights weights) {
+        _weights = weights;
+        _table.clear();
+    }
+
+    /** Returns the weights of my static evaluation. */
+    Weights weights() {
+        return _weights;
+    }
+
+    /** Returns the principal variation for P after the last search, as
+     *  found in the transposition table, in PV, returning its length
+     *  (at most PV.length). */
+    int principalVariation(Color p, int[] pv) {
+        MutableBoard b = _board;
+        int n;
+        for (n = 0; n < pv.length && !b.won(); n += 1) {
+            int sym = b.canonicalSymmetry();
+            int slot = _table.find(positionKey(p, sym));
+            if (slot < 0 || _table.move(slot) < 0) {
+                break;
+            }
+            int move = Symmetry.map(Symmetry.inverse(sym), _table.move(slot),
+                                    b.size());
+            if (!b.isLegal(p, move)) {
+                break;
+            }
+            pv[n] = move;
+            make(p, move);
+            p = p.opposite();
+        }
+        for (int k = 0; k < n; k += 1) {
+            unmake();
+        }
+        return n;
+    }
+
+    /** Make P's move to square N on my board, to be taken back by
+     *  unmake. */
+    private void make(Color p, int n) {
+        if (_trialMoves) {
+            _board.tryMove(p, n, _arena);
+        } else {
+            _board.addSpot(p, n);
+        }
+    }
+
+    /** Take back the last move made by make. */
+    private void unmake() {
+        if (_trialMoves) {
+            _board.untry(_arena);
+        } else {
+            _board.undo();
+        }
+    }
+
+    /** Make moves during searches as trial moves recorded in my arena iff
+     *  ON, and otherwise as ordinary moves recorded (and undone) in my
+     *  board's history. */
+    void setTrialMoves(boolean on) {
+        _trialMoves = on;
+    }
+
+    /** Returns the arena holding my buffers and undo records. */
+    SearchArena arena() {
+        return _arena;
+    }
+
+    /** Returns the value found by the last call of bestMove. */
+    int value() {
+        return _value;
+    }
+
+    /** Turn the quiescence search at the search horizon on iff ON. */
+    void setQuiescence(boolean on) {
+        _quiescence = on;
+    }
+
+    /** Turn verified null-move pruning on iff ON. */
+    void setNullMove(boolean on) {
+        _nullMove = on;
+    }
+
+    /** Turn late-move reductions on iff ON. */
+    void setReductions(boolean on) {
+        _reductions = on;
+    }
+
+    /** Returns the number of null moves tried by the last search. */
+    long nullMoves() {
+        return _nullMoves;
+    }
+
+    /** Returns the number of nodes the last search cut off after a null
+     *  move and a verifying search. */
+    long nullCutoffs() {
+        return _nullCutoffs;
+    }
+
+    /** Returns the number of null-move cutoffs that the last search's
+     *  verifying searches refuted. */
+    long nullRefuted() {
+        return _nullRefuted;
+    }
+
+    /** Returns the number of moves the last search searched at reduced
+     *  depth. */
+    long reductions() {
+        return _reductionCount;
+    }
+
+    /** Returns the number of reduced moves that the last search searched
+     *  again at full depth. */
+    long researches() {
+        return _researches;
+    }
+
+    /** Reset the counts of selective-search events. */
+    private void clearStats() {
+        _nullMoves = _nullCutoffs = _nullRefuted = 0;
+        _reductionCount = _researches = 0;
+    }
+
+    /** Returns the number of full-width search nodes visited by the last
+     *  call of bestMove. */
+    long nodes() {
+        return _nodes;
+    }
+
+    /** Returns the number of full-width nodes visited by the iteration of
+     *  depth D of the last call of bestMove, or 0 if there was none. */
+    long nodes(int d) {
+        return d < _depthNodes.length ? _depthNodes[d] : 0;
+    }
+
+    /** Returns the number of quiescence search nodes visited by the last
+     *  call of bestMove. */
+    long quiescentNodes() {
+        return _quiescentNodes;
+    }
+
+    /** Returns the transposition table I use. */
+    TranspositionTable table() {
+        return _table;
+    }
+
+    /** Clear my transposition table if my board's topology has changed
+     *  since the last search, since the same contents have different
+     *  values on boards of different shapes. */
+    private void checkTopology() {
+        Topology topology = _board.topology();
+        if (!topology.equals(_topology)) {
+            _table.clear();
+            _topology = topology;
+        }
+    }
+
+    /** Returns the key of my table's entry for the position on my board,
+     *  seen in orientation SYM (see Symmetry), with P to move.  Keys
+     *  include the board's shape, so that entries for boards of different
+     *  sizes or topologies, whose moves are numbered differently, are
+     *  never mistaken for each other. */
+    private long positionKey(Color p, int sym) {
+        Topology topology = _board.topology();
+        if (topology != _keyTopology) {
+            long z = (topology.hashCode() + 1L) * 0x9e3779b97f4a7c15L;
+            z = (z ^ (z >>> 31)) * 0xbf58476d1ce4e5b9L;
+            _shapeKey = z ^ (z >>> 29);
+            _keyTopology = topology;
+        }
+        return _board.key(sym) ^ _shapeKey ^ (p == BLUE ? BLUE_TO_MOVE : 0);
+    }
+
+    /** Returns X, limited to the range of search values. */
+    private static int clamp(long x) {
+        return (int) Math.max(-WIN, Math.min(WIN, x));
+    }
+
+    /** The topology for which _shapeKey was computed. */
+    private Topology _keyTopology;
+    /** Mixed into position keys on boards of shape _keyTopology. */
+    private long _shapeKey;
+
+    /** Mixed into position keys when Blue is to move. */
+    private static final long BLUE_TO_MOVE = 0x2545f4914f6cdd1dL;
+
+    /** The board searched. */
+    private final MutableBoard _board;
+    /** The weights of the static evaluation. */
+    private Weights _weights = Weights.standard();
+    /** The topology of the board at the last search. */
+    private Topology _topology;
+    /** The pattern evaluator used instead of my weights, or null. */
+    private PatternEval _patterns;
+    /** True iff positions at the search horizon are extended with a
+     *  quiescence search. */
+    private boolean _quiescence = Defaults.QUIESCENCE;
+    /** True iff null-move pruning is on. */
+    private boolean _nullMove = Defaults.NULL_MOVE;
+    /** True iff late-move reductions are on. */
+    private boolean _reductions = Defaults.REDUCTIONS;
+    /** Results of earlier searches, keyed by canonical position. */
+    private final TranspositionTable _table =
+        new TranspositionTable(Defaults.TABLE_BITS);
+    /** My move buffers and the undo records of my trial moves. */
+    private final SearchArena _arena =
+        new SearchArena(1, Defaults.BOARD_SIZE * Defaults.BOARD_SIZE);
+    /** True iff moves are made as trial moves (see setTrialMoves). */
+    private boolean _trialMoves = true;
+    /** The best move at the root found by the last search. */
+    private int _rootMove;
+    /** The value found by the last call of bestMove. */
+    private int _value;
+    /** Numbers of full-width and quiescence nodes searched by the current
+     *  call of bestMove. */
+    private long _nodes, _quiescentNodes;
+    /** The value of _quiescentNodes at which the quiescence search below
+     *  the current horizon node gives up. */
+    private long _quiescenceEnd;
+    /** Null moves tried, cutoffs taken after them, and cutoffs refuted by
+     *  verification, in the current call of bestMove. */
+    private long _nullMoves, _nullCutoffs, _nullRefuted;
+    /** Moves searched at reduced depth, and those searched again, in the
+     *  current call of bestMove. */
+    private long _reductionCount, _researches;
+    /** Full-width nodes visited by each iteration of the last call of
+     *  bestMove. */
+    private long[] _depthNodes = new long[0];
+
+}
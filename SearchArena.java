@@ -0,0 +1,150 @@
+package jump61;
+
+import java.util.Arrays;
+
+/** The working memory of one search, allocated once and reused for every
+ *  node: for each ply, a buffer of moves and one of their scores, and a
+ *  stack of undo records for the trial moves made on the search's board
+ *  (see MutableBoard.tryMove).  An undo record is the list of the squares
+ *  a move changed, each with its packed cell (see Board.cell) before the
+ *  change, together with the number of moves and the board's keys
+ *  before it; taking the move back puts the old cells back in reverse
+ *  order and restores the keys.  Undoing a move
+ *  thus costs time proportional to the squares it changed, and neither
+ *  making nor taking back a move allocates anything, unlike a move
+ *  recorded in the board's history, which saves a snapshot of the
+ *  position and so makes the board copy each row it next changes.
+ *
+ *  The buffers grow when a deeper search, a larger board, or a longer
+ *  cascade than any before needs them, and never shrink, so once a
+ *  search of a given depth and board size has run, later ones allocate
+ *  nothing.  An arena belongs to one SearchContext, and so to one thread
+ *  at a time.
+ *  @author Alan Ponte
+ */
+class SearchArena {
+
+    /** An arena with room for searches DEPTH plies deep on boards of
+     *  SQUARES squares. */
+    SearchArena(int depth, int squares) {
+        reserve(depth, squares);
+    }
+
+    /** Make room for searches DEPTH plies deep on boards of SQUARES
+     *  squares. */
+    void reserve(int depth, int squares) {
+        if (squares > _squares) {
+            _squares = squares;
+            for (int ply = 0; ply < _moves.length; ply += 1) {
+                _moves[ply] = new int[squares];
+                _scores[ply] = new int[squares];
+            }
+            _growths += 1;
+        }
+        if (depth + 1 > _moves.length) {
+            int old = _moves.length;
+            _moves = Arrays.copyOf(_moves, depth + 1);
+            _scores = Arrays.copyOf(_scores, depth + 1);
+            for (int ply = old; ply <= depth; ply += 1) {
+                _moves[ply] = new int[_squares];
+                _scores[ply] = new int[_squares];
+            }
+            _growths += 1;
+        }
+    }
+
+    /** Returns the buffer of moves for ply PLY, which has room for every
+     *  square of the boards reserved for. */
+    int[] moves(int ply) {
+        return _moves[ply];
+    }
+
+    /** Returns the buffer of scores for ply PLY, of the same length as
+     *  moves(PLY). */
+    int[] scores(int ply) {
+        return _scores[ply];
+    }
+
+    /** Returns the number of trial moves not yet taken back. */
+    int trials() {
+        return _trials;
+    }
+
+    /** Returns the number of times any of my buffers has grown. */
+    int growths() {
+        return _growths;
+    }
+
+    /** Start the undo record of a trial move made after MOVES moves, when
+     *  the board's keys were KEYS. */
+    void begin(int moves, long[] keys) {
+        if (_trials == _marks.length) {
+            _marks = Arrays.copyOf(_marks, 2 * _marks.length);
+            _keys = Arrays.copyOf(_keys, 2 * _keys.length);
+            _growths += 1;
+        }
+        System.arraycopy(keys, 0, _keys, _trials * Symmetry.COUNT,
+                         Symmetry.COUNT);
+        _marks[_trials] = _size;
+        _trials += 1;
+        add(moves);
+    }
+
+    /** Record that square N held packed cell OLD before the current trial
+     *  move changed it. */
+    void record(int n, int old) {
+        add(n);
+        add(old);
+    }
+
+    /** Returns the number of ints in the undo record of the latest trial
+     *  move, after the number of moves made before it. */
+    int recordSize() {
+        return _size - _marks[_trials - 1] - 1;
+    }
+
+    /** Returns int K of the undo record of the latest trial move, after
+     *  the number of moves made before it. */
+    int recordEntry(int k) {
+        return _log[_marks[_trials - 1] + 1 + k];
+    }
+
+    /** Discard the undo record of the latest trial move, copying the
+     *  board's keys before it into KEYS and returning the number of moves
+     *  made before it. */
+    int end(long[] keys) {
+        _trials -= 1;
+        System.arraycopy(_keys, _trials * Symmetry.COUNT, keys, 0,
+                         Symmetry.COUNT);
+        _size = _marks[_trials];
+        return _log[_size];
+    }
+
+    /** Append X to the undo records. */
+    private void add(int x) {
+        if (_size == _log.length) {
+            _log = Arrays.copyOf(_log, 2 * _log.length);
+            _growths += 1;
+        }
+        _log[_size++] = x;
+    }
+
+    /** Buffers of moves and of scores for each ply. */
+    private int[][] _moves = new int[0][], _scores = new int[0][];
+    /** Number of squares the per-ply buffers have room for. */
+    private int _squares;
+    /** The undo records, one after another: for each trial move, the
+     *  number of moves before it, then pairs of squares and old cells. */
+    private int[] _log = new int[256];
+    /** Number of ints used in _log. */
+    private int _size;
+    /** Start in _log of the undo record of each trial move. */
+    private int[] _marks = new int[64];
+    /** The board's keys before each trial move. */
+    private long[] _keys = new long[64 * Symmetry.COUNT];
+    /** Number of trial moves not yet taken back. */
+    private int _trials;
+    /** Number of times a buffer has grown. */
+    private int _growths;
+
+}
@@ -0,0 +1,212 @@
+package jump61;
+
+/** The private state of one search: a board of its own, a Search over
+ *  it (with its transposition table), an endgame solver, a beam search
+ *  for large boards, scratch buffers for reporting results, and
+ *  statistics.  A context searches positions that are loaded into it,
+ *  normally snapshots of a game's board, and never touches the board
+ *  they came from, so any number of contexts (several A.I.s, analysis
+ *  tasks, spectators) may search positions of one game at once, while
+ *  the game goes on.  Loading a snapshot takes constant time, since the
+ *  context's board shares its rows until it changes them.  A context
+ *  itself must be used by one thread at a time.
+ *  @author Alan Ponte
+ */
+class SearchContext {
+
+    /** A context with an empty board of the default size. */
+    SearchContext() {
+        _board = new MutableBoard(Defaults.BOARD_SIZE);
+        _search = new Search(_board);
+    }
+
+    /** A context whose board initially holds POSITION. */
+    SearchContext(Board position) {
+        this();
+        load(position);
+    }
+
+    /** Make my board's contents those of POSITION.  POSITION should be a
+     *  BoardSnapshot (or some other board that no other thread changes
+     *  while this call runs).  The transposition table is kept, since its
+     *  entries remain valid for any position: their keys include the
+     *  board's shape as well as its contents. */
+    void load(Board position) {
+        _board.copy(position);
+    }
+
+    /** Returns my private board.  Changes to it affect only me. */
+    MutableBoard getBoard() {
+        return _board;
+    }
+
+    /** Returns my Search. */
+    Search search() {
+        return _search;
+    }
+
+    /** Evaluate positions with a PatternEval, kept up to date as my
+     *  board changes, iff ON, and otherwise with my search's weights. */
+    void setPatterns(boolean on) {
+        if (on && _patterns == null) {
+            _patterns = new PatternEval(_board);
+            _search.setPatterns(_patterns);
+        } else if (!on && _patterns != null) {
+            _search.setPatterns(null);
+            _patterns.detach();
+            _patterns = null;
+        }
+    }
+
+    /** Returns the best move for P on my board, found by searching to
+     *  depth DEPTH (see Search.bestMove). */
+    int bestMove(Color p, int depth) {
+        long start = System.nanoTime();
+        int move = _search.bestMove(p, depth);
+        account(start);
+        return move;
+    }
+
+    /** Returns the number of best moves for P on my board (at most K)
+     *  found by searching to depth DEPTH, storing them in moves() and
+     *  their values in values(), best first (see Search.bestMoves). */
+    int bestMoves(Color p, int depth, int k) {
+        if (_moves.length < k) {
+            _moves = new int[k];
+            _values = new int[k];
+        }
+        long start = System.nanoTime();
+        int count = _search.bestMoves(p, depth, k, _moves, _values);
+        account(start);
+        return count;
+    }
+
+    /** Try to prove that P can force a win on my board within MOVES of
+     *  P's moves, visiting at most MAXNODES positions, with my endgame
+     *  solver (see ProofSearch.solve), which is created on first use.
+     *  Returns PROVEN, DISPROVEN, or UNKNOWN; the winning line, if any, is
+     *  then in solver().line(). */
+    int solve(Color p, int moves, long maxNodes) {
+        long start = System.nanoTime();
+        int result = solver().solve(p, moves, maxNodes);
+        _nanos += System.nanoTime() - start;
+        _searches += 1;
+        _totalNodes += _solver.nodes();
+        return result;
+    }
+
+    /** Returns the best move for P on my board that my beam search (see
+     *  BeamSearch), which is created on first use and evaluates positions
+     *  as my search does (see setPatterns), finds within about MILLIS
+     *  milliseconds. */
+    int beamMove(Color p, long millis) {
+        long start = System.nanoTime();
+        beam().setWeights(_search.weights());
+        _beam.setPatterns(_patterns);
+        int move = _beam.bestMove(p, millis);
+        _nanos += System.nanoTime() - start;
+        _searches += 1;
+        _totalNodes += _beam.nodes();
+        return move;
+    }
+
+    /** Returns my beam search, creating it on first use. */
+    BeamSearch beam() {
+        if (_beam == null) {
+            _beam = new BeamSearch(_board);
+        }
+        return _beam;
+    }
+
+    /** Returns my endgame solver, creating it on first use. */
+    ProofSearch solver() {
+        if (_solver == null) {
+            _solver = new ProofSearch(_board);
+        }
+        return _solver;
+    }
+
+    /** Returns the moves found by the last call of bestMoves.  The array
+     *  is reused by later calls. */
+    int[] moves() {
+        return _moves;
+    }
+
+    /** Returns the values of the moves found by the last call of
+     *  bestMoves.  The array is reused by later calls. */
+    int[] values() {
+        return _values;
+    }
+
+    /** Returns the number of moves in the principal variation for P on my
+     *  board after the last search, which is stored in pv().  At most
+     *  MAX moves are found. */
+    int principalVariation(Color p, int max) {
+        if (_pv.length != max) {
+            _pv = new int[max];
+        }
+        return _search.principalVariation(p, _pv);
+    }
+
+    /** Returns the principal variation found by the last call of
+     *  principalVariation.  The array is reused by later calls. */
+    int[] pv() {
+        return _pv;
+    }
+
+    /** Returns the number of searches I have made. */
+    long searches() {
+        return _searches;
+    }
+
+    /** Returns the total time in nanoseconds spent in my searches. */
+    long nanos() {
+        return _nanos;
+    }
+
+    /** Returns the total number of full-width nodes visited by my
+     *  searches. */
+    long totalNodes() {
+        return _totalNodes;
+    }
+
+    /** Returns the number of full-width search nodes visited by my last
+     *  search. */
+    long nodes() {
+        return _search.nodes();
+    }
+
+    /** Returns the number of quiescence search nodes visited by my last
+     *  search. */
+    long quiescentNodes() {
+        return _search.quiescentNodes();
+    }
+
+    /** Add the cost of a search that began at time START to my
+     *  statistics. */
+    private void account(long start) {
+        _nanos += System.nanoTime() - start;
+        _searches += 1;
+        _totalNodes += _search.nodes() + _search.quiescentNodes();
+    }
+
+    /** The board searched. */
+    private final MutableBoard _board;
+    /** The search over _board. */
+    private final Search _search;
+    /** My endgame solver, or null if not yet used. */
+    private ProofSearch _solver;
+    /** My beam search, or null if not yet used. */
+    private BeamSearch _beam;
+    /** My pattern evaluator, or null if I use my search's weights. */
+    private PatternEval _patterns;
+    /** Scratch buffers for the results of bestMoves. */
+    private int[] _moves = new int[0], _values = new int[0];
+    /** Scratch buffer for principal variations. */
+    private int[] _pv = new int[0];
+    /** Number of searches made. */
+    private long _searches;
+    /** Total time and nodes spent in searches. */
+    private long _nanos, _totalNodes;
+
+}
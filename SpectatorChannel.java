@@ -0,0 +1,336 @@
+package jump61;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/** Broadcasts the changes to a board to any number of spectators.  Each
+ *  change is encoded once, as a compact binary frame, and the same
+ *  (read-only) buffer is handed to every subscriber.  Most frames are
+ *  deltas, holding just the squares a change set; every
+ *  Defaults.SPECTATOR_KEYFRAME frames, and whenever the board is cleared
+ *  or copied, the frame is instead a keyframe holding the whole
+ *  position.
+ *
+ *  Each subscriber has a bounded queue of frames.  The game never waits
+ *  for a subscriber: when one's queue is full, its queued frames are
+ *  discarded and replaced by a keyframe of the current position, so
+ *  that it skips ahead; a subscriber that falls behind more than
+ *  Defaults.SPECTATOR_RESYNCS times is dropped.  A new subscriber is
+ *  sent the last keyframe and the deltas since.
+ *
+ *  A frame consists of a type byte (KEYFRAME or DELTA); the frame's
+ *  sequence number, as an int; the ordinal of the kind of the board's
+ *  topology (see Topology.Kind), as a byte; the board size and the number
+ *  of moves, each an int; the number of squares that follow, as a
+ *  varint; and the squares,
+ *  each as the zigzag varint of the difference between its number and
+ *  that of the previous square (or -1), followed by the varint of its
+ *  packed cell (see Board.cell).  A delta numbered K turns position K-1
+ *  into position K, listing squares in the order they changed; a
+ *  keyframe numbered K gives the non-empty squares of position K.
+ *  SpectatorView decodes frames.  Boards whose topologies are graphs,
+ *  or that are more than MAX_SIZE squares on a side, cannot be
+ *  broadcast.
+ *
+ *  The channel is told of changes on the thread changing the board;
+ *  subscribers may read their frames on any threads.
+ *  @author Alan Ponte
+ */
+class SpectatorChannel implements BoardListener {
+
+    /** Frame types. */
+    static final byte KEYFRAME = 1, DELTA = 2;
+
+    /** The largest size of board that may be broadcast. */
+    static final int MAX_SIZE = 1024;
+
+    /** A channel broadcasting the changes to BOARD from now on.  Must be
+     *  created on the thread that changes BOARD. */
+    SpectatorChannel(MutableBoard board) {
+        if (board.topology().kind() == Topology.Kind.GRAPH
+            || board.size() > MAX_SIZE) {
+            throw new IllegalArgumentException("board cannot be broadcast");
+        }
+        _board = board;
+        _recent.add(currentKey());
+        _board.addListener(this);
+    }
+
+    /** A spectator's feed of frames from this channel. */
+    class Subscription {
+
+        /** A subscription with room for CAPACITY frames. */
+        private Subscription(int capacity) {
+            _queue = new ArrayBlockingQueue<>(Math.max(capacity, 1));
+        }
+
+        /** Returns the next frame, or null if there is none now or I am
+         *  closed. */
+        ByteBuffer poll() {
+            ByteBuffer frame = _queue.poll();
+            return frame == END ? null : frame;
+        }
+
+        /** Returns the next frame, waiting for one if necessary, or null
+         *  once I am closed and all frames sent before have been
+         *  taken. */
+        ByteBuffer take() throws InterruptedException {
+            if (_closed && _queue.isEmpty()) {
+                return null;
+            }
+            ByteBuffer frame = _queue.take();
+            return frame == END ? null : frame;
+        }
+
+        /** Returns the number of times I fell behind and was sent a
+         *  keyframe to catch up. */
+        int resyncs() {
+            return _resyncs;
+        }
+
+        /** Returns true iff I have been cancelled or dropped, or my
+         *  channel closed. */
+        boolean isClosed() {
+            return _closed;
+        }
+
+        /** Stop sending me frames. */
+        void cancel() {
+            synchronized (SpectatorChannel.this) {
+                _subscribers.remove(this);
+                end();
+            }
+        }
+
+        /** Send me FRAME, or, if I have fallen behind, a keyframe. */
+        private void send(ByteBuffer frame) {
+            if (_needsKey) {
+                _needsKey = false;
+                frame = currentKey();
+            }
+            if (_queue.offer(frame.asReadOnlyBuffer())) {
+                return;
+            }
+            _queue.clear();
+            _resyncs += 1;
+            _drops += 1;
+            if (_resyncs > Defaults.SPECTATOR_RESYNCS) {
+                _subscribers.remove(this);
+                end();
+            } else {
+                _queue.offer(currentKey().asReadOnlyBuffer());
+            }
+        }
+
+        /** Close me, telling any reader waiting in take.  Frames already
+         *  queued are still delivered if there is room to mark the end
+         *  after them. */
+        private void end() {
+            _closed = true;
+            if (!_queue.offer(END)) {
+                _queue.clear();
+                _queue.offer(END);
+            }
+        }
+
+        /** The frames sent to me and not yet read. */
+        private final ArrayBlockingQueue<ByteBuffer> _queue;
+        /** True iff my next frame must be a keyframe. */
+        private boolean _needsKey;
+        /** Number of times I have fallen behind. */
+        private int _resyncs;
+        /** True iff I am closed. */
+        private volatile boolean _closed;
+    }
+
+    /** Returns a new subscription, whose queue has room for CAPACITY
+     *  frames. */
+    synchronized Subscription subscribe(int capacity) {
+        Subscription sub = new Subscription(capacity);
+        if (_closed) {
+            sub.end();
+            return sub;
+        }
+        if (_recent.size() <= capacity) {
+            for (ByteBuffer frame : _recent) {
+                sub._queue.offer(frame.asReadOnlyBuffer());
+            }
+        } else {
+            sub._queue.offer(_recent.get(0).asReadOnlyBuffer());
+            sub._needsKey = true;
+        }
+        _subscribers.add(sub);
+        return sub;
+    }
+
+    /** Returns a new subscription with a queue of the default size. */
+    Subscription subscribe() {
+        return subscribe(Defaults.SPECTATOR_QUEUE);
+    }
+
+    /** Stop broadcasting, closing all subscriptions. */
+    synchronized void close() {
+        _closed = true;
+        _board.removeListener(this);
+        for (Subscription sub : _subscribers) {
+            sub.end();
+        }
+        _subscribers.clear();
+    }
+
+    @Override
+    public synchronized void boardChanged(BoardDelta delta) {
+        _seq += 1;
+        _key = null;
+        ByteBuffer frame;
+        if (delta.resets()
+            || _seq - _keySeq >= Defaults.SPECTATOR_KEYFRAME) {
+            frame = currentKey();
+            _keySeq = _seq;
+            _recent.clear();
+        } else {
+            frame = encodeDelta(delta);
+        }
+        _recent.add(frame);
+        _frames += 1;
+        _bytes += frame.remaining();
+        for (Subscription sub : new ArrayList<>(_subscribers)) {
+            sub.send(frame);
+        }
+    }
+
+    /** Returns the number of subscribers. */
+    synchronized int subscribers() {
+        return _subscribers.size();
+    }
+
+    /** Returns the number of frames broadcast. */
+    synchronized long frames() {
+        return _frames;
+    }
+
+    /** Returns the total size in bytes of the frames broadcast (each
+     *  counted once, however many subscribers received it). */
+    synchronized long bytes() {
+        return _bytes;
+    }
+
+    /** Returns the number of times a subscriber's queue overflowed. */
+    synchronized long drops() {
+        return _drops;
+    }
+
+    /** Returns a keyframe of the current position, encoding it at most
+     *  once per change. */
+    private ByteBuffer currentKey() {
+        if (_key == null) {
+            _key = encodeKey();
+        }
+        return _key;
+    }
+
+    /** Returns a keyframe of my board's position. */
+    private ByteBuffer encodeKey() {
+        MutableBoard b = _board;
+        int N = b.size();
+        int count = 0;
+        for (int n = 0; n < N * N; n += 1) {
+            if (b.color(n) != Color.WHITE) {
+                count += 1;
+            }
+        }
+        startFrame(KEYFRAME, count);
+        int prev = -1;
+        for (int n = 0; n < N * N; n += 1) {
+            if (b.color(n) != Color.WHITE) {
+                putSquare(n - prev, Board.cell(b.spots(n), b.color(n)));
+                prev = n;
+            }
+        }
+        return finishFrame();
+    }
+
+    /** Returns a delta frame of DELTA, listing each of its changes in
+     *  order. */
+    private ByteBuffer encodeDelta(BoardDelta delta) {
+        startFrame(DELTA, delta.count());
+        int prev = -1;
+        for (int k = 0; k < delta.count(); k += 1) {
+            putSquare(delta.square(k) - prev, delta.newCell(k));
+            prev = delta.square(k);
+        }
+        return finishFrame();
+    }
+
+    /** Start a frame of type TYPE for the current position and sequence
+     *  number, which will list COUNT squares. */
+    private void startFrame(byte type, int count) {
+        _scratch.clear();
+        reserve(1 + 3 * 4 + 1 + 5);
+        _scratch.put(type).putInt(_seq)
+            .put((byte) _board.topology().kind().ordinal())
+            .putInt(_board.size()).putInt(_board.numMoves());
+        putVarint(count);
+    }
+
+    /** Add a square whose number is DIFF more than that of the last to
+     *  the current frame, with packed cell CELL. */
+    private void putSquare(int diff, int cell) {
+        reserve(10);
+        putVarint((diff << 1) ^ (diff >> 31));
+        putVarint(cell);
+    }
+
+    /** Returns a new buffer holding just the current frame. */
+    private ByteBuffer finishFrame() {
+        _scratch.flip();
+        ByteBuffer frame = ByteBuffer.allocate(_scratch.remaining());
+        frame.put(_scratch).flip();
+        return frame;
+    }
+
+    /** Add X to the current frame, unsigned, 7 bits per byte, low
+     *  bits first. */
+    private void putVarint(int x) {
+        while ((x & ~0x7f) != 0) {
+            _scratch.put((byte) ((x & 0x7f) | 0x80));
+            x >>>= 7;
+        }
+        _scratch.put((byte) x);
+    }
+
+    /** Make sure there is room for at least K more bytes in the current
+     *  frame. */
+    private void reserve(int k) {
+        if (_scratch.remaining() < k) {
+            ByteBuffer bigger =
+                ByteBuffer.allocate(2 * _scratch.capacity() + k);
+            _scratch.flip();
+            bigger.put(_scratch);
+            _scratch = bigger;
+        }
+    }
+
+    /** Marks the end of a closed subscription's frames. */
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    /** The board whose changes I broadcast. */
+    private final MutableBoard _board;
+    /** The current subscriptions. */
+    private final ArrayList<Subscription> _subscribers = new ArrayList<>();
+    /** The last keyframe sent and the deltas sent since. */
+    private final ArrayList<ByteBuffer> _recent = new ArrayList<>();
+    /** Buffer in which frames are encoded. */
+    private ByteBuffer _scratch = ByteBuffer.allocate(256);
+    /** A keyframe of the current position, if already encoded. */
+    private ByteBuffer _key;
+    /** Sequence numbers of the current position and of the last
+     *  keyframe broadcast to all. */
+    private int _seq, _keySeq;
+    /** Numbers of frames and bytes broadcast, and of overflows. */
+    private long _frames, _bytes, _drops;
+    /** True iff I have been closed. */
+    private boolean _closed;
+
+}
@@ -0,0 +1,118 @@
+package jump61;
+
+import java.nio.ByteBuffer;
+
+/** A spectator's copy of a board broadcast by a SpectatorChannel, kept
+ *  up to date by applying the channel's frames in order.  A view that
+ *  misses a frame ignores the deltas that follow until the next
+ *  keyframe.
+ *  @author Alan Ponte
+ */
+class SpectatorView {
+
+    /** A view that has not yet seen a keyframe. */
+    SpectatorView() {
+        _board = new MutableBoard(Defaults.BOARD_SIZE);
+    }
+
+    /** Update my board from FRAME (as produced by SpectatorChannel),
+     *  returning true iff it was applied: that is, if it is a keyframe,
+     *  or a delta that follows the last frame applied.  Throws
+     *  GameException if FRAME is malformed, including if it describes a
+     *  board that SpectatorChannel cannot broadcast. */
+    boolean apply(ByteBuffer frame) {
+        ByteBuffer in = frame.duplicate();
+        try {
+            byte type = in.get();
+            int seq = in.getInt(), kind = in.get();
+            int N = in.getInt(), moves = in.getInt();
+            int count = getVarint(in);
+            if (kind < 0 || kind >= Topology.Kind.GRAPH.ordinal()
+                || N < 1 || N > SpectatorChannel.MAX_SIZE) {
+                throw GameException.error("bad board in frame");
+            }
+            if (count < 0 || 2L * count > in.remaining()) {
+                throw GameException.error("bad number of squares in frame");
+            }
+            Topology.Kind shape = Topology.Kind.values()[kind];
+            if (type == SpectatorChannel.KEYFRAME) {
+                if (count > N * N) {
+                    throw GameException.error("bad number of squares in"
+                                              + " frame");
+                }
+                _board.clear(Topology.of(shape, N));
+            } else if (type != SpectatorChannel.DELTA) {
+                throw GameException.error("bad frame type: %d", type);
+            } else if (!_synced || seq != _seq + 1 || N != _board.size()
+                       || shape != _board.topology().kind()) {
+                _synced = false;
+                return false;
+            }
+            int n = -1;
+            for (int k = 0; k < count; k += 1) {
+                int diff = getVarint(in);
+                n += (diff >>> 1) ^ -(diff & 1);
+                int cell = getVarint(in);
+                if (n < 0 || n >= N * N) {
+                    throw GameException.error("bad square in frame: %d", n);
+                }
+                _board.put(n, Board.cellSpots(cell), Board.cellColor(cell));
+            }
+            _board.setMoves(moves);
+            _seq = seq;
+            _synced = true;
+            _applied += 1;
+            return true;
+        } catch (java.nio.BufferUnderflowException excp) {
+            throw GameException.error("truncated frame");
+        }
+    }
+
+    /** Returns my copy of the board.  It must not be changed. */
+    Board getBoard() {
+        return _board;
+    }
+
+    /** Returns an unchanging copy of my board's current contents. */
+    BoardSnapshot snapshot() {
+        return _board.snapshot();
+    }
+
+    /** Returns the sequence number of the last frame applied. */
+    int seq() {
+        return _seq;
+    }
+
+    /** Returns true iff my board is up to date with the frames seen. */
+    boolean synced() {
+        return _synced;
+    }
+
+    /** Returns the number of frames applied. */
+    long applied() {
+        return _applied;
+    }
+
+    /** Returns the next unsigned varint from IN. */
+    private static int getVarint(ByteBuffer in) {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            result |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw GameException.error("bad number in frame");
+    }
+
+    /** My copy of the board. */
+    private final MutableBoard _board;
+    /** Sequence number of the last frame applied. */
+    private int _seq;
+    /** True iff my board reflects every frame up to _seq. */
+    private boolean _synced;
+    /** Number of frames applied. */
+    private long _applied;
+
+}
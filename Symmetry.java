@@ -0,0 +1,86 @@
+package jump61;
+
+/** The eight symmetries of a square board (rotations and reflections),
+ *  and the position keys built on them.  Symmetry #G maps the square at
+ *  0-based row R, column C of an N x N board to:
+ *     0: (R, C)                 4: (R, N-1-C)
+ *     1: (C, N-1-R)             5: (N-1-R, C)
+ *     2: (N-1-R, N-1-C)         6: (C, R)
+ *     3: (N-1-C, R)             7: (N-1-C, N-1-R)
+ *  A board's key under symmetry G is the key of the board obtained by
+ *  moving each square S to map(G, S, N).  The canonical key of a board is
+ *  the least of its eight keys, so all eight symmetric variants of a
+ *  position share it.
+ *  @author Alan Ponte
+ */
+class Symmetry {
+
+    /** Number of symmetries of a square board. */
+    static final int COUNT = 8;
+
+    /** Returns the number of the square to which symmetry G moves square
+     *  #S of an N x N board. */
+    static int map(int g, int s, int N) {
+        int r = s / N, c = s % N, m = N - 1;
+        switch (g) {
+        case 0:
+            return s;
+        case 1:
+            return c * N + (m - r);
+        case 2:
+            return (m - r) * N + (m - c);
+        case 3:
+            return (m - c) * N + r;
+        case 4:
+            return r * N + (m - c);
+        case 5:
+            return (m - r) * N + c;
+        case 6:
+            return c * N + r;
+        case 7:
+            return (m - c) * N + (m - r);
+        default:
+            throw new IllegalArgumentException("bad symmetry");
+        }
+    }
+
+    /** Returns the symmetry that undoes symmetry G. */
+    static int inverse(int g) {
+        switch (g) {
+        case 1:
+            return 3;
+        case 3:
+            return 1;
+        default:
+            return g;
+        }
+    }
+
+    /** Returns the contribution to a position key of packed cell CELL on
+     *  square #S.  Empty squares contribute 0. */
+    static long squareKey(int s, int cell) {
+        if (cell == BLANK) {
+            return 0;
+        }
+        long z = ((long) s << 32 | cell) * 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /** Returns the index of the least of KEYS (the first, on ties). */
+    static int least(long[] keys) {
+        int result = 0;
+        for (int g = 1; g < keys.length; g += 1) {
+            if (keys[g] < keys[result]) {
+                result = g;
+            }
+        }
+        return result;
+    }
+
+    /** The packed cell of an empty square. */
+    private static final int BLANK =
+        Board.cell(Defaults.INIT_SPOTS, Defaults.BLANK_COLOR);
+
+}
@@ -0,0 +1,272 @@
+package jump61;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static jump61.GameException.error;
+
+/** The shape of a board: which of its N x N squares are next to which.
+ *  A topology is compiled into compressed sparse row (CSR) form: the
+ *  neighbors of square n are targets()[offsets()[n]] through
+ *  targets()[offsets()[n + 1] - 1], and the capacity of square n (the
+ *  number of spots it can hold without jumping) is its number of
+ *  neighbors.  Jumping, the A.I.'s evaluations, and the display walk
+ *  these arrays, so they work unchanged on any shape.
+ *
+ *  The standard shape is the GRID, in which each square's neighbors are
+ *  the squares above, below, left, and right of it, in that order.  A
+ *  TORUS is a grid whose edges wrap around, so that every square has
+ *  four neighbors.  A HEX board is a rhombus of hexagons: each square
+ *  also neighbors the squares up and to the right and down and to the
+ *  left of it.  A GRAPH is any other shape, given by its neighbor lists.
+ *
+ *  Topologies are immutable, and the standard ones are shared among all
+ *  boards of the same kind and size.
+ *  @author Alan Ponte
+ */
+class Topology {
+
+    /** The kinds of topology. */
+    enum Kind {
+        GRID, TORUS, HEX, GRAPH;
+
+        /** Returns the lower-case name of this kind. */
+        @Override
+        public String toString() {
+            return super.toString().toLowerCase();
+        }
+    }
+
+    /** Most neighbors any square of a standard topology has. */
+    static final int MAX_DEGREE = 6;
+
+    /** Returns the standard grid of N x N squares. */
+    static Topology grid(int N) {
+        return of(Kind.GRID, N);
+    }
+
+    /** Returns the topology of kind KIND with N x N squares, which must
+     *  not be GRAPH. */
+    static Topology of(Kind kind, int N) {
+        if (kind == Kind.GRAPH) {
+            throw new IllegalArgumentException("graphs have no standard"
+                                               + " form");
+        }
+        long id = (long) N << 2 | kind.ordinal();
+        synchronized (CACHE) {
+            Topology result = CACHE.get(id);
+            if (result == null) {
+                result = new Topology(kind, N, null);
+                CACHE.put(id, result);
+            }
+            return result;
+        }
+    }
+
+    /** Returns the topology of kind NAME (grid, torus, or hex) with N x N
+     *  squares.  Throws GameException if NAME is not such a kind. */
+    static Topology parse(String name, int N) {
+        for (Kind kind : Kind.values()) {
+            if (kind != Kind.GRAPH && kind.toString().equals(name)) {
+                return of(kind, N);
+            }
+        }
+        throw error("unknown board topology: %s", name);
+    }
+
+    /** Returns the topology of N x N squares in which the neighbors of
+     *  square n are NEIGHBORS[n], in order.  Each square must have at
+     *  least one neighbor, and square m must be a neighbor of square n
+     *  iff n is one of m, at most once. */
+    static Topology graph(int N, int[][] neighbors) {
+        if (neighbors.length != N * N) {
+            throw new IllegalArgumentException("wrong number of squares");
+        }
+        return new Topology(Kind.GRAPH, N, neighbors);
+    }
+
+    /** A topology of kind KIND with N x N squares whose neighbors are
+     *  NEIGHBORS (if KIND is GRAPH; otherwise they are computed). */
+    private Topology(Kind kind, int N, int[][] neighbors) {
+        if (N < 1 || kind == Kind.TORUS && N < 3) {
+            throw error("a %s must be at least %dx%d", kind,
+                        kind == Kind.TORUS ? 3 : 1,
+                        kind == Kind.TORUS ? 3 : 1);
+        }
+        _kind = kind;
+        _N = N;
+        int squares = N * N;
+        _offsets = new int[squares + 1];
+        _capacity = new int[squares];
+        int[] step = new int[MAX_DEGREE];
+        int edges = 0;
+        for (int n = 0; n < squares; n += 1) {
+            int degree = neighbors == null ? compute(n, step)
+                : neighbors[n].length;
+            if (degree == 0 && kind == Kind.GRAPH) {
+                throw new IllegalArgumentException("isolated square");
+            }
+            _capacity[n] = degree;
+            edges += degree;
+            _offsets[n + 1] = edges;
+            _maxDegree = Math.max(_maxDegree, degree);
+        }
+        _targets = new int[edges];
+        for (int n = 0; n < squares; n += 1) {
+            if (neighbors == null) {
+                compute(n, step);
+                System.arraycopy(step, 0, _targets, _offsets[n],
+                                 _capacity[n]);
+            } else {
+                System.arraycopy(neighbors[n], 0, _targets, _offsets[n],
+                                 _capacity[n]);
+            }
+        }
+    }
+
+    /** Store the neighbors of square N in my standard shape in the first
+     *  elements of RESULT, returning their number. */
+    private int compute(int n, int[] result) {
+        int N = _N, r = n / N, c = n % N;
+        if (_kind == Kind.TORUS) {
+            result[0] = (r + N - 1) % N * N + c;
+            result[1] = (r + 1) % N * N + c;
+            result[2] = r * N + (c + N - 1) % N;
+            result[3] = r * N + (c + 1) % N;
+            return 4;
+        }
+        int k = 0;
+        if (r > 0) {
+            result[k++] = n - N;
+        }
+        if (r < N - 1) {
+            result[k++] = n + N;
+        }
+        if (c > 0) {
+            result[k++] = n - 1;
+        }
+        if (c < N - 1) {
+            result[k++] = n + 1;
+        }
+        if (_kind == Kind.HEX) {
+            if (r > 0 && c < N - 1) {
+                result[k++] = n - N + 1;
+            }
+            if (r < N - 1 && c > 0) {
+                result[k++] = n + N - 1;
+            }
+        }
+        return k;
+    }
+
+    /** Returns my kind. */
+    Kind kind() {
+        return _kind;
+    }
+
+    /** Returns the number of squares on a side of my boards. */
+    int size() {
+        return _N;
+    }
+
+    /** Returns the topology of my kind with N x N squares. */
+    Topology resize(int N) {
+        if (N == _N) {
+            return this;
+        }
+        if (_kind == Kind.GRAPH) {
+            throw error("cannot resize a %s board", _kind);
+        }
+        return of(_kind, N);
+    }
+
+    /** Returns the capacity (number of neighbors) of square N. */
+    int capacity(int n) {
+        return _capacity[n];
+    }
+
+    /** Returns neighbor K of square N, or -1 if it has K or fewer
+     *  neighbors. */
+    int neighbor(int n, int k) {
+        return k < _capacity[n] ? _targets[_offsets[n] + k] : -1;
+    }
+
+    /** Returns the most neighbors of any of my squares. */
+    int maxDegree() {
+        return _maxDegree;
+    }
+
+    /** Returns the capacities of my squares.  Must not be modified. */
+    int[] capacities() {
+        return _capacity;
+    }
+
+    /** Returns the start of each square's neighbors in targets(), followed
+     *  by the length of targets().  Must not be modified. */
+    int[] offsets() {
+        return _offsets;
+    }
+
+    /** Returns the neighbors of all my squares.  Must not be modified. */
+    int[] targets() {
+        return _targets;
+    }
+
+    /** Returns true iff the eight symmetries of the square (see Symmetry)
+     *  carry neighbors to neighbors on my boards, so that positions that
+     *  they relate are equivalent. */
+    boolean symmetric() {
+        return _kind == Kind.GRID || _kind == Kind.TORUS;
+    }
+
+    /** Returns true iff OBJ is a topology of the same shape as mine: of
+     *  the same standard kind and size, or the same graph. */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof Topology)) {
+            return false;
+        }
+        Topology other = (Topology) obj;
+        return _kind != Kind.GRAPH && _kind == other._kind && _N == other._N;
+    }
+
+    @Override
+    public int hashCode() {
+        return _kind == Kind.GRAPH ? System.identityHashCode(this)
+            : _N << 2 | _kind.ordinal();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %dx%d", _kind, _N, _N);
+    }
+
+    /** Maximum number of standard topologies kept for reuse. */
+    private static final int CACHE_SIZE = 8;
+
+    /** Recently used standard topologies, by size and kind. */
+    private static final Map<Long, Topology> CACHE =
+        new LinkedHashMap<Long, Topology>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Topology> e) {
+                return size() > CACHE_SIZE;
+            }
+        };
+
+    /** My kind. */
+    private final Kind _kind;
+    /** Number of squares on a side. */
+    private final int _N;
+    /** Start of each square's neighbors in _targets, and its length. */
+    private final int[] _offsets;
+    /** Neighbors of each square, in order. */
+    private final int[] _targets;
+    /** Capacity of each square. */
+    private final int[] _capacity;
+    /** The most neighbors of any square. */
+    private int _maxDegree;
+
+}
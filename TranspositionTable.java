@@ -0,0 +1,108 @@
+package jump61;
+
+import java.util.Arrays;
+
+/** A fixed-size table of search results, indexed by position key.  Keys
+ *  are canonical (see Symmetry), so the eight symmetric variants of a
+ *  position share one entry, and moves are stored in the canonical
+ *  orientation.  When two keys collide on a slot, the newer result
+ *  replaces the older unless the older came from a deeper search.
+ *  @author Alan Ponte
+ */
+class TranspositionTable {
+
+    /** Kinds of stored value: exact, or a lower or upper bound. */
+    static final byte EXACT = 0, LOWER = 1, UPPER = 2;
+
+    /** A table with 2**BITS entries. */
+    TranspositionTable(int bits) {
+        int size = 1 << bits;
+        _mask = size - 1;
+        _keys = new long[size];
+        _values = new int[size];
+        _moves = new int[size];
+        _depths = new byte[size];
+        _kinds = new byte[size];
+    }
+
+    /** Returns the slot holding KEY, or -1 if KEY is not present. */
+    int find(long key) {
+        int i = slot(key);
+        _probes += 1;
+        if (_depths[i] > 0 && _keys[i] == key) {
+            _hits += 1;
+            return i;
+        }
+        return -1;
+    }
+
+    /** Returns the value stored in SLOT. */
+    int value(int slot) {
+        return _values[slot];
+    }
+
+    /** Returns the canonical move stored in SLOT, or -1 if none. */
+    int move(int slot) {
+        return _moves[slot];
+    }
+
+    /** Returns the depth of the search whose result is in SLOT. */
+    int depth(int slot) {
+        return _depths[slot] - 1;
+    }
+
+    /** Returns the kind (EXACT, LOWER, or UPPER) of the value in SLOT. */
+    byte kind(int slot) {
+        return _kinds[slot];
+    }
+
+    /** Record that a search of depth DEPTH from the position with key KEY
+     *  found VALUE, of the given KIND, with best canonical move MOVE. */
+    void store(long key, int depth, int value, byte kind, int move) {
+        int i = slot(key);
+        if (_depths[i] > 0 && _keys[i] != key && _depths[i] > depth + 1) {
+            return;
+        }
+        _keys[i] = key;
+        _depths[i] = (byte) Math.min(depth + 1, Byte.MAX_VALUE);
+        _values[i] = value;
+        _kinds[i] = kind;
+        _moves[i] = move;
+    }
+
+    /** Remove all entries. */
+    void clear() {
+        Arrays.fill(_depths, (byte) 0);
+    }
+
+    /** Returns the number of lookups since creation. */
+    long probes() {
+        return _probes;
+    }
+
+    /** Returns the number of successful lookups since creation. */
+    long hits() {
+        return _hits;
+    }
+
+    /** Returns the slot for KEY. */
+    private int slot(long key) {
+        return (int) (key ^ (key >>> 32)) & _mask;
+    }
+
+    /** Mask selecting a slot number from a hash. */
+    private final int _mask;
+    /** The keys of the entries; an entry is empty when its depth is 0. */
+    private final long[] _keys;
+    /** The stored values. */
+    private final int[] _values;
+    /** The stored canonical best moves. */
+    private final int[] _moves;
+    /** One more than the stored search depths; 0 for empty entries. */
+    private final byte[] _depths;
+    /** The kinds of the stored values. */
+    private final byte[] _kinds;
+    /** Numbers of lookups and of successful lookups. */
+    private long _probes, _hits;
+
+}
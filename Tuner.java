@@ -0,0 +1,318 @@
+package jump61;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+/** Fits the evaluation Weights to the results of self-play.  Games
+ *  between two copies of the A.I., evaluating with the tuner's starting
+ *  weights (each game starting from a few random moves), are played in
+ *  parallel, and every position reached is recorded
+ *  with its features, from the point of view of the player to move, and
+ *  labelled 1 if that player went on to win and 0 otherwise.  The
+ *  weights are then fitted "Texel" style: the win probability predicted
+ *  for a position of value V is 1 / (1 + exp(-K V)), where K is first
+ *  chosen to fit the starting weights as well as possible, and the
+ *  weights are then moved by gradient descent to minimize the mean
+ *  squared difference between predictions and labels.  Both the games
+ *  and the gradient computations use all the threads given; the games
+ *  may instead be played in worker processes (see Coordinator), which
+ *  send back GameRecords that are replayed here to find the samples.
+ *  @author Alan Ponte
+ */
+class Tuner {
+
+    /** A tuner that plays games on N x N boards, searching to depth
+     *  DEPTH, on THREADS threads, starting from the default weights. */
+    Tuner(int N, int depth, int threads) {
+        this(N, depth, threads, new Weights());
+    }
+
+    /** A tuner that plays games on N x N boards, searching to depth
+     *  DEPTH, on THREADS threads, evaluating positions with, and fitting
+     *  weights starting from, WEIGHTS.  The weights are never those of
+     *  Weights.standard(), which depend on the directory the tuner runs
+     *  in, unless they are passed here. */
+    Tuner(int N, int depth, int threads, Weights weights) {
+        _N = N;
+        _depth = depth;
+        _threads = threads;
+        _weights = weights;
+    }
+
+    /** Play GAMES games, fit weights to them, and write the weights to
+     *  OUTPUT.  Returns the fitted weights. */
+    Weights run(int games, Path output) throws IOException {
+        long start = System.nanoTime();
+        selfPlay(games, 61);
+        double playSecs = (System.nanoTime() - start) / 1e9;
+        start = System.nanoTime();
+        Weights result = fit(Defaults.TUNER_STEPS);
+        double fitSecs = (System.nanoTime() - start) / 1e9;
+        String summary =
+            String.format("%d games on %dx%d at depth %d: %d positions;"
+                          + " error %.5f -> %.5f (K = %.4f)",
+                          games, _N, _N, _depth, _size, _initialError,
+                          _finalError, _k);
+        String timing =
+            String.format("self-play %.1f s, fitting %.1f s, %d threads%s",
+                          playSecs, fitSecs, _threads,
+                          _workers > 0 ? ", " + _workers + " workers" : "");
+        result.save(output, "Fitted by Tuner.", summary, timing);
+        System.out.println(summary);
+        System.out.println(timing);
+        System.out.println(result);
+        return result;
+    }
+
+    /** Play the self-play games in WORKERS worker processes, rather than
+     *  on my threads, if WORKERS is positive. */
+    void setWorkers(int workers) {
+        _workers = workers;
+    }
+
+    /** Play GAMES self-play games, using random seeds derived from SEED,
+     *  and add their positions to my samples. */
+    void selfPlay(int games, long seed) {
+        for (GameRecord record : playGames(games, seed)) {
+            addSamples(samples(record));
+        }
+    }
+
+    /** Returns the records of GAMES self-play games, using random seeds
+     *  derived from SEED, played on my threads or in my workers. */
+    List<GameRecord> playGames(int games, long seed) {
+        long[] seeds = new long[games];
+        for (int g = 0; g < games; g += 1) {
+            seeds[g] = seed * 1_000_003L + g;
+        }
+        if (_workers > 0) {
+            if (!_weights.isDefault()) {
+                throw new GameException("worker processes play only with"
+                                        + " the default weights");
+            }
+            Coordinator coordinator =
+                new Coordinator(_workers, Coordinator.command(_N, _depth, 0));
+            return coordinator.play(seeds);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        try {
+            List<Future<GameRecord>> results = new ArrayList<>();
+            for (long gameSeed : seeds) {
+                results.add(pool.submit(() -> playGame(gameSeed)));
+            }
+            List<GameRecord> records = new ArrayList<>();
+            for (Future<GameRecord> result : results) {
+                records.add(result.get());
+            }
+            return records;
+        } catch (InterruptedException | ExecutionException excp) {
+            throw new GameException("self-play failed: " + excp.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Returns the record of one self-play game with random seed SEED.
+     *  The game is abandoned, with no winner, if it runs too long. */
+    GameRecord playGame(long seed) {
+        long start = System.nanoTime();
+        Random rand = new Random(seed);
+        MutableBoard board = new MutableBoard(_N);
+        SearchContext context = new SearchContext();
+        context.search().setWeights(_weights);
+        int opening = 1 + rand.nextInt(_N);
+        int[] moves =
+            new int[GameRecord.MAX_MOVES_PER_SQUARE * _N * _N + 1];
+        long nodes = 0;
+        while (!board.won() && board.numMoves() < moves.length) {
+            Color p = board.whoseMove();
+            int move;
+            if (board.numMoves() < opening) {
+                do {
+                    move = rand.nextInt(_N * _N);
+                } while (!board.isLegal(p, move));
+            } else {
+                context.load(board.snapshot());
+                move = context.bestMove(p, _depth);
+                nodes += context.nodes() + context.quiescentNodes();
+            }
+            moves[board.numMoves()] = move;
+            board.addSpot(p, move);
+        }
+        return new GameRecord(board.topology(), seed,
+                              Math.min(opening, board.numMoves()), moves,
+                              board.numMoves(),
+                              board.won() ? board.color(0) : Color.WHITE,
+                              nodes, System.nanoTime() - start);
+    }
+
+    /** Returns the samples from the self-play game recorded in RECORD:
+     *  for each position in which the A.I. chose the move, its features
+     *  for the player to move followed by 1 if that player won and 0
+     *  otherwise.  Returns no samples if the game was abandoned. */
+    static double[][] samples(GameRecord record) {
+        if (record.winner() == Color.WHITE) {
+            return new double[0][];
+        }
+        int opening = Math.min(record.opening(), record.numMoves());
+        double[][] samples = new double[record.numMoves() - opening][];
+        MutableBoard board = record.replay(opening);
+        for (int k = opening; k < record.numMoves(); k += 1) {
+            Color p = board.whoseMove();
+            double[] sample = new double[Weights.COUNT + 1];
+            Weights.features(board, p, sample);
+            sample[Weights.COUNT] = p == record.winner() ? 1 : 0;
+            samples[k - opening] = sample;
+            board.addSpot(p, record.move(k));
+        }
+        return samples;
+    }
+
+    /** Returns weights fitted to my samples by STEPS steps of gradient
+     *  descent, starting from my starting weights. */
+    Weights fit(int steps) {
+        double[] w = new double[Weights.COUNT];
+        for (int j = 0; j < Weights.COUNT; j += 1) {
+            w[j] = _weights.get(j);
+        }
+        _k = fitK(w);
+        _initialError = error(w, _k);
+        double[] scale = new double[Weights.COUNT];
+        for (int i = 0; i < _size; i += 1) {
+            for (int j = 0; j < Weights.COUNT; j += 1) {
+                scale[j] += _x[i][j] * _x[i][j];
+            }
+        }
+        for (int j = 0; j < Weights.COUNT; j += 1) {
+            scale[j] = _k * _k * (scale[j] / Math.max(_size, 1) + 1e-9);
+        }
+        for (int step = 0; step < steps; step += 1) {
+            double[] g = gradient(w, _k);
+            for (int j = 0; j < Weights.COUNT; j += 1) {
+                w[j] -= LEARNING_RATE * g[j] / scale[j];
+            }
+        }
+        _finalError = error(w, _k);
+        return new Weights(w);
+    }
+
+    /** Returns the number of samples. */
+    int samples() {
+        return _size;
+    }
+
+    /** Returns the K for which the predictions of weights W best fit my
+     *  samples, found by a golden-section search. */
+    private double fitK(double[] w) {
+        double lo = 1e-4, hi = 4;
+        double phi = (Math.sqrt(5) - 1) / 2;
+        for (int i = 0; i < 60; i += 1) {
+            double a = hi - phi * (hi - lo), b = lo + phi * (hi - lo);
+            if (error(w, a) < error(w, b)) {
+                hi = b;
+            } else {
+                lo = a;
+            }
+        }
+        return (lo + hi) / 2;
+    }
+
+    /** Returns the mean squared error of the predictions of weights W,
+     *  with scale K, over my samples. */
+    double error(double[] w, double k) {
+        double sum = IntStream.range(0, _size).parallel()
+            .mapToDouble(i -> {
+                    double e = predict(w, k, _x[i]) - _y[i];
+                    return e * e;
+                }).sum();
+        return sum / Math.max(_size, 1);
+    }
+
+    /** Returns the gradient of error(W, K) with respect to W. */
+    private double[] gradient(double[] w, double k) {
+        int chunks = Math.max(1, Math.min(_threads * 4, _size / 1024));
+        double[][] parts = new double[chunks][Weights.COUNT];
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+                double[] g = parts[c];
+                for (int i = c * _size / chunks; i < (c + 1) * _size / chunks;
+                     i += 1) {
+                    double p = predict(w, k, _x[i]);
+                    double d = 2 * (p - _y[i]) * p * (1 - p) * k;
+                    for (int j = 0; j < Weights.COUNT; j += 1) {
+                        g[j] += d * _x[i][j];
+                    }
+                }
+            });
+        double[] g = new double[Weights.COUNT];
+        for (double[] part : parts) {
+            for (int j = 0; j < Weights.COUNT; j += 1) {
+                g[j] += part[j] / Math.max(_size, 1);
+            }
+        }
+        return g;
+    }
+
+    /** Returns the win probability predicted by weights W, with scale K,
+     *  for a position with features X. */
+    private static double predict(double[] w, double k, double[] x) {
+        double v = 0;
+        for (int j = 0; j < Weights.COUNT; j += 1) {
+            v += w[j] * x[j];
+        }
+        return 1 / (1 + Math.exp(-k * v));
+    }
+
+    /** Add SAMPLES (each features followed by the label) to my
+     *  samples. */
+    private void addSamples(double[][] samples) {
+        for (double[] sample : samples) {
+            addSample(sample);
+        }
+    }
+
+    /** Add SAMPLE (features followed by the label) to my samples. */
+    private void addSample(double[] sample) {
+        if (_size == _x.length) {
+            _x = Arrays.copyOf(_x, 2 * _x.length + 16);
+            _y = Arrays.copyOf(_y, _x.length);
+        }
+        _x[_size] = sample;
+        _y[_size] = sample[Weights.COUNT];
+        _size += 1;
+    }
+
+    /** Step size of the gradient descent, relative to each feature's
+     *  mean square. */
+    private static final double LEARNING_RATE = 0.5;
+
+    /** Size of the boards played on. */
+    private final int _N;
+    /** Depth of the self-play searches. */
+    private final int _depth;
+    /** Number of threads used. */
+    private final int _threads;
+    /** The weights used in self-play and from which fitting starts. */
+    private final Weights _weights;
+    /** Number of worker processes playing games, or 0 to play them on
+     *  my threads. */
+    private int _workers;
+    /** Features of the samples (each followed by its label). */
+    private double[][] _x = new double[0][];
+    /** Labels of the samples. */
+    private double[] _y = new double[0];
+    /** Number of samples. */
+    private int _size;
+    /** The fitted scale of values, and the errors before and after
+     *  fitting. */
+    private double _k, _initialError, _finalError;
+
+}
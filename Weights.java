@@ -0,0 +1,232 @@
+package jump61;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static jump61.GameException.error;
+
+/** The weights of the A.I.'s static evaluation.  A position is valued, for
+ *  a player P, as the weighted sum of its features: for each feature
+ *  (see FEATURES), the amount by which P leads the opponent in it.
+ *  The default weights (1 for "squares", 0 for the rest) give the plain
+ *  difference in numbers of squares.  Other weights give the sum in
+ *  fixed point, in units of 1/UNIT, so that fractional weights, such
+ *  as Tuner fits, are not rounded away.
+ *
+ *  Weights are kept in text files of lines "FEATURE WEIGHT"; blank lines
+ *  and lines starting with "#" are ignored, and missing features have
+ *  weight 0.  Tuner writes such files, and the A.I. loads
+ *  Defaults.WEIGHTS_FILE, if there is one, when it starts.
+ *  @author Alan Ponte
+ */
+class Weights {
+
+    /** The names of the features:
+     *  squares:  squares owned.
+     *  spots:    spots on squares owned.
+     *  critical: squares owned at critical mass.
+     *  corners:  corner squares owned.
+     *  edges:    edge squares (not corners) owned.
+     *  threats:  squares at critical mass next to an opponent's
+     *            square. */
+    static final String[] FEATURES = {
+        "squares", "spots", "critical", "corners", "edges", "threats"
+    };
+
+    /** Number of features. */
+    static final int COUNT = FEATURES.length;
+
+    /** The value under weights other than the defaults of a lead of one
+     *  in a feature of weight 1. */
+    static final int UNIT = 64;
+
+    /** The default weights. */
+    Weights() {
+        _weights = new double[COUNT];
+        _weights[SQUARES] = 1;
+        _default = true;
+    }
+
+    /** The weights WEIGHTS, in the order of FEATURES. */
+    Weights(double[] weights) {
+        if (weights.length != COUNT) {
+            throw new IllegalArgumentException("wrong number of weights");
+        }
+        _weights = weights.clone();
+        _default = Arrays.equals(_weights, new Weights()._weights);
+    }
+
+    /** Returns the weights the A.I. uses unless told otherwise: those in
+     *  Defaults.WEIGHTS_FILE, read on first use, if it exists and is
+     *  well formed, and otherwise the defaults. */
+    static Weights standard() {
+        return Standard.WEIGHTS;
+    }
+
+    /** Holder of the standard weights, loaded when first needed. */
+    private static class Standard {
+        /** The standard weights. */
+        static final Weights WEIGHTS = loadStandard();
+
+        /** Returns the weights in Defaults.WEIGHTS_FILE, or the defaults
+         *  if it is missing or malformed. */
+        private static Weights loadStandard() {
+            Path file = Paths.get(Defaults.WEIGHTS_FILE);
+            if (!Files.exists(file)) {
+                return new Weights();
+            }
+            try {
+                return load(file);
+            } catch (IOException | GameException excp) {
+                System.err.printf("%s: %s; using default weights%n",
+                                  file, excp.getMessage());
+                return new Weights();
+            }
+        }
+    }
+
+    /** Returns the weights in FILE.  Throws GameException if it is
+     *  malformed. */
+    static Weights load(Path file) throws IOException {
+        double[] weights = new double[COUNT];
+        try (BufferedReader in = Files.newBufferedReader(file)) {
+            int lineNum = 0;
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                lineNum += 1;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] words = line.split("\\s+");
+                int k = index(words[0]);
+                if (words.length != 2 || k < 0) {
+                    throw error("line %d: bad weight", lineNum);
+                }
+                try {
+                    weights[k] = Double.parseDouble(words[1]);
+                } catch (NumberFormatException excp) {
+                    throw error("line %d: bad weight", lineNum);
+                }
+            }
+        }
+        return new Weights(weights);
+    }
+
+    /** Write me to FILE, preceded by the comment lines COMMENTS. */
+    void save(Path file, String... comments) throws IOException {
+        try (PrintWriter out =
+                 new PrintWriter(Files.newBufferedWriter(file))) {
+            for (String comment : comments) {
+                out.printf("# %s%n", comment);
+            }
+            for (int k = 0; k < COUNT; k += 1) {
+                out.printf("%-8s %.6f%n", FEATURES[k], _weights[k]);
+            }
+        }
+    }
+
+    /** Returns the weight of feature K. */
+    double get(int k) {
+        return _weights[k];
+    }
+
+    /** Returns true iff I am the default weights. */
+    boolean isDefault() {
+        return _default;
+    }
+
+    /** Returns the value I give a lead of one in a feature of weight 1:
+     *  1 if I am the defaults, and otherwise UNIT. */
+    int unit() {
+        return _default ? 1 : UNIT;
+    }
+
+    /** Returns the value of BOARD for P under my weights (ignoring
+     *  whether it is won), short of a win or loss (see Search.WIN). */
+    int evaluate(Board board, Color p) {
+        if (_default) {
+            return board.numOfColor(p) - board.numOfColor(p.opposite());
+        }
+        double[] f = new double[COUNT];
+        features(board, p, f);
+        long value = Math.round(UNIT * dot(f));
+        return (int) Math.max(1 - Search.WIN, Math.min(Search.WIN - 1, value));
+    }
+
+    /** Returns the weighted sum of the features F. */
+    double dot(double[] f) {
+        double sum = 0;
+        for (int k = 0; k < COUNT; k += 1) {
+            sum += _weights[k] * f[k];
+        }
+        return sum;
+    }
+
+    /** Set F[k] to the amount by which P leads the opponent in feature K
+     *  on BOARD. */
+    static void features(Board board, Color p, double[] f) {
+        Arrays.fill(f, 0);
+        int N = board.size();
+        for (int n = 0; n < N * N; n += 1) {
+            Color c = board.color(n);
+            if (c == Color.WHITE) {
+                continue;
+            }
+            int sign = c == p ? 1 : -1;
+            int spots = board.spots(n), neighbors = board.neighbors(n);
+            f[SQUARES] += sign;
+            f[SPOTS] += sign * spots;
+            if (neighbors == 2) {
+                f[CORNERS] += sign;
+            } else if (neighbors == 3) {
+                f[EDGES] += sign;
+            }
+            if (spots == neighbors) {
+                f[CRITICAL] += sign;
+                for (int k = 0; k < neighbors; k += 1) {
+                    int adj = board.adjacent(k, n);
+                    if (board.color(adj) == c.opposite()) {
+                        f[THREATS] += sign;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /** Returns the index of the feature named NAME, or -1. */
+    private static int index(String name) {
+        for (int k = 0; k < COUNT; k += 1) {
+            if (FEATURES[k].equals(name)) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        for (int k = 0; k < COUNT; k += 1) {
+            out.append(String.format("%s%s=%.3f", k == 0 ? "" : " ",
+                                     FEATURES[k], _weights[k]));
+        }
+        return out.toString();
+    }
+
+    /** Indices of the features. */
+    private static final int SQUARES = 0, SPOTS = 1, CRITICAL = 2,
+        CORNERS = 3, EDGES = 4, THREATS = 5;
+
+    /** The weights, in the order of FEATURES. */
+    private final double[] _weights;
+    /** True iff I am the default weights. */
+    private final boolean _default;
+
+}